@@ -0,0 +1,96 @@
+package com.acn.rdma.client_proxy;
+
+/**
+ * This class represents the byte range requested by the browser with the Range header, for example
+ * <tt>bytes=0-499</tt>, <tt>bytes=500-</tt> or <tt>bytes=-500</tt> (the last 500 bytes).
+ * <p>
+ * Only a single range is served as partial content. A header with several ranges or with invalid syntax is
+ * ignored, and the whole resource is sent, as allowed by RFC 7233.
+ * </p>
+ * @version 1
+ */
+public class ByteRange {
+	
+	private long start;
+	private long end;
+	private boolean satisfiable;
+	
+	private ByteRange(long start, long end, boolean satisfiable) {
+		this.start = start;
+		this.end = end;
+		this.satisfiable = satisfiable;
+	}
+	
+	/**
+	 * Parses the Range header for a resource of the given length.
+	 * @param header the value of the Range header
+	 * @param length the length of the resource
+	 * @return the range, or null if the header should be ignored.
+	 */
+	public static ByteRange parse(String header, long length) {
+		if (header == null) return null;
+		header = header.trim();
+		if (!header.startsWith("bytes=")) return null;
+		String spec = header.substring("bytes=".length()).trim();
+		if (spec.indexOf(',') >= 0) return null;
+		int dash = spec.indexOf('-');
+		if (dash < 0) return null;
+		try {
+			String first = spec.substring(0, dash).trim();
+			String last = spec.substring(dash + 1).trim();
+			if (first.isEmpty()) {
+				// suffix range, the last bytes of the resource
+				if (last.isEmpty()) return null;
+				long suffix = Long.parseLong(last);
+				if (suffix < 0) return null;
+				if (suffix == 0 || length == 0) return new ByteRange(0, -1, false);
+				return new ByteRange(Math.max(0, length - suffix), length - 1, true);
+			}
+			long start = Long.parseLong(first);
+			if (start < 0) return null;
+			if (last.isEmpty()) {
+				if (start >= length) return new ByteRange(0, -1, false);
+				return new ByteRange(start, length - 1, true);
+			}
+			long end = Long.parseLong(last);
+			if (end < start) return null;
+			if (start >= length) return new ByteRange(0, -1, false);
+			return new ByteRange(start, Math.min(end, length - 1), true);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Gets the first byte of the range.
+	 * @return the offset of the first byte
+	 */
+	public long getStart() {
+		return start;
+	}
+	
+	/**
+	 * Gets the last byte of the range (inclusive).
+	 * @return the offset of the last byte
+	 */
+	public long getEnd() {
+		return end;
+	}
+	
+	/**
+	 * Gets the number of bytes in the range.
+	 * @return the length of the range
+	 */
+	public int getLength() {
+		return (int) (end - start + 1);
+	}
+	
+	/**
+	 * Checks if the range overlaps the resource. An unsatisfiable range is answered with 416.
+	 * @return true if satisfiable, false otherwise.
+	 */
+	public boolean isSatisfiable() {
+		return satisfiable;
+	}
+
+}
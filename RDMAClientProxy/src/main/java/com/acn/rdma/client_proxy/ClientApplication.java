@@ -1,5 +1,10 @@
 package com.acn.rdma.client_proxy;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
 import org.apache.commons.cli.*;
 import org.apache.log4j.Logger;
 
@@ -12,18 +17,30 @@ public class ClientApplication {
 	private static final Logger logger = Logger.getLogger(ClientApplication.class);
 	
 	private static final String ERROR_ARGUMENTS = "Error, arguments are not correct! "
-            + "Please give at least the IP of the server as an argument by using -a option!";
+            + "Please give at least the IP of the server as an argument by using -a option! "
+            + "Several servers can be given as a comma-separated list of ip[:port], replicas joined by '+'.";
 	
 	private static final int DEFAULT_INTERCEPTION_PORT = 8000;
 	private static final int DEFAULT_SERVER_PORT = 1919;
 	
-	private static String SERVER_IP;
+	private static List<List<InetSocketAddress>> SERVERS;
 	private static int SERVER_PORT;
 	private static int INTERCEPTION_PORT;
+	private static HedgingPolicy HEDGING_POLICY;
+	private static long PREFETCH_BUDGET;
+	private static RdmaProfile PROFILE;
+	private static int WARMUP_REQUESTS;
+	private static String JOURNAL_FILE;
 	
 	private static final String SERVER_IP_KEY = "a";
 	private static final String SERVER_PORT_KEY = "p";
 	private static final String INTERCEPTION_PORT_KEY = "i";
+	private static final String HEDGING_PERCENTILE_KEY = "h";
+	private static final String HEDGING_BUDGET_KEY = "b";
+	private static final String PREFETCH_BUDGET_KEY = "f";
+	private static final String PROFILE_KEY = "t";
+	private static final String WARMUP_REQUESTS_KEY = "u";
+	private static final String JOURNAL_FILE_KEY = "j";
 	
 	
 	 /**
@@ -33,7 +50,15 @@ public class ClientApplication {
      * where the client proxy should intercept the HTTP requests from the browser. Then simply 
      * it executes the proxy in this port and creates a rdma connection to the server. 
      * Only the IP of the server is mandatory to give, if the other options are not found, it
-     * uses the default values.
+     * uses the default values. The content is sharded among the servers if more than one is given,
+     * a server without port uses the server port option. Replicated servers with identical content are
+     * joined by '+' (for example 10.0.2.15+10.0.2.16,10.0.2.17). Optionally, slow fetches are hedged to
+     * a second replica after the given percentile of the recent latencies (at most the given percentage
+     * of the fetches, 5% by default). The resources embedded in a page are prefetched while the page is sent
+     * to the browser, up to the given number of bytes (1 MB by default, 0 disables prefetching). The RDMA
+     * resources are sized from a profile (small, default or large, or a properties file), which is adjusted online.
+     * Before it reports ready, the proxy warms up with a number of synthetic requests (0 disables the warmup).
+     * The journal of the RDMA operations is dumped into the given file when the proxy exits or crashes.
      * 
      * @param args The console argument.
      * @see ClientProxy
@@ -49,7 +74,8 @@ public class ClientApplication {
 			System.exit(1);
 		}
 		
-		ClientProxy proxy = new ClientProxy(SERVER_IP, SERVER_PORT, INTERCEPTION_PORT);
+		ClientProxy proxy = new ClientProxy(SERVERS, INTERCEPTION_PORT, HEDGING_POLICY, PREFETCH_BUDGET, PROFILE, WARMUP_REQUESTS,
+				new EventJournal(EventJournal.DEFAULT_CAPACITY, JOURNAL_FILE));
 		try {
 			logger.debug("Starting the proxy...");
 			proxy.start();
@@ -65,22 +91,34 @@ public class ClientApplication {
 	
 	private static void parseArguments(String[] args) throws ParseException {
 		Options options = new Options();
-		Option address = Option.builder(SERVER_IP_KEY).required().desc("ip address").hasArg().required().build();
+		Option address = Option.builder(SERVER_IP_KEY).required().desc("comma-separated list of ip[:port] of the servers, replicas joined by '+'").hasArg().required().build();
 		Option serverPort = Option.builder(SERVER_PORT_KEY).desc("server port").hasArg().type(Number.class).build();
 		Option interceptionPort = Option.builder(INTERCEPTION_PORT_KEY).desc("interception port").hasArg().type(Number.class).build();
 		options.addOption(address);
 		options.addOption(serverPort);
+		Option hedgingPercentile = Option.builder(HEDGING_PERCENTILE_KEY).desc("hedge fetches slower than this percentile of the recent latencies").hasArg().type(Number.class).build();
+		Option hedgingBudget = Option.builder(HEDGING_BUDGET_KEY).desc("maximal percentage of hedged fetches").hasArg().type(Number.class).build();
 		options.addOption(interceptionPort);
+		options.addOption(hedgingPercentile);
+		options.addOption(hedgingBudget);
+		Option prefetchBudget = Option.builder(PREFETCH_BUDGET_KEY).desc("maximal bytes of the prefetched embedded resources (0 disables prefetching)").hasArg().type(Number.class).build();
+		options.addOption(prefetchBudget);
+		Option profile = Option.builder(PROFILE_KEY).desc("rdma profile: small, default, large or a properties file").hasArg().build();
+		options.addOption(profile);
+		Option warmupRequests = Option.builder(WARMUP_REQUESTS_KEY).desc("number of synthetic warmup requests before the proxy is ready (0 disables the warmup)").hasArg().type(Number.class).build();
+		options.addOption(warmupRequests);
+		Option journalFile = Option.builder(JOURNAL_FILE_KEY).desc("file the journal of the rdma operations is dumped into on exit or crash").hasArg().build();
+		options.addOption(journalFile);
 		
 		CommandLineParser parser = new DefaultParser();
 		CommandLine line = parser.parse(options, args);
-		SERVER_IP = line.getOptionValue(SERVER_IP_KEY);
 		
 		if (line.hasOption(SERVER_PORT_KEY)) {
 			SERVER_PORT = ((Number) line.getParsedOptionValue(SERVER_PORT_KEY)).intValue();
 		} else {
 			SERVER_PORT = DEFAULT_SERVER_PORT;
 		}
+		SERVERS = parseServers(line.getOptionValue(SERVER_IP_KEY));
 		
 		if (line.hasOption(INTERCEPTION_PORT_KEY)) {
 			INTERCEPTION_PORT = ((Number) line.getParsedOptionValue(INTERCEPTION_PORT_KEY)).intValue();
@@ -88,5 +126,81 @@ public class ClientApplication {
 			INTERCEPTION_PORT = DEFAULT_INTERCEPTION_PORT;
 		}
 		
+		if (line.hasOption(HEDGING_PERCENTILE_KEY)) {
+			double percentile = ((Number) line.getParsedOptionValue(HEDGING_PERCENTILE_KEY)).doubleValue();
+			double budget = HedgingPolicy.DEFAULT_BUDGET;
+			if (line.hasOption(HEDGING_BUDGET_KEY)) {
+				budget = ((Number) line.getParsedOptionValue(HEDGING_BUDGET_KEY)).doubleValue() / 100;
+			}
+			try {
+				HEDGING_POLICY = new HedgingPolicy(percentile, budget);
+			} catch (IllegalArgumentException e) {
+				throw new ParseException(e.getMessage());
+			}
+		}
+		
+		if (line.hasOption(PREFETCH_BUDGET_KEY)) {
+			PREFETCH_BUDGET = ((Number) line.getParsedOptionValue(PREFETCH_BUDGET_KEY)).longValue();
+			if (PREFETCH_BUDGET < 0) throw new ParseException("The prefetch budget must not be negative.");
+		} else {
+			PREFETCH_BUDGET = Prefetcher.DEFAULT_BUDGET;
+		}
+		
+		try {
+			PROFILE = RdmaProfile.load(line.getOptionValue(PROFILE_KEY, RdmaProfile.DEFAULT));
+		} catch (IOException | IllegalArgumentException e) {
+			throw new ParseException("The rdma profile is not correct: " + e.getMessage());
+		}
+		
+		if (line.hasOption(WARMUP_REQUESTS_KEY)) {
+			WARMUP_REQUESTS = ((Number) line.getParsedOptionValue(WARMUP_REQUESTS_KEY)).intValue();
+			if (WARMUP_REQUESTS < 0) throw new ParseException("The number of warmup requests must not be negative.");
+		} else {
+			WARMUP_REQUESTS = Warmup.DEFAULT_REQUESTS;
+		}
+		
+		JOURNAL_FILE = line.getOptionValue(JOURNAL_FILE_KEY);
+		
+	}
+	
+	/**
+	 * Parses the comma-separated list of servers. Every server is given as ip[:port], if the port is missing
+	 * the server port is used. Replicas of the same content are joined by '+'.
+	 * @param value the list of servers
+	 * @return the addresses of the servers, grouped by replica sets
+	 * @throws ParseException if the list is not correct.
+	 */
+	private static List<List<InetSocketAddress>> parseServers(String value) throws ParseException {
+		List<List<InetSocketAddress>> servers = new ArrayList<List<InetSocketAddress>>();
+		for (String replicaSet : value.split(",")) {
+			List<InetSocketAddress> replicas = new ArrayList<InetSocketAddress>();
+			for (String server : replicaSet.split("\\+")) {
+				server = server.trim();
+				if (server.isEmpty()) continue;
+				replicas.add(parseServer(server));
+			}
+			if (!replicas.isEmpty()) servers.add(replicas);
+		}
+		if (servers.isEmpty()) throw new ParseException("No server given.");
+		return servers;
+	}
+	
+	/**
+	 * Parses the address of a server given as ip[:port].
+	 * @param server the address of the server
+	 * @return the address of the server
+	 * @throws ParseException if the address is not correct.
+	 */
+	private static InetSocketAddress parseServer(String server) throws ParseException {
+		int separator = server.lastIndexOf(':');
+		try {
+			if (separator < 0) {
+				return InetSocketAddress.createUnresolved(server, SERVER_PORT);
+			}
+			int port = Integer.parseInt(server.substring(separator + 1));
+			return InetSocketAddress.createUnresolved(server.substring(0, separator), port);
+		} catch (IllegalArgumentException e) {
+			throw new ParseException("Server address not correct: " + server);
+		}
 	}
 }
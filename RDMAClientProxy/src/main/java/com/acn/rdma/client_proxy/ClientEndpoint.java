@@ -16,6 +16,8 @@ import com.ibm.disni.rdma.verbs.IbvSge;
 import com.ibm.disni.rdma.verbs.IbvWC;
 import com.ibm.disni.rdma.verbs.RdmaCmEvent;
 import com.ibm.disni.rdma.verbs.RdmaCmId;
+import com.ibm.disni.rdma.verbs.SVCPostRecv;
+import com.ibm.disni.rdma.verbs.SVCPostSend;
 
 
 /**
@@ -41,6 +43,28 @@ import com.ibm.disni.rdma.verbs.RdmaCmId;
  * the lists of working requests (both send and receive) consist only of one
  * working request, which consists of only one scatter/gather element.
  * </p>
+ * 
+ * <p>
+ * The verb calls of the usual operations (send and RDMA read on the send buffer, receives on the receive buffer)
+ * are prepared once, when they are used the first time, and executed again for every operation. Only the
+ * working request id, the length and the remote buffer are changed in the prepared call, so the working
+ * requests are not serialized again for every operation. The calls are freed when the endpoint is closed.
+ * </p>
+ * 
+ * <p>
+ * Every receive working request in flight has an id of its own: the receive posted by <tt>init</tt> has
+ * <tt>RECEIVE_ID</tt> and the receives of the prepared batch the following ids (see <tt>getBatchReceiveId</tt>).
+ * The batch is posted again only after all of its receives completed, so the ids are not ambiguous.
+ * </p>
+ * 
+ * <p>
+ * The number of receives posted at a time is taken from the profile of the <tt>RdmaTuner</tt>, the capacity of
+ * the queue of the completion events from the tuner when the endpoint is created, but at least the working
+ * requests which can be outstanding on the queue pair (and the poison of a disconnect). The completion thread of
+ * the endpoint group never waits: a completion event which finds the queue full anyway is reported to the tuner,
+ * journaled and dropped, and the wait for it fails at its deadline. The poison of a disconnect replaces the
+ * completions queued before, the next wait fails at once.
+ * </p>
  */
 
 // This class is adapted from DiSNI examples in the Github. 
@@ -71,9 +95,21 @@ public class ClientEndpoint extends RdmaActiveEndpoint {
 	private LinkedList<IbvSge> sgeListRecv;
 	private IbvRecvWR recvWR;
 	
+	public static final int RECEIVE_ID = 500;
+	
+	private RdmaTuner tuner;
+	private EventJournal journal;
+	private int receiveBatch;
+	
+	private SVCPostSend sendCall;
+	private SVCPostSend readCall;
+	private SVCPostRecv recvCall;
+	
 	protected ArrayBlockingQueue<IbvWC> wcEvents;
 	protected static final IbvWC POISON_INSTANCE = new IbvWC();
 	
+	private volatile ConnectionListener connectionListener;
+	
 	
 	/**
 	 * Constructs the <tt>ClientEndpoint</tt>. Creates the buffers, working request lists and the working 
@@ -81,12 +117,18 @@ public class ClientEndpoint extends RdmaActiveEndpoint {
 	 * @param endpointGroup the group of endpoint
 	 * @param idPriv
 	 * @param isServerSide
+	 * @param tuner the tuner, which sizes the receive batch and the queue of the completion events
+	 * @param journal the journal of the RDMA operations, which records the disconnects
 	 * @throws IOException
 	 */
-	public ClientEndpoint(RdmaActiveEndpointGroup<? extends ClientEndpoint> endpointGroup, RdmaCmId idPriv, boolean isServerSide) throws IOException {	
+	public ClientEndpoint(RdmaActiveEndpointGroup<? extends ClientEndpoint> endpointGroup, RdmaCmId idPriv, boolean isServerSide,
+			RdmaTuner tuner, EventJournal journal) throws IOException {	
 		
 		super(endpointGroup, idPriv, isServerSide);
 		logger.debug("Ran the constuctor of the general class (RdmaActiveEndpoint");
+		this.tuner = tuner;
+		this.journal = journal;
+		this.receiveBatch = tuner.getProfile().getReceiveBatch();
 		this.buffercount = 3;
 		this.buffersize = 10000;
 		buffers = new ByteBuffer[buffercount];
@@ -108,7 +150,9 @@ public class ClientEndpoint extends RdmaActiveEndpoint {
 		this.recvWR = new IbvRecvWR();	
 		logger.debug("Initialized the receiving working queue.");
 		
-		this.wcEvents = new ArrayBlockingQueue<IbvWC>(10);
+		// the signaled sends fill at most the send queue, the receives at most one batch and the one of init
+		int outstanding = tuner.getQueueDepth() + receiveBatch + 1;
+		this.wcEvents = new ArrayBlockingQueue<IbvWC>(Math.max(tuner.getEventQueueCapacity(), outstanding + 1));
 	}
 	
 	
@@ -132,6 +176,8 @@ public class ClientEndpoint extends RdmaActiveEndpoint {
 		this.sendMr = mrlist[1];
 		this.recvBuf = buffers[2];
 		this.recvMr = mrlist[2];
+		// the endpoint counts as connected as long as its memory is registered
+		tuner.endpointOpened();
 		
 		dataBuf.clear();
 		sendBuf.clear();
@@ -178,6 +224,7 @@ public class ClientEndpoint extends RdmaActiveEndpoint {
 		int lkey = recvMr.getLkey();
 		sgeRecv.setLkey(lkey);
 		sgeListRecv.add(sgeRecv);
+		recvWR.setWr_id(RECEIVE_ID);
 		recvWR.setSg_list(sgeListRecv);
 		wrList_recv.add(recvWR);
 	}
@@ -185,7 +232,19 @@ public class ClientEndpoint extends RdmaActiveEndpoint {
 	
 	
 	public void dispatchCqEvent(IbvWC wc) throws IOException {
-		wcEvents.add(wc);
+		// the endpoint group polls into the same completions again, the queue keeps a copy
+		if (wcEvents.offer(wc.clone())) return;
+		// the completion thread serves all the endpoints of the group, it must not wait for this one
+		tuner.recordQueueFull();
+		journal.record(EventJournal.DROPPED_COMPLETION, wc.getWr_id(), wc.getByte_len());
+	}
+	
+	/**
+	 * Queues the poison, which fails the waits for completions from now on. The poison replaces the completions
+	 * queued before if the queue is full, they do not matter anymore once the connection is broken.
+	 */
+	public void poison() {
+		while (!wcEvents.offer(POISON_INSTANCE)) wcEvents.poll();
 	}
 	
 	@Override
@@ -193,7 +252,11 @@ public class ClientEndpoint extends RdmaActiveEndpoint {
 		super.dispatchCmEvent(cmEvent);
 		if (cmEvent.getEvent() == RdmaCmEvent.EventType.RDMA_CM_EVENT_DISCONNECTED.ordinal()) {
 			logger.debug("Detected " + RdmaCmEvent.EventType.RDMA_CM_EVENT_DISCONNECTED);
-			wcEvents.add(POISON_INSTANCE);
+			journal.record(EventJournal.DISCONNECT, qp == null ? 0 : qp.getQp_num(), 0);
+			RdmaEvents.disconnected(qp == null ? 0 : qp.getQp_num());
+			poison();
+			ConnectionListener listener = connectionListener;
+			if (listener != null) listener.connectionBroken();
 		}
 		else if (cmEvent.getEvent() == RdmaCmEvent.EventType.RDMA_CM_EVENT_CONNECT_RESPONSE.ordinal()) {
 			logger.debug("Detected " + RdmaCmEvent.EventType.RDMA_CM_EVENT_CONNECT_RESPONSE);
@@ -205,13 +268,28 @@ public class ClientEndpoint extends RdmaActiveEndpoint {
 		//super.getCqProvider().getCQ().destroyCQ();
 		//super.getCqProvider().close();
 		//logger.debug("cq provider closed");
-		super.deregisterMemory(dataMr);
-		super.deregisterMemory(sendMr);
-		super.deregisterMemory(recvMr);
+		//the memory is registered only if the endpoint was connected once
+		if (sendCall != null) sendCall.free();
+		if (readCall != null) readCall.free();
+		if (recvCall != null) recvCall.free();
+		if (dataMr != null) {
+			super.deregisterMemory(dataMr);
+			tuner.endpointClosed();
+		}
+		if (sendMr != null) super.deregisterMemory(sendMr);
+		if (recvMr != null) super.deregisterMemory(recvMr);
 		logger.debug("Memory deregistered");
 		super.close();
 	}
 	
+	/**
+	 * Sets the listener, which is informed when the server disconnects.
+	 * @param connectionListener the listener
+	 */
+	public void setConnectionListener(ConnectionListener connectionListener) {
+		this.connectionListener = connectionListener;
+	}
+	
 	/**
 	 * Get the working completion event.
 	 * @see IbvWC
@@ -286,4 +364,89 @@ public class ClientEndpoint extends RdmaActiveEndpoint {
 		sgeSend.setLength(length);
 	}
 	
+	/**
+	 * Get the prepared call, which posts a signaled working request with the given opcode on the send buffer.
+	 * The call is prepared the first time it is needed (the queue pair must exist).
+	 * @param opcode IBV_WR_SEND or IBV_WR_RDMA_READ
+	 * @return {@link SVCPostSend}
+	 * @throws IOException
+	 */
+	public synchronized SVCPostSend getSendCall(int opcode) throws IOException {
+		if (opcode == IbvSendWR.IBV_WR_RDMA_READ) {
+			if (readCall == null) readCall = prepareSendCall(opcode);
+			return readCall;
+		}
+		if (sendCall == null) sendCall = prepareSendCall(opcode);
+		return sendCall;
+	}
+	
+	/**
+	 * Get the prepared call, which posts a batch of receive working requests on the receive buffer.
+	 * @return {@link SVCPostRecv}
+	 * @throws IOException
+	 */
+	public synchronized SVCPostRecv getRecvCall() throws IOException {
+		if (recvCall == null) {
+			LinkedList<IbvRecvWR> chain = new LinkedList<IbvRecvWR>();
+			for (int i = 0; i < receiveBatch; i++) {
+				IbvRecvWR wr = new IbvRecvWR();
+				wr.setWr_id(getBatchReceiveId(i));
+				wr.setSg_list(sgeListRecv);
+				chain.add(wr);
+			}
+			recvCall = postRecv(chain);
+		}
+		return recvCall;
+	}
+	
+	/**
+	 * Get the id of a receive working request of the prepared batch.
+	 * @param index the index of the receive in the batch
+	 * @return the id, which differs from the id of the receive posted by <tt>init</tt>
+	 */
+	public static long getBatchReceiveId(int index) {
+		return RECEIVE_ID + 1 + index;
+	}
+	
+	/**
+	 * Get the number of receive working requests posted at a time.
+	 * @return the size of the receive batch
+	 */
+	public int getReceiveBatch() {
+		return receiveBatch;
+	}
+	
+	private SVCPostSend prepareSendCall(int opcode) throws IOException {
+		IbvSge sge = new IbvSge();
+		sge.setAddr(sendMr.getAddr());
+		sge.setLength(sendMr.getLength());
+		sge.setLkey(sendMr.getLkey());
+		LinkedList<IbvSge> sgeList = new LinkedList<IbvSge>();
+		sgeList.add(sge);
+		IbvSendWR wr = new IbvSendWR();
+		wr.setSg_list(sgeList);
+		wr.setOpcode(opcode);
+		wr.setSend_flags(IbvSendWR.IBV_SEND_SIGNALED);
+		LinkedList<IbvSendWR> wrList = new LinkedList<IbvSendWR>();
+		wrList.add(wr);
+		return postSend(wrList);
+	}
+	
+	/**
+	 * Get the memory region of the data buffer, which holds the deferred messages.
+	 * @return {@link IbvMr}
+	 */
+	public IbvMr getDataMr() {
+		return dataMr;
+	}
+	
+	/**
+	 * Get the memory region of the send buffer. Makes possible to read several remote buffers into
+	 * parts of the send buffer.
+	 * @return {@link IbvMr}
+	 */
+	public IbvMr getSendMr() {
+		return sendMr;
+	}
+	
 }
\ No newline at end of file
@@ -4,16 +4,29 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 
 import com.ibm.disni.rdma.RdmaActiveEndpointGroup;
-import com.ibm.disni.rdma.verbs.IbvRecvWR;
+import com.ibm.disni.rdma.verbs.IbvMr;
 import com.ibm.disni.rdma.verbs.IbvSendWR;
+import com.ibm.disni.rdma.verbs.IbvSge;
 import com.ibm.disni.rdma.verbs.IbvWC;
 import com.ibm.disni.rdma.verbs.RdmaCmEvent;
 import com.ibm.disni.rdma.verbs.RdmaCmId;
-import com.ibm.disni.rdma.verbs.SVCPostRecv;
 import com.ibm.disni.rdma.verbs.SVCPostSend;
 
 /**
@@ -26,22 +39,132 @@ import com.ibm.disni.rdma.verbs.SVCPostSend;
  *   Connects with the server in the given address and port.
  *   <li>rdmaSend</li>
  *   Sends a message to the server in bytes by using a send working request with an unique ID.
+ *   <li>rdmaSendDeferred</li>
+ *   Queues a message which needs no reply, it is posted together with the next working request.
  *   <li>rdmaReceive</li>
  *   Receives a message from the server in bytes by using a receive working request with an unique ID.
  *   <li>rdmaRead</li>
  *   Sends a RDMA read request with an unique ID to read data from the server. First, it waits for the server, to
  *   signal the client that the data is ready and where the data actually is.
+ *   <li>getPushRegion and rdmaReceivePushed</li>
+ *   Waits for a reply the server wrote into the local buffer with an RDMA write with immediate data.
+ *   <li>rdmaReceiveRegion and rdmaReadRegion</li>
+ *   Wait for the server to signal where the data is, and read only a part of it (for a range of the resource).
+ *   <li>rdmaReadBatch</li>
+ *   Waits for the server to signal where the data of several resources is, and reads all of it at once.
  *  </ul>
  * </p>
+ * <p>
+ * The working requests are posted in chains where the protocol allows it, so that one post (one doorbell
+ * and one JNI call) serves several requests:
+ *  <ul>
+ *   <li>Deferred sends</li>
+ *   A deferred message is copied into the data buffer and its (unsignaled) send working request is kept back.
+ *   The kept requests are posted in front of the next working request, or on their own after the flush delay
+ *   if the connection stays idle, or as far as the credits allow when the maximal number of deferred sends is
+ *   reached. In the last two cases the last request is signaled and its completion awaited, so the data buffer is
+ *   free again.
+ *   <li>Receives</li>
+ *   The receive working requests are posted in advance, several at a time. The proxy receives only the replies
+ *   of its own requests, one at a time, so they all share the receive buffer.
+ *  </ul>
+ * </p>
+ * <p>
+ * The sends are limited by credits (see <tt>SendCredits</tt>): the server posts a few receive slots for the proxy
+ * and every reply returns the credits of the messages the server has received since the last reply. The proxy
+ * starts with one credit and spends one on every send, so a message never arrives before a receive is posted for
+ * it (receiver not ready). The deferred sends which find no credit wait for the next chain, or for the flush after
+ * the next reply. If the deferred sends are full and no credit is left, the message is refused and its request
+ * fails as overloaded, the deferred sends are never posted without credits. Only a request may go out without a
+ * credit, right after the idle flush took the last one. The queue pair retries it a few times until the server
+ * posts its receive, a server which does not post it fails the request (the retries are not infinite).
+ * </p>
+ * <p>
+ * Every wait for a completion is bounded by the deadline of the operation (see <tt>setDeadline</tt>). The working
+ * requests carry the id given by the caller in their lower half and a sequence number in their upper half, the
+ * receives an id of their own (see <tt>ClientEndpoint</tt>). The adapter keeps the ids of the outstanding working
+ * requests, a completion of another one than the working request awaited is parked until it is awaited (for
+ * example a reply which arrives before the completion of its request).
+ * </p>
+ * <p>
+ * A working request cannot be taken back once it is posted: when its deadline passes, it is given up (expired),
+ * together with the receive of the reply if the reply of the request is still awaited. The next request first
+ * waits for their late completions and drops them (a late reply still returns its credits), since the late data
+ * could otherwise land in the buffers of the request. The endpoint is abandoned only when its state is lost: a
+ * working request failed (the queue pair is in error), or the late completions do not arrive until the deadline
+ * of the next request either. The abandoned endpoint counts as disconnected, so the next operation (or the
+ * monitor) restarts the connection with a new endpoint.
+ * </p>
+ * <p>
+ * The endpoint group and the endpoints are sized by the <tt>RdmaTuner</tt> shared by all the connections of the
+ * proxy (see <tt>TunedEndpointGroup</tt>). The adapter reports the working requests it posts at once and the
+ * latency of the completions it waits for.
+ * </p>
+ * <p>
+ * Every post and completion is recorded in the <tt>EventJournal</tt> of the proxy, the hot path does no logging.
+ * </p>
  * @version 1
  */
 public class ClientEndpointDiSNIAdapter implements ClientRdmaConnection {
 	
 	private static final Logger logger = Logger.getLogger(ClientRdmaConnection.class);
 	public static final int STATUS_CODE_200_OK = 200;
+	public static final int STATUS_CODE_404_NOT_FOUND = 404;
+	
+	// the credits of the proxy before the first reply, and where a reply carries the returned credits
+	private static final int INITIAL_CREDITS = 1;
+	private static final int CREDITS_OFFSET = Integer.SIZE/8;
+	// the opcode of the receive completion of an RDMA write with immediate data (see ibv_wc_opcode)
+	private static final int IBV_WC_RECV_RDMA_WITH_IMM = (1 << 7) + 1;
+	// the opcodes of the completions of RDMA reads and of receives (see ibv_wc_opcode)
+	private static final int IBV_WC_RDMA_READ = 2;
+	private static final int IBV_WC_RECV = 1 << 7;
+	
+	private static final int MAX_DEFERRED_SENDS = 16;
+	private static final long FLUSH_DELAY = 50; // microseconds
+	private static final long FLUSH_TIMEOUT = 1000; // milliseconds
+	private static final long NO_DEADLINE = Long.MAX_VALUE;
+	// the server re-posts its receive after each message, retry a request arriving before (at most, 7 = infinite)
+	private static final byte RNR_RETRY_COUNT = 6;
+	
+	private static final ScheduledExecutorService flushTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "doorbell-flush");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
 	
 	private RdmaActiveEndpointGroup<ClientEndpoint> clientEndpointGroup;
 	private ClientEndpoint clientEndpoint;
+	private volatile ClientEndpoint spareEndpoint;
+	private final Object spareLock = new Object(); // a connect given up closes its endpoint when it returns
+	private ConnectionListener connectionListener;
+	private RdmaTuner tuner;
+	private EventJournal journal;
+	
+	private LinkedList<IbvSendWR> deferredSends = new LinkedList<IbvSendWR>();
+	private int deferredOffset; // the next free byte of the data buffer
+	private ScheduledFuture<?> flushTask;
+	private ArrayDeque<Long> receives = new ArrayDeque<Long>(); // posted, not yet given to a reply
+	private Set<Long> outstanding = new HashSet<Long>(); // posted and signaled, not yet completed
+	private Set<Long> expired = new HashSet<Long>(); // given up, their late completions are dropped
+	private Map<Long, IbvWC> parked = new HashMap<Long, IbvWC>(); // completed, not yet awaited
+	private boolean awaitingReply; // the reply of the request sent last has no receive yet
+	private SendCredits credits = new SendCredits(INITIAL_CREDITS);
+	private long deadline = NO_DEADLINE; // System.nanoTime()
+	private long sequence; // of the posted working requests
+	private boolean abandoned;
+	
+	/**
+	 * Constructs the adapter, the endpoint group and the endpoints are created when they are first needed.
+	 * @param tuner the tuner, which sizes the endpoint group and the endpoints
+	 * @param journal the journal of the RDMA operations
+	 */
+	public ClientEndpointDiSNIAdapter(RdmaTuner tuner, EventJournal journal) {
+		this.tuner = tuner;
+		this.journal = journal;
+	}
 	
 	/**
 	 * Creates the client RDMA endpoint. 
@@ -63,60 +186,264 @@ public class ClientEndpointDiSNIAdapter implements ClientRdmaConnection {
 	 */
 	
 	
-	private void createClientEndpoint() throws IOException {
+	private void createEndpointGroup() throws IOException {
 		logger.debug("Creating the endpoint group...");
 		//create a EndpointGroup. The RdmaActiveEndpointGroup contains CQ processing and delivers CQ event to the endpoint.dispatchCqEvent() method.
-		RdmaActiveEndpointGroup<ClientEndpoint> clientEndpointGroup = new RdmaActiveEndpointGroup<ClientEndpoint>(1000, false, 128, 4, 128);
+		this.clientEndpointGroup = new TunedEndpointGroup<ClientEndpoint>(tuner);
+		clientEndpointGroup.getConnParam().setRnr_retry_count(RNR_RETRY_COUNT);
 		logger.debug("Creating the factory...");
-		ClientFactory clientFactory = new ClientFactory(clientEndpointGroup);
+		ClientFactory clientFactory = new ClientFactory(clientEndpointGroup, tuner, journal);
 		logger.debug("Initializing the group with the factory...");
 		clientEndpointGroup.init(clientFactory);
-		logger.debug("Creating the endpoint.");
-		//we have passed our own endpoint factory to the group, therefore new endpoints will be of type ClientEndpoint
-		//let's create a new client endpoint		
-		this.clientEndpoint = clientEndpointGroup.createEndpoint();
-		logger.debug("Endpoint successfully created.");
+		logger.debug("Group and the factory created.");
 	}
 	
-	
+	/**
+	 * Prepares the endpoint which is used after the next restart. The endpoint group is created only once
+	 * and it is kept alive for all the endpoints, the endpoint (with its buffers) is created in advance and
+	 * connected before the restart (see <tt>rdmaConnect</tt>), so that the restart does not have to rebuild
+	 * anything.
+	 * <p>
+	 * Note that DiSNI registers the memory of an endpoint only after its route to the server is resolved,
+	 * therefore the registration of the buffers still happens during the connect.
+	 * </p>
+	 * @throws RdmaConnectionException if the endpoint could not be created.
+	 */
+	public void prepareEndpoint() throws RdmaConnectionException {
+		if (spareEndpoint != null) return;
+		try {
+			if (clientEndpointGroup == null) createEndpointGroup();
+			logger.debug("Creating the endpoint.");
+			//we have passed our own endpoint factory to the group, therefore new endpoints will be of type ClientEndpoint
+			//let's create a new client endpoint
+			this.spareEndpoint = clientEndpointGroup.createEndpoint();
+			logger.debug("Endpoint successfully created.");
+		} catch (IOException e) {
+			logger.debug("Could not create a client endpoint");
+			throw new RdmaConnectionException("Could not create a client endpoint");
+		}
+	}
 	
 	
 	/**
-	 * It tries to connect the client endpoint with the server in the given ip and port.
+	 * Connects the prepared endpoint with the server in the given ip and port, unless it is connected already.
+	 * The endpoint in use is not touched, the next restart switches to the connected endpoint. If the connect
+	 * fails, or it was given up while it was connecting (see <tt>discardEndpoint</tt>), the endpoint is closed.
 	 * @param ipAddress the ipaddress of the server
 	 * @param port the port of the server
-	 * @throws Exception
+	 * @throws RdmaConnectionException if the endpoint could not be prepared or connected.
 	 */
 	public void rdmaConnect(String ipAddress, int port) throws RdmaConnectionException {
+		prepareEndpoint();
+		ClientEndpoint endpoint = spareEndpoint;
+		if (endpoint == null) throw new RdmaConnectionException("The prepared endpoint was given up.");
+		if (endpoint.isConnected()) return;
 		try {
 			logger.debug("Trying to connect to the server with IP " + ipAddress + " and port " + port) ;
+			RdmaEvents.Timed event = RdmaEvents.beginConnection(EventJournal.CONNECT);
+			long start = System.nanoTime();
 			//connect to the server
-			clientEndpoint.connect(URI.create("rdma://" + ipAddress + ":" + port));
-			InetSocketAddress _addr = (InetSocketAddress) clientEndpoint.getDstAddr();
+			endpoint.connect(URI.create("rdma://" + ipAddress + ":" + port));
+			event.commit(endpoint.getQp().getQp_num(), 0);
+			journal.record(EventJournal.CONNECT, endpoint.getQp().getQp_num(), 0, System.nanoTime() - start);
+			InetSocketAddress _addr = (InetSocketAddress) endpoint.getDstAddr();
 			logger.debug("Client connected to the server in address" + _addr.toString());
 		} catch (Exception e) {
 			logger.debug(e.getMessage());
+			dropEndpoint(endpoint);
 			throw new RdmaConnectionException(e.getMessage());
 		}
+		synchronized (spareLock) {
+			if (endpoint == spareEndpoint) return;
+		}
+		// the connect took too long, it was given up
+		closeEndpoint(endpoint);
+		throw new RdmaConnectionException("The connect was given up.");
+	}
+	
+	/**
+	 * Gives up the prepared endpoint, because its connect does not return. The connect closes the endpoint when
+	 * it returns, the next connect prepares a new endpoint.
+	 */
+	public void discardEndpoint() {
+		synchronized (spareLock) {
+			spareEndpoint = null;
+		}
+	}
+	
+	/**
+	 * Closes the prepared endpoint after a failed connect, unless it was given up already.
+	 * @param endpoint the endpoint
+	 */
+	private void dropEndpoint(ClientEndpoint endpoint) {
+		synchronized (spareLock) {
+			if (endpoint == spareEndpoint) spareEndpoint = null;
+		}
+		closeEndpoint(endpoint);
+	}
+	
+	/**
+	 * Closes an endpoint which was never used.
+	 * @param endpoint the endpoint
+	 */
+	private void closeEndpoint(ClientEndpoint endpoint) {
+		try {
+			if (!endpoint.isClosed()) endpoint.close();
+		} catch (Exception e) {
+			logger.debug("Problems closing the endpoint: " + e.getMessage());
+		}
 	}
 	
 	/**
-	 * Sends a message to the server in bytes by using a send working request with an unique ID.
+	 * Sends a message to the server in bytes by using a send working request with an unique ID. The message is a
+	 * request, its reply is awaited by one of the receive methods. The late completions of the working requests
+	 * given up before are awaited first.
 	 * @param message the message in bytes
 	 * @param id unique ID for the send working request
 	 * @throws IOException
 	 * @throws InterruptedException
 	 */
 	public void rdmaSend(byte[] message, int id) throws RdmaConnectionException {
+		awaitExpired();
 		// send a message to the server
 		createWRSendOperation();
-		logger.debug("Created a send operation.");
 		writeOnSendBuffer(message);
-		logger.debug("Wrote on the send buffer the message.");
-		postSendOperation(id);
-		logger.debug("Posted the operation.");
-		int length = waitForTransmission();
-		logger.debug("Successfully sent the message with length wc " + length);
+		long wrId = postSendOperation(id);
+		awaitingReply = true;
+		waitForTransmission(wrId);
+	}
+	
+	/**
+	 * Queues a message which needs no reply (for example the final signal). The message is copied into the data
+	 * buffer and posted without a completion, together with the next working request, or after the flush delay.
+	 * If too many messages are deferred, they are posted as far as the credits allow and the method waits for
+	 * their transmission.
+	 * @param message the message in bytes
+	 * @param id unique ID for the send working request
+	 * @throws ServerOverloadedException if too many messages are deferred and no credit is left to post them.
+	 * @throws RdmaConnectionException
+	 */
+	public synchronized void rdmaSendDeferred(byte[] message, int id) throws RdmaConnectionException {
+		ByteBuffer dataBuf = clientEndpoint.getDataBuf();
+		int length = Integer.SIZE/8 + message.length;
+		if (length > dataBuf.capacity()) throw new RdmaConnectionException("The message is too long.");
+		if (isDeferredFull(length)) {
+			flushDeferredSends();
+			if (isDeferredFull(length)) {
+				throw new ServerOverloadedException("The server has no receive left for " + deferredSends.size() + " deferred sends.");
+			}
+		}
+		dataBuf.clear();
+		dataBuf.position(deferredOffset);
+		dataBuf.putInt(message.length);
+		dataBuf.put(message);
+		dataBuf.clear();
+		
+		IbvSge sge = new IbvSge();
+		sge.setAddr(clientEndpoint.getDataMr().getAddr() + deferredOffset);
+		sge.setLength(length);
+		sge.setLkey(clientEndpoint.getDataMr().getLkey());
+		LinkedList<IbvSge> sgeList = new LinkedList<IbvSge>();
+		sgeList.add(sge);
+		IbvSendWR sendWR = new IbvSendWR();
+		sendWR.setWr_id(nextWrId(id));
+		sendWR.setSg_list(sgeList);
+		sendWR.setOpcode(IbvSendWR.IBV_WR_SEND);
+		deferredSends.add(sendWR);
+		deferredOffset += length;
+		journal.record(EventJournal.DEFER_SEND, sendWR.getWr_id(), length);
+		scheduleFlush();
+	}
+	
+	/**
+	 * Checks if the deferred sends leave no room for another message.
+	 * @param length the length of the message in the data buffer
+	 * @return true if the maximal number of deferred sends is reached or the data buffer is full
+	 */
+	private boolean isDeferredFull(int length) {
+		return deferredSends.size() == MAX_DEFERRED_SENDS || length > clientEndpoint.getDataBuf().capacity() - deferredOffset;
+	}
+	
+	/**
+	 * Schedules the flush of the deferred sends after the flush delay, unless it is scheduled already.
+	 */
+	private void scheduleFlush() {
+		if (flushTask != null || deferredSends.isEmpty()) return;
+		flushTask = flushTimer.schedule(new Runnable() {
+			public void run() {
+				postDeferredSends();
+			}
+		}, FLUSH_DELAY, TimeUnit.MICROSECONDS);
+	}
+	
+	/**
+	 * Posts the deferred sends on their own, as far as the credits allow, because no other working request came
+	 * within the flush delay. The connection is idle, so the timer waits for their transmission like any other
+	 * operation, with its own deadline. The deferred sends left without credits are flushed after the next reply.
+	 */
+	private synchronized void postDeferredSends() {
+		flushTask = null;
+		if (deferredSends.isEmpty()) return;
+		setDeadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FLUSH_TIMEOUT));
+		try {
+			flushDeferredSends();
+		} catch (RdmaConnectionException e) {
+			logger.debug("Could not flush the deferred sends: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Posts the deferred sends the credits allow and waits for their transmission. The data buffer can be reused
+	 * once all of them are posted.
+	 * @throws RdmaConnectionException
+	 */
+	private void flushDeferredSends() throws RdmaConnectionException {
+		awaitExpired();
+		LinkedList<IbvSendWR> chain = takeDeferredSends(false, false);
+		if (chain.isEmpty()) {
+			if (deferredSends.isEmpty()) deferredOffset = 0;
+			return;
+		}
+		chain.getLast().setSend_flags(IbvSendWR.IBV_SEND_SIGNALED);
+		RdmaEvents.Timed event = RdmaEvents.beginPost(EventJournal.POST_CHAIN);
+		long start = System.nanoTime();
+		try {
+			clientEndpoint.postSend(chain).execute().free();
+			event.commit(chain.getLast().getWr_id(), chain.size());
+		} catch (IOException e) {
+			throw new RdmaConnectionException(e.getMessage());
+		}
+		journal.record(EventJournal.POST_CHAIN, chain.getLast().getWr_id(), chain.size(), System.nanoTime() - start);
+		tuner.recordOutstanding(chain.size());
+		outstanding.add(chain.getLast().getWr_id());
+		waitForTransmission(chain.getLast().getWr_id());
+	}
+	
+	/**
+	 * Takes the oldest deferred sends the credits allow and spends their credits, they are posted by the caller.
+	 * The others stay deferred until the next chain, or until the flush if credits are left.
+	 * @param force true to take all of them, even without credits
+	 * @param keepOne true to keep one credit for the next request, because no reply follows the post
+	 * @return the deferred sends, maybe empty
+	 */
+	private LinkedList<IbvSendWR> takeDeferredSends(boolean force, boolean keepOne) {
+		int count = deferredSends.size();
+		if (force) {
+			credits.spend(count);
+		} else {
+			count = credits.takeDeferred(count, keepOne);
+		}
+		LinkedList<IbvSendWR> chain = new LinkedList<IbvSendWR>();
+		for (int i = 0; i < count; i++) chain.add(deferredSends.poll());
+		if (deferredSends.isEmpty()) {
+			if (flushTask != null) {
+				flushTask.cancel(false);
+				flushTask = null;
+			}
+		} else if (credits.get() > 0) {
+			scheduleFlush();
+		}
+		return chain;
 	}
 	
 	/**
@@ -126,15 +453,8 @@ public class ClientEndpointDiSNIAdapter implements ClientRdmaConnection {
 	 * @throws InterruptedException
 	 */
 	public byte[] rdmaReceive(int id) throws RdmaConnectionException {
-		createRecvOperation(id);
-		logger.debug("Created receive operation.");
-		postReceiveOperation();
-		logger.debug("Posted the operation.");
-		int length = waitForTransmission();
-		logger.debug("Operation transmitted successfully with length wc " + length);
-		byte[] message = readOnRecvBuffer();
-		logger.debug("Read on the receive buffer the message.");
-		return message;
+		waitForTransmission(postReceiveOperation());
+		return readOnRecvBuffer();
 	}
 	
 	/**
@@ -147,55 +467,390 @@ public class ClientEndpointDiSNIAdapter implements ClientRdmaConnection {
 	 */
 	public byte[] rdmaRead(int id) throws RdmaConnectionException {
 		receiveRdmaInfo(id);
+		return readRemoteReply(id);
+	}
+	
+	/**
+	 * Reads the reply described by the received RDMA info.
+	 * @param id the unique id for the working request
+	 * @return message the message in bytes
+	 * @throws RdmaConnectionException
+	 */
+	private byte[] readRemoteReply(int id) throws RdmaConnectionException {
 		createRdmaReadOperation();
-		logger.debug("Created a rdma read operation.");
-		postSendOperation(id);
-		logger.debug("Sent the rdma read operation.");
+		long wrId = postSendOperation(id);
 		//wait for the confirmation that the RDMA send operation was sent
-		int length = waitForTransmission();
-		logger.debug("Confirmed the transmission with wc length " + length);
+		waitForTransmission(wrId);
 		//access the data in our own buffer
-		byte[] message = readOnSendBuffer();
-		logger.debug("Read the data.");
-		return message;
+		return readOnSendBuffer();
+	}
+	
+	/**
+	 * Gets the local buffer the server may write a reply into: the send buffer, where the RDMA reads land as well.
+	 * It is registered for remote writes, so the key is the remote key.
+	 * @return the local buffer
+	 */
+	public RdmaRegion getPushRegion() {
+		IbvMr sendMr = clientEndpoint.getSendMr();
+		return new RdmaRegion(STATUS_CODE_200_OK, sendMr.getAddr(), clientEndpoint.getSendBuf().capacity(), sendMr.getRkey());
+	}
+	
+	/**
+	 * Waits for the reply of a request naming the push region. If the server wrote the reply into the push region,
+	 * the completion of the receive carries the credits as immediate data and the reply is taken from the region.
+	 * Otherwise the server sent the RDMA info and the reply is read as by <tt>rdmaRead</tt>.
+	 * @param id the unique id for the working request
+	 * @return message the message in bytes
+	 * @throws RdmaConnectionException
+	 */
+	public byte[] rdmaReceivePushed(int id) throws RdmaConnectionException {
+		if (receiveReply().getOpcode() == IBV_WC_RECV_RDMA_WITH_IMM) {
+			return readOnSendBuffer();
+		}
+		return readRemoteReply(id);
 	}
 	
 	/**
-	 * Receive the information of the remote buffer.
+	 * Waits for the server to signal the client where the data is, without reading it.
+	 * @param id the unique id for the receive working request
+	 * @return the information of the remote buffer
+	 * @throws RdmaConnectionException
+	 */
+	public RdmaRegion rdmaReceiveRegion(int id) throws RdmaConnectionException {
+		receiveRdmaInfo(id);
+		ByteBuffer recvBuf = clientEndpoint.getRecvBuf();
+		recvBuf.clear();
+		int statusCode = recvBuf.getInt();
+		recvBuf.getInt(); // the credits, see receiveRdmaInfo
+		RdmaRegion region = new RdmaRegion(statusCode, recvBuf.getLong(), recvBuf.getInt(), recvBuf.getInt());
+		recvBuf.clear();
+		return region;
+	}
+	
+	/**
+	 * Reads a part of the remote buffer into the local buffer (the send buffer), in pieces as large as the local buffer.
+	 * @param region the remote buffer
+	 * @param offset the offset of the part in the remote buffer
+	 * @param length the length of the part
+	 * @param id the unique id for the working requests
+	 * @return the part in bytes
+	 * @throws RdmaConnectionException
+	 */
+	public byte[] rdmaReadRegion(RdmaRegion region, long offset, int length, int id) throws RdmaConnectionException {
+		if (offset < 0 || length < 0 || offset + length > region.getLength()) {
+			throw new RdmaConnectionException("The part is outside the remote buffer.");
+		}
+		byte[] part = new byte[length];
+		ByteBuffer sendBuf = clientEndpoint.getSendBuf();
+		int done = 0;
+		while (done < length) {
+			int piece = Math.min(length - done, sendBuf.capacity());
+			IbvSendWR sendWR = clientEndpoint.getSendWR();
+			sendWR.setOpcode(IbvSendWR.IBV_WR_RDMA_READ);
+			sendWR.setSend_flags(IbvSendWR.IBV_SEND_SIGNALED);
+			sendWR.getRdma().setRemote_addr(region.getAddress() + offset + done);
+			sendWR.getRdma().setRkey(region.getKey());
+			sendWR.getSge(0).setLength(piece);
+			waitForTransmission(postSendOperation(id));
+			sendBuf.clear();
+			sendBuf.get(part, done, piece);
+			sendBuf.clear();
+			done += piece;
+		}
+		return part;
+	}
+	
+	/**
+	 * Waits for the table of the buffers of a batch and reads them with one chain of RDMA read requests, the buffers
+	 * are placed back to back in the local buffer (the send buffer). Only the last request is signaled, since the
+	 * read requests of a queue pair complete in order.
+	 * @param id the unique id for the working requests
+	 * @return the messages in the order of the table, null for an unknown resource
+	 * @throws RdmaConnectionException
+	 */
+	public List<byte[]> rdmaReadBatch(int id) throws RdmaConnectionException {
+		receiveRdmaInfo(id);
+		ByteBuffer recvBuf = clientEndpoint.getRecvBuf();
+		recvBuf.clear();
+		int statusCode = recvBuf.getInt();
+		if (statusCode != STATUS_CODE_200_OK) {
+			recvBuf.clear();
+			throw new RdmaConnectionException("status code not 200: " + statusCode);
+		}
+		recvBuf.getInt(); // the credits, see receiveRdmaInfo
+		int count = recvBuf.getInt();
+		List<RdmaRegion> regions = new ArrayList<RdmaRegion>(count);
+		for (int i = 0; i < count; i++) {
+			regions.add(new RdmaRegion(recvBuf.getInt(), recvBuf.getLong(), recvBuf.getInt(), recvBuf.getInt()));
+		}
+		recvBuf.clear();
+		
+		ByteBuffer sendBuf = clientEndpoint.getSendBuf();
+		long localAddress = clientEndpoint.getSendMr().getAddr();
+		int localKey = clientEndpoint.getSendMr().getLkey();
+		LinkedList<IbvSendWR> chain = new LinkedList<IbvSendWR>();
+		int[] offsets = new int[count];
+		int offset = 0;
+		for (int i = 0; i < count; i++) {
+			RdmaRegion region = regions.get(i);
+			if (region.getStatusCode() != STATUS_CODE_200_OK) continue;
+			if (region.getLength() > sendBuf.capacity() - offset) {
+				throw new RdmaConnectionException("The batch does not fit in the local buffer.");
+			}
+			IbvSge sge = new IbvSge();
+			sge.setAddr(localAddress + offset);
+			sge.setLength(region.getLength());
+			sge.setLkey(localKey);
+			LinkedList<IbvSge> sgeList = new LinkedList<IbvSge>();
+			sgeList.add(sge);
+			IbvSendWR readWR = new IbvSendWR();
+			readWR.setWr_id(nextWrId(id));
+			readWR.setSg_list(sgeList);
+			readWR.setOpcode(IbvSendWR.IBV_WR_RDMA_READ);
+			readWR.getRdma().setRemote_addr(region.getAddress());
+			readWR.getRdma().setRkey(region.getKey());
+			chain.add(readWR);
+			offsets[i] = offset;
+			offset += region.getLength();
+		}
+		
+		if (!chain.isEmpty()) {
+			chain.getLast().setSend_flags(IbvSendWR.IBV_SEND_SIGNALED);
+			postSend(chain);
+			waitForTransmission(chain.getLast().getWr_id());
+		}
+		
+		List<byte[]> messages = new ArrayList<byte[]>(count);
+		for (int i = 0; i < count; i++) {
+			RdmaRegion region = regions.get(i);
+			if (region.getStatusCode() != STATUS_CODE_200_OK) {
+				messages.add(null);
+				continue;
+			}
+			byte[] message = new byte[region.getLength()];
+			sendBuf.clear();
+			sendBuf.position(offsets[i]);
+			sendBuf.get(message);
+			messages.add(message);
+		}
+		sendBuf.clear();
+		return messages;
+	}
+	
+	/**
+	 * Receive the information of the remote buffer, and takes the credits returned with it.
 	 * @param message
 	 * @param id
 	 * @throws IOException
 	 * @throws InterruptedException
 	 */
 	private void receiveRdmaInfo(int id) throws RdmaConnectionException {
-		createRecvOperation(id);
-		logger.debug("Created receive operation.");
-		postReceiveOperation();
-		logger.debug("Posted the operation.");
-		int length = waitForTransmission();
-		logger.debug("RDMA info is ready with length wc " + length);
+		if (receiveReply().getOpcode() == IBV_WC_RECV_RDMA_WITH_IMM) {
+			throw new RdmaConnectionException("The server pushed a reply which was not asked for.");
+		}
 	}
 	
+	/**
+	 * Receives the next reply of the server, either RDMA info or a pushed reply, and takes the credits returned
+	 * with it.
+	 * @return the completion of the receive
+	 * @throws RdmaConnectionException
+	 */
+	private IbvWC receiveReply() throws RdmaConnectionException {
+		IbvWC wc = waitForCompletion(postReceiveOperation());
+		takeCredits(wc);
+		// the deferred sends which waited for credits
+		scheduleFlush();
+		return wc;
+	}
 	
 	/**
-	 * Waits for an event.
+	 * Takes the credits returned with a reply: the immediate data of a pushed reply, or the credits in the
+	 * receive buffer.
+	 * @param wc the completion of the receive
+	 */
+	private void takeCredits(IbvWC wc) {
+		if (wc.getOpcode() == IBV_WC_RECV_RDMA_WITH_IMM) {
+			credits.add(wc.getImm_data());
+		} else {
+			credits.add(clientEndpoint.getRecvBuf().getInt(CREDITS_OFFSET));
+		}
+	}
+	
+	
+	/**
+	 * Waits for the completion of the working request.
+	 * @param wrId the id of the working request, or the id of the receives
 	 * @return int the number of bytes sent during this work completion.
-	 * @throws InterruptedException
+	 * @throws RdmaConnectionException if the connection was broken or the deadline passed.
+	 */
+	private int waitForTransmission(long wrId) throws RdmaConnectionException {
+		return waitForCompletion(wrId).getByte_len();
+	}
+	
+	/**
+	 * Waits for the completion of the working request until the deadline. The completions of other working
+	 * requests are sorted out (see <tt>sortOut</tt>). If the deadline passes, the working request is given up,
+	 * if it failed, the endpoint is abandoned.
+	 * @param wrId the id of the working request
+	 * @return the event
+	 * @throws RdmaConnectionException if the connection was broken, the working request failed or the deadline passed.
 	 */
-	//TODO: Maybe we can do better and not simply blindly wait for next event, but instead check what the event actually is.
-	// Nonetheless, it works this way as well (in the Github examples it is the same).
-	private int waitForTransmission() throws RdmaConnectionException {
+	private IbvWC waitForCompletion(long wrId) throws RdmaConnectionException {
+		long start = System.nanoTime();
+		IbvWC wc = parked.remove(wrId);
+		while (wc == null) {
+			IbvWC event = nextCompletion();
+			if (event == null) {
+				journal.record(EventJournal.MISSED_DEADLINE, wrId, 0, System.nanoTime() - start);
+				expire(wrId);
+				throw new RdmaConnectionException("The working request " + wrId + " missed its deadline.");
+			}
+			if (event.getWr_id() == wrId) {
+				wc = event;
+			} else {
+				sortOut(event);
+			}
+		}
+		outstanding.remove(wrId);
+		if (wc.getStatus() != IbvWC.IbvWcStatus.IBV_WC_SUCCESS.ordinal()) {
+			journal.record(EventJournal.FAILED_COMPLETION, wrId, wc.getStatus(), System.nanoTime() - start);
+			abandonEndpoint();
+			throw new RdmaConnectionException("The working request " + wrId + " failed with status " + wc.getStatus());
+		}
+		long latency = System.nanoTime() - start;
+		journal.record(completionOf(wc), wrId, wc.getByte_len(), latency);
+		if (wc.getOpcode() == IBV_WC_RDMA_READ) RdmaEvents.readCompleted(wrId, wc.getByte_len(), latency);
+		// the latency of a receive is the one of the server, not of the queue pair
+		if ((wc.getOpcode() & IBV_WC_RECV) == 0) tuner.recordCompletion(latency);
+		// the working requests complete in order, the deferred sends posted before are done
+		if (deferredSends.isEmpty()) deferredOffset = 0;
+		return wc;
+	}
+	
+	/**
+	 * Waits for the late completions of the working requests given up before, the next operation would reuse
+	 * the buffers they may still write. If they do not arrive until the deadline, the state of the endpoint is
+	 * lost and it is abandoned.
+	 * @throws RdmaConnectionException if the connection was broken or the late completions did not arrive.
+	 */
+	private void awaitExpired() throws RdmaConnectionException {
+		long start = System.nanoTime();
+		while (!expired.isEmpty()) {
+			IbvWC event = nextCompletion();
+			if (event == null) {
+				journal.record(EventJournal.MISSED_DEADLINE, expired.iterator().next(), expired.size(), System.nanoTime() - start);
+				abandonEndpoint();
+				throw new RdmaConnectionException("The " + expired.size() + " expired working requests did not complete.");
+			}
+			sortOut(event);
+		}
+	}
+	
+	/**
+	 * Takes the next completion of the endpoint, waiting until the deadline. The event of a broken connection is
+	 * left in the queue, so that every following operation sees it until the endpoint is restarted.
+	 * @return the completion, or null if the deadline passed
+	 * @throws RdmaConnectionException if the connection was broken.
+	 */
+	private IbvWC nextCompletion() throws RdmaConnectionException {
+		IbvWC wc;
 		try {
-			// take the event confirming that the message was sent
-			IbvWC wc = clientEndpoint.getWcEvents().take();
-			if (wc == ClientEndpoint.POISON_INSTANCE) {
-				throw new InterruptedException("The Rdma connection was broken.");
+			if (deadline == NO_DEADLINE) {
+				wc = clientEndpoint.getWcEvents().take();
+			} else {
+				wc = clientEndpoint.getWcEvents().poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
 			}
-			logger.debug("Message transmitted, wr_id " + wc.getWr_id());
-			return wc.getByte_len();
 		} catch (InterruptedException e) {
 			throw new RdmaConnectionException(e.getMessage());
 		}
+		if (wc == ClientEndpoint.POISON_INSTANCE) {
+			// the following waits fail as well
+			clientEndpoint.poison();
+			throw new RdmaConnectionException("The Rdma connection was broken.");
+		}
+		return wc;
+	}
+	
+	/**
+	 * Sorts out the completion of another working request than the one awaited. The completion of an outstanding
+	 * working request is parked until it is awaited, the late completion of a working request given up is dropped
+	 * (a late reply still returns its credits). Any failed completion means that the queue pair is in error.
+	 * @param wc the completion
+	 * @throws RdmaConnectionException if the completion failed, the endpoint is abandoned.
+	 */
+	private void sortOut(IbvWC wc) throws RdmaConnectionException {
+		long wrId = wc.getWr_id();
+		if (wc.getStatus() != IbvWC.IbvWcStatus.IBV_WC_SUCCESS.ordinal()) {
+			journal.record(EventJournal.FAILED_COMPLETION, wrId, wc.getStatus());
+			abandonEndpoint();
+			throw new RdmaConnectionException("The working request " + wrId + " failed with status " + wc.getStatus());
+		}
+		if (outstanding.contains(wrId)) {
+			parked.put(wrId, wc);
+			return;
+		}
+		if (expired.remove(wrId) && (wc.getOpcode() & IBV_WC_RECV) != 0) takeCredits(wc);
+		journal.record(EventJournal.DROPPED_COMPLETION, wrId, wc.getByte_len());
+	}
+	
+	/**
+	 * Gives up the working request whose deadline passed, its late completion is dropped. If the reply of the
+	 * request sent last is still awaited, the receive it will land in is given up as well.
+	 * @param wrId the id of the working request
+	 * @throws RdmaConnectionException if the receives could not be posted.
+	 */
+	private void expire(long wrId) throws RdmaConnectionException {
+		outstanding.remove(wrId);
+		expired.add(wrId);
+		if (!awaitingReply) return;
+		long receiveId = postReceiveOperation();
+		IbvWC reply = parked.remove(receiveId);
+		if (reply != null) {
+			takeCredits(reply);
+		} else {
+			outstanding.remove(receiveId);
+			expired.add(receiveId);
+		}
+	}
+	
+	/**
+	 * Gets the operation of the journal for the completion.
+	 * @param wc the completion
+	 * @return the operation
+	 */
+	private static int completionOf(IbvWC wc) {
+		if ((wc.getOpcode() & IBV_WC_RECV) != 0) return EventJournal.RECV_COMPLETION;
+		if (wc.getOpcode() == IBV_WC_RDMA_READ) return EventJournal.READ_COMPLETION;
+		return EventJournal.SEND_COMPLETION;
+	}
+	
+	/**
+	 * Sets the deadline of the following operations, an operation which does not complete until then fails and
+	 * its working requests are given up.
+	 * @param deadline the deadline, as given by <tt>System.nanoTime</tt>
+	 */
+	public synchronized void setDeadline(long deadline) {
+		this.deadline = deadline;
+	}
+	
+	/**
+	 * Gives up the endpoint, whose working requests may still complete. It counts as disconnected from now on,
+	 * and the listener is informed as if the server disconnected.
+	 */
+	private void abandonEndpoint() {
+		logger.debug("Abandoning the endpoint.");
+		abandoned = true;
+		if (connectionListener != null) connectionListener.connectionBroken();
+	}
+	
+	/**
+	 * Gets the id of a new working request: the sequence number in the upper half and the given id in the lower half.
+	 * @param id the id given by the caller
+	 * @return the id of the working request
+	 */
+	private long nextWrId(int id) {
+		return (++sequence << Integer.SIZE) | (id & 0xffffffffL);
 	}
 	
 	/**
@@ -221,11 +876,11 @@ public class ClientEndpointDiSNIAdapter implements ClientRdmaConnection {
 		ByteBuffer recvBuf = clientEndpoint.getRecvBuf();
 		recvBuf.clear();
 		int status_code = recvBuf.getInt();
+		recvBuf.getInt(); // the credits, see receiveRdmaInfo
 		if (status_code == STATUS_CODE_200_OK) {
 			long addr = recvBuf.getLong();
 			int length = recvBuf.getInt();
 			int lkey = recvBuf.getInt();
-			logger.debug("Got rdma information, status code " + status_code + ", addr " + addr + ", length " + length + ", key " + lkey);
 
 			recvBuf.clear();
 			//the RDMA information given above identifies a RDMA buffer at the server side
@@ -236,33 +891,39 @@ public class ClientEndpointDiSNIAdapter implements ClientRdmaConnection {
 			sendWR.getRdma().setRemote_addr(addr);
 			sendWR.getRdma().setRkey(lkey);	
 			sendWR.getSge(0).setLength(length); //0 since we only have one scatter/gather element. We tried to keep things simple.
-			
-			logger.debug("Stored the values in the RDMA read operation.");
 		}
 		else {
 			throw new RdmaConnectionException("status code not 200: " + status_code);
 		}
 	}
 	
-	
-	private void createRecvOperation(int id) {
-		IbvRecvWR recvWR = clientEndpoint.getRecvWR();
-		recvWR.setWr_id(id);
-		logger.debug("Set the wr id in the receive operation " + id);
-	}
-	
 	/**
-	 * Posts a receive operation in the working queue.
-	 * @param id
-	 * @throws IOException
+	 * Gives the next posted receive operation to the reply which is awaited. If none is left, several receive
+	 * operations are posted with the prepared call of the endpoint. The receive operation posted when the
+	 * endpoint is initialized counts as well.
+	 * @return the id of the receive working request
+	 * @throws RdmaConnectionException
 	 */
-	private void postReceiveOperation() throws RdmaConnectionException {
-		try {
-			SVCPostRecv postRecv = clientEndpoint.postRecv(clientEndpoint.getWrList_recv());
-			postRecv.execute().free();
-		} catch (IOException e) {
-			throw new RdmaConnectionException(e.getMessage());
+	private long postReceiveOperation() throws RdmaConnectionException {
+		awaitingReply = false;
+		if (receives.isEmpty()) {
+			int batch = clientEndpoint.getReceiveBatch();
+			RdmaEvents.Timed event = RdmaEvents.beginPost(EventJournal.POST_RECV);
+			long start = System.nanoTime();
+			try {
+				clientEndpoint.getRecvCall().execute();
+				event.commit(ClientEndpoint.getBatchReceiveId(0), batch);
+			} catch (IOException e) {
+				throw new RdmaConnectionException(e.getMessage());
+			}
+			journal.record(EventJournal.POST_RECV, ClientEndpoint.getBatchReceiveId(0), batch, System.nanoTime() - start);
+			tuner.recordOutstanding(batch);
+			for (int i = 0; i < batch; i++) {
+				receives.add(ClientEndpoint.getBatchReceiveId(i));
+				outstanding.add(ClientEndpoint.getBatchReceiveId(i));
+			}
 		}
+		return receives.poll();
 	}
 	
 	
@@ -282,16 +943,73 @@ public class ClientEndpointDiSNIAdapter implements ClientRdmaConnection {
 	/**
 	 * Sets the id in the send working queue, and sends the operation to the server.
 	 * @param id
+	 * @return the id of the posted working request
 	 * @throws IOException
 	 */
-	private void postSendOperation(int id) throws RdmaConnectionException {
+	private long postSendOperation(int id) throws RdmaConnectionException {
+		long wrId = nextWrId(id);
+		if (!deferredSends.isEmpty() && credits.get() > 1) {
+			clientEndpoint.getSendWR().setWr_id(wrId);
+			LinkedList<IbvSendWR> chain = new LinkedList<IbvSendWR>();
+			chain.add(clientEndpoint.getSendWR());
+			postSend(chain);
+			return wrId;
+		}
+		// patch the prepared call with the working request
+		IbvSendWR sendWR = clientEndpoint.getSendWR();
+		int operation = sendWR.getOpcode() == IbvSendWR.IBV_WR_RDMA_READ ? EventJournal.POST_READ : EventJournal.POST_SEND;
+		RdmaEvents.Timed event = RdmaEvents.beginPost(operation);
+		long start = System.nanoTime();
+		try {
+			SVCPostSend postSend = clientEndpoint.getSendCall(sendWR.getOpcode());
+			SVCPostSend.SendWRMod wrMod = postSend.getWrMod(0);
+			wrMod.setWr_id(wrId);
+			wrMod.getSgeMod(0).setLength(sendWR.getSge(0).getLength());
+			if (sendWR.getOpcode() == IbvSendWR.IBV_WR_RDMA_READ) {
+				wrMod.getRdmaMod().setRemote_addr(sendWR.getRdma().getRemote_addr());
+				wrMod.getRdmaMod().setRkey(sendWR.getRdma().getRkey());
+			}
+			postSend.execute();
+			event.commit(wrId, sendWR.getSge(0).getLength());
+		} catch (IOException e) {
+			throw new RdmaConnectionException(e.getMessage());
+		}
+		outstanding.add(wrId);
+		journal.record(operation, wrId, sendWR.getSge(0).getLength(), System.nanoTime() - start);
+		if (sendWR.getOpcode() == IbvSendWR.IBV_WR_SEND) credits.spend(1);
+		return wrId;
+	}
+	
+	/**
+	 * Posts the chain of working requests, with the deferred sends the credits allow in front of it. If the chain
+	 * holds a request, its reply returns the credits, so the deferred sends may take all the credits left.
+	 * @param chain the working requests
+	 * @throws RdmaConnectionException
+	 */
+	private synchronized void postSend(LinkedList<IbvSendWR> chain) throws RdmaConnectionException {
+		int requests = 0;
+		for (IbvSendWR sendWR : chain) {
+			if (sendWR.getOpcode() == IbvSendWR.IBV_WR_SEND) requests++;
+		}
+		credits.spend(requests);
+		LinkedList<IbvSendWR> deferred = takeDeferredSends(false, requests == 0);
+		if (!deferred.isEmpty()) {
+			deferred.addAll(chain);
+			chain = deferred;
+		}
+		RdmaEvents.Timed event = RdmaEvents.beginPost(EventJournal.POST_CHAIN);
+		long start = System.nanoTime();
 		try {
-			SVCPostSend postSend = clientEndpoint.postSend(clientEndpoint.getWrList_send());
-			postSend.getWrMod(0).setWr_id(id);
-			postSend.execute().free();
+			clientEndpoint.postSend(chain).execute().free();
+			event.commit(chain.getLast().getWr_id(), chain.size());
 		} catch (IOException e) {
 			throw new RdmaConnectionException(e.getMessage());
 		}
+		journal.record(EventJournal.POST_CHAIN, chain.getLast().getWr_id(), chain.size(), System.nanoTime() - start);
+		tuner.recordOutstanding(chain.size());
+		for (IbvSendWR sendWR : chain) {
+			if ((sendWR.getSend_flags() & IbvSendWR.IBV_SEND_SIGNALED) != 0) outstanding.add(sendWR.getWr_id());
+		}
 	}
 	
 	/**
@@ -338,37 +1056,59 @@ public class ClientEndpointDiSNIAdapter implements ClientRdmaConnection {
 	/**
 	 * Checks if the endpoint of the connection is connected to the server
 	 * 
-	 * @return true if the endpoint is connected to the server, false otherwise
+	 * @return true if the endpoint is connected to the server (and was not abandoned), false otherwise
 	 */
 	public boolean isConnected() {
-		if (clientEndpoint != null) return clientEndpoint.isConnected();
+		if (clientEndpoint != null) return !abandoned && clientEndpoint.isConnected();
 		else return false;
 	}
 	
 	
 	/**
-	 * Closes the endpoint and frees all resources and "restarts" the rdmaConnection.
-	 * @throws RdmaConnectionException 
+	 * Closes the broken endpoint and "restarts" the rdmaConnection with the prepared endpoint, which must be
+	 * connected (see <tt>rdmaConnect</tt>). The endpoint group is not closed, it stays alive for the next endpoint.
+	 * @throws RdmaConnectionException if the prepared endpoint is not connected, or the broken endpoint could not
+	 * be closed.
 	 */
 	public void restart() throws RdmaConnectionException {
+		ClientEndpoint endpoint = spareEndpoint;
+		if (endpoint == null || !endpoint.isConnected()) throw new RdmaConnectionException("The prepared endpoint is not connected.");
+		RdmaEvents.Timed event = RdmaEvents.beginConnection(EventJournal.RESTART);
+		long start = System.nanoTime();
 		try {
 			if (clientEndpoint != null && !clientEndpoint.isClosed()) clientEndpoint.close();
 			logger.debug("Endpoint closed !");
-			if (clientEndpointGroup != null && !clientEndpointGroup.isClosed()) clientEndpointGroup.close();
-			logger.debug("Endpoint group closed !");
 		} catch (Exception e) {
 			logger.debug("Problems closing the endpoint");
 			throw new RdmaConnectionException("Could not close the endpoint properly");
 		}
-		try {
-			createClientEndpoint();
-		} catch (IOException e) {
-			logger.debug("Could not re-create a client point");
-			throw new RdmaConnectionException("Could not re-create a client endpoint");
-		}
-		
+		this.clientEndpoint = endpoint;
+		this.spareEndpoint = null;
+		// the deferred sends of the broken endpoint are lost, the new endpoint posted one receive in init
+		takeDeferredSends(true, false);
+		this.deferredOffset = 0;
+		receives.clear();
+		receives.add((long) ClientEndpoint.RECEIVE_ID);
+		outstanding.clear();
+		outstanding.add((long) ClientEndpoint.RECEIVE_ID);
+		expired.clear();
+		parked.clear();
+		this.awaitingReply = false;
+		credits.reset();
+		this.abandoned = false;
+		clientEndpoint.setConnectionListener(connectionListener);
+		event.commit(clientEndpoint.getQp().getQp_num(), 0);
+		journal.record(EventJournal.RESTART, 0, 0, System.nanoTime() - start);
 	}
 	
-	
+	/**
+	 * Sets the listener, which is informed when the server disconnects. The listener is kept for all
+	 * the endpoints used after a restart.
+	 * @param connectionListener the listener
+	 */
+	public void setConnectionListener(ConnectionListener connectionListener) {
+		this.connectionListener = connectionListener;
+		if (clientEndpoint != null) clientEndpoint.setConnectionListener(connectionListener);
+	}
 	
 }
@@ -20,14 +20,20 @@ public class ClientFactory implements RdmaEndpointFactory<ClientEndpoint> {
 	private static final Logger logger = Logger.getLogger(ClientFactory.class);
 	
 	private RdmaActiveEndpointGroup<ClientEndpoint> endpointGroup;
+	private RdmaTuner tuner;
+	private EventJournal journal;
 	
 	/**
 	 * Constructs the the client factory by specifying the generic parameter to be <tt>ClientEndpoint</tt>.
 	 * @param endpointGroup the group of endpoint
+	 * @param tuner the tuner, which sizes the endpoints
+	 * @param journal the journal of the RDMA operations of the endpoints
 	 * @see ClientEndpoint
 	 */
-	public ClientFactory(RdmaActiveEndpointGroup<ClientEndpoint> endpointGroup) {
+	public ClientFactory(RdmaActiveEndpointGroup<ClientEndpoint> endpointGroup, RdmaTuner tuner, EventJournal journal) {
 		this.endpointGroup = endpointGroup;
+		this.tuner = tuner;
+		this.journal = journal;
 	}
 	
 	/**
@@ -36,7 +42,7 @@ public class ClientFactory implements RdmaEndpointFactory<ClientEndpoint> {
 	 */
 	public ClientEndpoint createEndpoint(RdmaCmId idPriv, boolean serverSide) throws IOException {
 		logger.debug("Trying to create the custom endpoint (ClientEndpoint)...");
-		ClientEndpoint endpoint = new ClientEndpoint(endpointGroup, idPriv, serverSide);
+		ClientEndpoint endpoint = new ClientEndpoint(endpointGroup, idPriv, serverSide, tuner, journal);
 		logger.debug("Successfully created the custom endpoint (Client Endpoint).");
 		return endpoint;
 
@@ -3,6 +3,8 @@ package com.acn.rdma.client_proxy;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -14,7 +16,6 @@ import org.apache.log4j.Logger;
 
 import com.ibm.disni.rdma.RdmaActiveEndpointGroup;
 import com.ibm.disni.rdma.RdmaServerEndpoint;
-import com.sun.net.httpserver.HttpServer;
 
 
 /**
@@ -27,51 +28,87 @@ import com.sun.net.httpserver.HttpServer;
  * @see RdmaWebPageHandler
  * @version 1
  */
-@SuppressWarnings("restriction")
 public class ClientProxy {
 	private static final Logger logger = Logger.getLogger(ClientProxy.class);
+	// the workers block while fetching from the servers, so there are more workers than processors
+	private static final int HTTP_WORKERS = 4 * Runtime.getRuntime().availableProcessors();
 	
-	private String serverIpAddress;
-	private int serverPort;
+	private List<List<InetSocketAddress>> servers;
 	private int interceptionPort;
+	private HedgingPolicy hedgingPolicy;
+	private long prefetchBudget;
+	private RdmaTuner tuner;
+	private int warmupRequests;
+	private EventJournal journal;
 	
 	/**
      * Creates a proxy. 
      * 
-     * @param ipAddress the IP where the proxy should forward the data.
-     * @param serverPort the port where the proxy should forward the data.
+     * @param servers the addresses (IP and port) of the servers where the proxy should forward the data. The servers
+     * in the same inner list are replicas holding identical content.
      * @param interceptionPort the port where the proxy should wait for the HTTP requests sent from the browser.
+     * @param hedgingPolicy the policy to hedge slow fetches to a second replica, or null to disable hedging.
+     * @param prefetchBudget the maximal number of bytes of the prefetched resources, 0 to disable prefetching.
+     * @param profile the profile of the RDMA resources, which are adjusted online from it
+     * @param warmupRequests the number of synthetic requests sent before the proxy reports ready, 0 to disable the warmup
+     * @param journal the journal of the RDMA operations of all the connections
      */
-	public ClientProxy(String serverIpAddress, int serverPort, int interceptionPort) {
-		this.serverIpAddress = serverIpAddress;
-		this.serverPort = serverPort;
+	public ClientProxy(List<List<InetSocketAddress>> servers, int interceptionPort, HedgingPolicy hedgingPolicy, long prefetchBudget,
+			RdmaProfile profile, int warmupRequests, EventJournal journal) {
+		this.servers = servers;
 		this.interceptionPort = interceptionPort;
+		this.hedgingPolicy = hedgingPolicy;
+		this.prefetchBudget = prefetchBudget;
+		this.tuner = new RdmaTuner(profile);
+		this.warmupRequests = warmupRequests;
+		this.journal = journal;
 	}
 	
 	
 	/**
-	 * Starts the proxy, which has two duties. Create a RDMA connection to the server. 
-	 * Secondly, it also creates an HTTP server in the client, whose duty is to intercept
-	 * the HTTP requests from the browser. 
+	 * Starts the proxy, which has two duties. Create a RDMA connection to every server, the sets of replicated
+	 * servers are placed on a consistent-hash ring which decides which servers are responsible for a resource. 
+	 * Secondly, it also creates an HTTP server in the client (see <tt>HttpFrontEnd</tt>), whose duty is to intercept
+	 * the HTTP requests from the browser. Finally, it warms up with synthetic requests of a browser (see <tt>Warmup</tt>)
+	 * and reports ready.
 	 * @throws IOException in case the 
 	 * @throws {@link RdmaConnectionException} 
 	 */
 	public void start() throws RdmaConnectionException, IOException {
-		ClientRdmaConnection connection = new ClientEndpointDiSNIAdapter();
+		tuner.start();
+		journal.start();
+		ConsistentHashRing<ReplicaSet> ring = new ConsistentHashRing<ReplicaSet>();
+		for (List<InetSocketAddress> addresses : servers) {
+			List<RdmaConnectionManager> replicas = new ArrayList<RdmaConnectionManager>();
+			StringBuilder name = new StringBuilder();
+			for (InetSocketAddress address : addresses) {
+				ClientRdmaConnection connection = new ClientEndpointDiSNIAdapter(tuner, journal);
+				RdmaConnectionManager connectionManager = new RdmaConnectionManager(connection, address.getHostString(), address.getPort());
+				connectionManager.start();
+				replicas.add(connectionManager);
+				if (name.length() > 0) name.append('+');
+				name.append(address.getHostString()).append(':').append(address.getPort());
+			}
+			ring.add(name.toString(), new ReplicaSet(name.toString(), replicas));
+		}
 		
 		logger.debug("Starting interception from the browser...");
 		// create a handler for the index.html file
-		HttpServer server = HttpServer.create(new InetSocketAddress(interceptionPort), 0);
-        server.createContext("/", new RdmaIndexHandler(connection, serverIpAddress, serverPort));
-        server.setExecutor(null); // creates a default executor
+		HttpFrontEnd server = new HttpFrontEnd(interceptionPort, HTTP_WORKERS);
+		// the embedded resources of a page are prefetched by the handlers of their paths
+		Prefetcher prefetcher = prefetchBudget > 0 ? new Prefetcher(server, prefetchBudget) : null;
+        server.createContext("/", new RdmaIndexHandler(ring, hedgingPolicy, prefetcher));
         
         // create a handler for the image
-        server.createContext("/network.png", new RdmaImageHandler(connection, serverIpAddress, serverPort));
-        server.setExecutor(null);
+        server.createContext("/network.png", new RdmaImageHandler(ring, hedgingPolicy, prefetcher));
         
         server.start();
 
 		logger.debug("Interception started.");
+		
+		if (warmupRequests > 0) new Warmup(interceptionPort, warmupRequests).run();
+		logger.debug("Proxy ready.");
+		System.out.println("Proxy ready on port " + interceptionPort);
 	}
 	
 	
@@ -1,6 +1,7 @@
 package com.acn.rdma.client_proxy;
 
 import java.io.IOException;
+import java.util.List;
 
 /**
  * Provides an interface for the RDMA connection to the server. The classes the implement this
@@ -8,13 +9,28 @@ import java.io.IOException;
  *   <ul>
  *   <li>rdmaSend</li>
  *   Sends a message to the server in bytes by using a send working request with an unique ID.
+ *   <li>rdmaSendDeferred</li>
+ *   Queues a message which needs no reply, it is posted together with the next working request.
  *   <li>rdmaReceive</li>
  *   Receives a message from the server in bytes by using a receive working request with an unique ID.
  *   <li>rdmaRead</li>
  *   Sends a RDMA read request with an unique ID to read data from the server. First, it waits for the server, to
  *   signal the client that the data is ready and where the data actually is.
+ *   <li>getPushRegion</li>
+ *   Gets the local buffer, which the server may write a reply into.
+ *   <li>rdmaReceivePushed</li>
+ *   Waits for the reply of a request naming the local buffer, the server either wrote the reply into it or
+ *   signals where the data is, as for a RDMA read.
+ *   <li>rdmaReceiveRegion</li>
+ *   Waits for the server to signal where the data is, without reading it.
+ *   <li>rdmaReadRegion</li>
+ *   Reads a part of the remote buffer with RDMA read requests.
+ *   <li>rdmaReadBatch</li>
+ *   Waits for the table of the buffers of a batch and reads all of them with one chain of RDMA read requests.
  *   <li>rdmaConnect</li>
- *   Connects with the server in the given address and port.
+ *   Connects the prepared endpoint with the server in the given address and port, the restart switches to it.
+ *   <li>setDeadline</li>
+ *   Bounds the time of the following operations.
  *  </ul>
  * @version 1
  */
@@ -37,6 +53,16 @@ public interface ClientRdmaConnection {
 	 */
 	public void rdmaSend(byte[] message, int id) throws RdmaConnectionException;
 	
+	/**
+	 * Queues a message which needs no reply. It is posted together with the next working request, or on its own
+	 * after a short delay if no other working request follows.
+	 * @param message the message in bytes
+	 * @param id unique ID for the send working request
+	 * @throws ServerOverloadedException if too many messages are queued and the server has no receive left for them.
+	 * @throws RdmaConnectionException if an error happens while posting the queued messages.
+	 */
+	public void rdmaSendDeferred(byte[] message, int id) throws RdmaConnectionException;
+	
 	/**
 	 * Sends a RDMA read request with an unique ID to read data from the server. First, it waits for the server, to
 	 * signal the client that the data is ready and where the data actually is.
@@ -48,13 +74,74 @@ public interface ClientRdmaConnection {
 	public byte[] rdmaRead(int id) throws RdmaConnectionException;
 	
 	/**
-	 * It tries to connect the client endpoint with the server in the given ip and port.
+	 * Gets the local buffer, which the server may write a reply into. It can be named in a request, until the
+	 * reply of the request is received.
+	 * @return the local buffer, registered for remote writes
+	 */
+	public RdmaRegion getPushRegion();
+	
+	/**
+	 * Waits for the reply of a request naming the local buffer of <tt>getPushRegion</tt>. The server either wrote
+	 * the reply into the buffer with an RDMA write with immediate data (one receive, no RDMA read), or it signals
+	 * where the data is and the data is read as by <tt>rdmaRead</tt>.
+	 * @param id the unique id for the working request
+	 * @return message the message in bytes
+	 * @throws RdmaConnectionException if an error happens during the receive or the RDMA read.
+	 */
+	public byte[] rdmaReceivePushed(int id) throws RdmaConnectionException;
+	
+	/**
+	 * Waits for the server to signal the client where the data is, without reading it.
+	 * @param id the unique id for the receive working request
+	 * @return the information of the remote buffer
+	 * @throws RdmaConnectionException if an error happens during the receive.
+	 */
+	public RdmaRegion rdmaReceiveRegion(int id) throws RdmaConnectionException;
+	
+	/**
+	 * Reads a part of the remote buffer with RDMA read requests. Parts larger than the local buffer are read
+	 * with several requests.
+	 * @param region the remote buffer
+	 * @param offset the offset of the part in the remote buffer
+	 * @param length the length of the part
+	 * @param id the unique id for the working requests
+	 * @return the part in bytes
+	 * @throws RdmaConnectionException if an error happens during the RDMA read.
+	 */
+	public byte[] rdmaReadRegion(RdmaRegion region, long offset, int length, int id) throws RdmaConnectionException;
+	
+	/**
+	 * Waits for the server to send the table of the buffers of a batch, and reads all the buffers with one chain
+	 * of RDMA read requests (only the last one is signaled).
+	 * @param id the unique id for the working requests
+	 * @return the messages in the order of the table, null for a resource unknown to the server. The server may
+	 * send fewer messages than requested, if they did not fit in its buffer.
+	 * @throws RdmaConnectionException if an error happens during the receive or the RDMA read.
+	 */
+	public List<byte[]> rdmaReadBatch(int id) throws RdmaConnectionException;
+	
+	/**
+	 * Sets the deadline of the following operations. An operation which does not complete until then fails, the
+	 * next request first waits for the late completions of the working requests posted for it.
+	 * @param deadline the deadline, as given by <tt>System.nanoTime</tt>
+	 */
+	public void setDeadline(long deadline);
+	
+	/**
+	 * Connects the prepared endpoint with the server in the given ip and port, unless it is connected already.
+	 * The connection in use is not touched until the next restart.
 	 * @param ipAddress the ipaddress of the server
 	 * @param port the port of the server
-	 * @throws Exception
+	 * @throws RdmaConnectionException if the endpoint could not be prepared or connected.
 	 */
 	public void rdmaConnect(String ipAddress, int port) throws RdmaConnectionException;
 	
+	/**
+	 * Gives up the prepared endpoint, because its connect does not return. The endpoint is closed when the
+	 * connect returns.
+	 */
+	public void discardEndpoint();
+	
 	/**
 	 * Checks if the client is connected.
 	 * @return true if connected, false otherwise.
@@ -63,10 +150,22 @@ public interface ClientRdmaConnection {
 	
 	
 	/**
-	 * Restart.
-	 * @throws RdmaConnectionException 
+	 * Closes the endpoint in use and switches to the prepared endpoint, which must be connected.
+	 * @throws RdmaConnectionException if the prepared endpoint is not connected.
 	 */
 	public void restart() throws RdmaConnectionException;
 	
+	/**
+	 * Prepares in advance the endpoint used after the next restart, so that the restart is cheap.
+	 * @throws RdmaConnectionException if the endpoint could not be prepared.
+	 */
+	public void prepareEndpoint() throws RdmaConnectionException;
+	
+	/**
+	 * Sets the listener, which is informed when the server disconnects.
+	 * @param connectionListener the listener
+	 */
+	public void setConnectionListener(ConnectionListener connectionListener);
+	
 
 }
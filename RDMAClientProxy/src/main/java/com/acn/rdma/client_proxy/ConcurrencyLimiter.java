@@ -0,0 +1,113 @@
+package com.acn.rdma.client_proxy;
+
+/**
+ * This class bounds the number of concurrent operations on one server, with a limit adapted to the observed latency
+ * (additive increase, multiplicative decrease).
+ * <p>
+ * An operation which cannot be admitted is rejected at once instead of waiting for the connection, so that the
+ * operations admitted keep their latency when the server is overloaded. The limit is adapted as follows:
+ *  <ul>
+ *   <li>Baseline</li>
+ *   The latency without queueing is estimated by the minimal latency of the last window of operations.
+ *   <li>Decrease</li>
+ *   If an operation fails or its latency exceeds the baseline by the tolerance, the limit is multiplied by the
+ *   backoff factor (at most once per window, so that the operations queued before are not counted again).
+ *   <li>Increase</li>
+ *   Otherwise, if the limit was used, it grows by one per limit of completed operations.
+ *  </ul>
+ * </p>
+ * The limit is kept between one operation and the maximal limit.
+ *
+ * @see RdmaConnectionManager
+ * @version 1
+ */
+public class ConcurrencyLimiter {
+
+	public static final int DEFAULT_INITIAL_LIMIT = 8;
+	public static final int DEFAULT_MAX_LIMIT = 64;
+
+	private static final int MIN_LIMIT = 1;
+	private static final double TOLERANCE = 2.0; // latency over the baseline before the limit is decreased
+	private static final double BACKOFF = 0.75;
+	private static final int WINDOW = 128; // operations
+
+	private final int maxLimit;
+
+	private double limit;
+	private int inFlight;
+	private long minLatency; // of the current window, nanoseconds
+	private long baseline; // of the last window, nanoseconds
+	private int samples;
+	private long decreased; // completed operations at the last decrease
+	private long completed;
+
+	/**
+	 * Constructs the limiter.
+	 * @param initialLimit the limit before any operation completed
+	 * @param maxLimit the maximal limit
+	 */
+	public ConcurrencyLimiter(int initialLimit, int maxLimit) {
+		if (initialLimit < MIN_LIMIT || maxLimit < initialLimit) throw new IllegalArgumentException("The limits must be positive and ordered.");
+		this.limit = initialLimit;
+		this.maxLimit = maxLimit;
+		this.minLatency = Long.MAX_VALUE;
+		this.baseline = -1;
+		this.decreased = -WINDOW;
+	}
+
+	/**
+	 * Admits an operation if the limit allows it.
+	 * @return true if the operation was admitted, false if it should be rejected.
+	 */
+	public synchronized boolean tryAcquire() {
+		if (inFlight >= (int) limit) return false;
+		inFlight++;
+		return true;
+	}
+
+	/**
+	 * Ends an admitted operation and adapts the limit.
+	 * @param latency the latency of the operation in nanoseconds, or a negative value if the operation failed.
+	 */
+	public synchronized void release(long latency) {
+		boolean used = inFlight >= (int) limit;
+		inFlight--;
+		completed++;
+		if (latency < 0 || (baseline > 0 && latency > TOLERANCE * baseline)) {
+			if (completed - decreased >= WINDOW || latency < 0) {
+				limit = Math.max(MIN_LIMIT, limit * BACKOFF);
+				decreased = completed;
+			}
+		} else if (used) {
+			limit = Math.min(maxLimit, limit + 1 / limit);
+		}
+		if (latency >= 0) sample(latency);
+	}
+
+	/**
+	 * Ends an admitted operation which did not use the server, the limit is not adapted.
+	 */
+	public synchronized void cancel() {
+		inFlight--;
+	}
+
+	/**
+	 * Gets the current limit.
+	 * @return the number of concurrent operations admitted
+	 */
+	public synchronized int getLimit() {
+		return (int) limit;
+	}
+
+	private void sample(long latency) {
+		minLatency = Math.min(minLatency, latency);
+		if (++samples == WINDOW || baseline < 0) {
+			baseline = minLatency;
+			if (samples == WINDOW) {
+				minLatency = Long.MAX_VALUE;
+				samples = 0;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,14 @@
+package com.acn.rdma.client_proxy;
+
+/**
+ * Provides an interface to be informed about the state of the RDMA connection to the server.
+ * @version 1
+ */
+public interface ConnectionListener {
+	
+	/**
+	 * Called when the connection to the server was broken (the server disconnected).
+	 */
+	public void connectionBroken();
+
+}
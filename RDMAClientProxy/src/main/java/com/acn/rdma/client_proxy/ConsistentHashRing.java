@@ -0,0 +1,109 @@
+package com.acn.rdma.client_proxy;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * This class maps keys (the paths of the resources) to nodes (the servers) by using consistent hashing.
+ * <p>
+ * Every node is placed on the ring several times (virtual nodes), so that the keys are spread evenly
+ * across the nodes. A key belongs to the first virtual node found clockwise from the hash of the key.
+ * Hence, adding or removing a node moves only the keys between the virtual nodes of this node and their
+ * predecessors, which is a proportional share of all the keys.
+ * </p>
+ * The ring is not thread-safe for modifications, it should be built before it is used by the handlers.
+ *
+ * @param <T> the type of the nodes
+ * @version 1
+ */
+public class ConsistentHashRing<T> {
+
+	public static final int DEFAULT_VIRTUAL_NODES = 160;
+
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final TreeMap<Long, T> ring;
+	private final int virtualNodes;
+
+	/**
+	 * Constructs an empty ring with the default number of virtual nodes per node.
+	 */
+	public ConsistentHashRing() {
+		this(DEFAULT_VIRTUAL_NODES);
+	}
+
+	/**
+	 * Constructs an empty ring.
+	 * @param virtualNodes the number of virtual nodes of every node
+	 */
+	public ConsistentHashRing(int virtualNodes) {
+		if (virtualNodes <= 0) throw new IllegalArgumentException("The number of virtual nodes must be positive.");
+		this.ring = new TreeMap<Long, T>();
+		this.virtualNodes = virtualNodes;
+	}
+
+	/**
+	 * Adds the node to the ring.
+	 * @param name the unique name of the node (for example the address of the server)
+	 * @param node the node
+	 */
+	public void add(String name, T node) {
+		for (int i = 0; i < virtualNodes; i++) {
+			ring.put(hash(name + "#" + i), node);
+		}
+	}
+
+	/**
+	 * Removes the node with the given name from the ring.
+	 * @param name the unique name of the node
+	 */
+	public void remove(String name) {
+		for (int i = 0; i < virtualNodes; i++) {
+			ring.remove(hash(name + "#" + i));
+		}
+	}
+
+	/**
+	 * Gets the node responsible for the given key.
+	 * @param key the key (for example the path of the resource)
+	 * @return the node, or null if the ring is empty
+	 */
+	public T get(String key) {
+		if (ring.isEmpty()) return null;
+		Map.Entry<Long, T> entry = ring.ceilingEntry(hash(key));
+		// wrap around the ring
+		if (entry == null) entry = ring.firstEntry();
+		return entry.getValue();
+	}
+
+	/**
+	 * Checks if the ring has no nodes.
+	 * @return true if the ring is empty, false otherwise.
+	 */
+	public boolean isEmpty() {
+		return ring.isEmpty();
+	}
+
+	/**
+	 * Hashes the string with 64-bit FNV-1a followed by a final mix of the bits, which spreads also
+	 * similar strings (such as the names of the virtual nodes) over the whole ring.
+	 * @param value the string
+	 * @return the position of the string on the ring
+	 */
+	static long hash(String value) {
+		long h = FNV_OFFSET_BASIS;
+		for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+			h ^= (b & 0xff);
+			h *= FNV_PRIME;
+		}
+		h ^= (h >>> 33);
+		h *= 0xff51afd7ed558ccdL;
+		h ^= (h >>> 33);
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= (h >>> 33);
+		return h;
+	}
+
+}
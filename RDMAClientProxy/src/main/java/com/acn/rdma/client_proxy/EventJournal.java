@@ -0,0 +1,324 @@
+package com.acn.rdma.client_proxy;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+/**
+ * This class is a journal of the RDMA operations of the hot path, cheap enough to stay enabled under full load,
+ * instead of debug logging.
+ * <p>
+ * Every operation is one record of fixed size: the operation, the id of its working request, its length, the
+ * time (<tt>System.nanoTime</tt>) and its duration. The duration of a post is the time of the post call, the one
+ * of a completion is the time from the post (or from the start of the wait) to the completion. The records are
+ * kept in a ring preallocated once, the oldest records are overwritten. Recording takes no lock and allocates
+ * nothing:
+ *  <ul>
+ *   <li>The writer claims the next slot of the ring with one atomic increment.</li>
+ *   <li>It marks the slot as being written, writes the fields and then stamps the slot with its sequence number,
+ *   all with ordered writes (which are plain stores on x86).</li>
+ *   <li>A dump reads the stamp before and after the fields and skips a slot whose stamp changed or is not the
+ *   expected one, since it was overwritten meanwhile.</li>
+ *  </ul>
+ * </p>
+ * <p>
+ * Besides the working requests, the journal records the connection lifecycle: the connect and the restart of the
+ * proxy, the accept of the server and the disconnects announced by the RDMA connection manager. The posts, the
+ * completions of the reads and the connection lifecycle are also committed as JFR events (see <tt>RdmaEvents</tt>),
+ * so a flight recording matches a stall of the RDMA operations with the collections of the garbage collector and
+ * the safepoints of the JVM in one timeline, while the journal keeps the last operations for the crash file.
+ * </p>
+ * <p>
+ * The journal is dumped on demand through its JMX bean (see <tt>EventJournalMBean</tt>), and into the crash file,
+ * if one is given, when the process exits or a thread dies from an uncaught exception. A dump is a binary file
+ * which is decoded offline with <tt>main</tt>:
+ * <pre>
+ * java -cp RDMAClientProxy-*.jar com.acn.rdma.client_proxy.EventJournal journal.bin
+ * </pre>
+ * The dump starts with the magic number, the format version, the wall clock and <tt>System.nanoTime</tt> at the
+ * time of the dump (to convert the times of the records) and the number of records. Every record is then written
+ * as the operation (int), the length (int), the id of the working request (long), the time (long) and the
+ * duration in nanoseconds (long).
+ * </p>
+ * @see EventJournalMBean
+ * @version 1
+ */
+public class EventJournal implements EventJournalMBean {
+
+	private static final Logger logger = Logger.getLogger(EventJournal.class);
+
+	// the operations of the records
+	public static final int POST_SEND = 1;
+	public static final int POST_RECV = 2;
+	public static final int POST_READ = 3;
+	public static final int POST_WRITE = 4;
+	public static final int POST_CHAIN = 5;
+	public static final int DEFER_SEND = 6;
+	public static final int SEND_COMPLETION = 7;
+	public static final int RECV_COMPLETION = 8;
+	public static final int READ_COMPLETION = 9;
+	public static final int FAILED_COMPLETION = 10;
+	public static final int DROPPED_COMPLETION = 11;
+	public static final int MISSED_DEADLINE = 12;
+	public static final int CONNECT = 13;
+	public static final int ACCEPT = 14;
+	public static final int RESTART = 15;
+	public static final int DISCONNECT = 16;
+	private static final String[] OPERATIONS = { "unknown", "post-send", "post-recv", "post-read", "post-write",
+			"post-chain", "defer-send", "send-completion", "recv-completion", "read-completion", "failed-completion",
+			"dropped-completion", "missed-deadline", "connect", "accept", "restart", "disconnect" };
+
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+
+	private static final String OBJECT_NAME = "com.acn.rdma.client_proxy:type=EventJournal";
+	private static final int MAGIC = 0x41434e4a; // ACNJ
+	private static final int FORMAT_VERSION = 2;
+	// the fields of a slot: the stamp, the operation and the length, the id of the working request, the time and
+	// the duration
+	private static final int FIELDS = 5;
+	private static final long WRITING = -1;
+
+	private final AtomicLongArray slots;
+	private final int mask;
+	private final AtomicLong next;
+	private final String crashFile;
+
+	/**
+	 * Constructs the journal and preallocates its ring.
+	 * @param capacity the number of records the journal keeps, a power of two
+	 * @param crashFile the file the journal is dumped into when the process exits or a thread crashes, or null
+	 */
+	public EventJournal(int capacity, String crashFile) {
+		if (capacity <= 0 || Integer.bitCount(capacity) != 1 || capacity > Integer.MAX_VALUE / FIELDS) {
+			throw new IllegalArgumentException("The capacity of the journal must be a power of two: " + capacity);
+		}
+		this.slots = new AtomicLongArray(capacity * FIELDS);
+		for (int i = 0; i < slots.length(); i += FIELDS) slots.set(i, WRITING);
+		this.mask = capacity - 1;
+		this.next = new AtomicLong();
+		this.crashFile = crashFile;
+	}
+
+	/**
+	 * Exports the journal as a JMX bean and dumps the journal into the crash file when the process exits or a thread
+	 * dies from an uncaught exception.
+	 */
+	public void start() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+		} catch (JMException e) {
+			logger.debug("Could not export the journal: " + e.getMessage());
+		}
+		if (crashFile == null) return;
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			public void run() {
+				dumpToCrashFile();
+			}
+		}, "journal-dump"));
+		final Thread.UncaughtExceptionHandler handler = Thread.getDefaultUncaughtExceptionHandler();
+		Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+			public void uncaughtException(Thread thread, Throwable e) {
+				dumpToCrashFile();
+				if (handler != null) {
+					handler.uncaughtException(thread, e);
+				} else {
+					e.printStackTrace();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Records an operation without a duration.
+	 * @param operation the operation, one of the constants of the journal
+	 * @param wrId the id of the working request
+	 * @param length the length of the operation, or the status of a failed completion
+	 */
+	public void record(int operation, long wrId, int length) {
+		record(operation, wrId, length, 0);
+	}
+
+	/**
+	 * Records an operation.
+	 * @param operation the operation, one of the constants of the journal
+	 * @param wrId the id of the working request, or the number of the queue pair of a connection event
+	 * @param length the length of the operation, or the status of a failed completion
+	 * @param duration the duration of the operation in nanoseconds
+	 */
+	public void record(int operation, long wrId, int length, long duration) {
+		long sequence = next.getAndIncrement();
+		int slot = (int) (sequence & mask) * FIELDS;
+		slots.lazySet(slot, WRITING);
+		slots.lazySet(slot + 1, (long) operation << Integer.SIZE | (length & 0xffffffffL));
+		slots.lazySet(slot + 2, wrId);
+		slots.lazySet(slot + 3, System.nanoTime());
+		slots.lazySet(slot + 4, duration);
+		slots.lazySet(slot, sequence);
+	}
+
+	@Override
+	public int getCapacity() {
+		return mask + 1;
+	}
+
+	@Override
+	public long getRecorded() {
+		return next.get();
+	}
+
+	@Override
+	public int dump(String file) throws IOException {
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+		try {
+			int count = dump(out);
+			logger.debug("Dumped " + count + " records of the journal into " + file);
+			return count;
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes the records the journal keeps into the stream, oldest first. The records being written meanwhile
+	 * are skipped.
+	 * @param out the stream
+	 * @return the number of records written
+	 * @throws IOException if the stream cannot be written.
+	 */
+	public int dump(OutputStream out) throws IOException {
+		long end = next.get();
+		long start = Math.max(0, end - getCapacity());
+		long[] records = new long[(int) (end - start) * (FIELDS - 1)];
+		int count = 0;
+		for (long sequence = start; sequence < end; sequence++) {
+			int slot = (int) (sequence & mask) * FIELDS;
+			if (slots.get(slot) != sequence) continue;
+			long header = slots.get(slot + 1);
+			long wrId = slots.get(slot + 2);
+			long time = slots.get(slot + 3);
+			long duration = slots.get(slot + 4);
+			if (slots.get(slot) != sequence) continue;
+			records[count * (FIELDS - 1)] = header;
+			records[count * (FIELDS - 1) + 1] = wrId;
+			records[count * (FIELDS - 1) + 2] = time;
+			records[count * (FIELDS - 1) + 3] = duration;
+			count++;
+		}
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(MAGIC);
+		data.writeInt(FORMAT_VERSION);
+		data.writeLong(System.currentTimeMillis());
+		data.writeLong(System.nanoTime());
+		data.writeInt(count);
+		for (int i = 0; i < count; i++) {
+			long header = records[i * (FIELDS - 1)];
+			data.writeInt((int) (header >>> Integer.SIZE));
+			data.writeInt((int) header);
+			data.writeLong(records[i * (FIELDS - 1) + 1]);
+			data.writeLong(records[i * (FIELDS - 1) + 2]);
+			data.writeLong(records[i * (FIELDS - 1) + 3]);
+		}
+		data.flush();
+		return count;
+	}
+
+	/**
+	 * Dumps the journal into the crash file, a failure is only logged.
+	 */
+	private void dumpToCrashFile() {
+		try {
+			dump(crashFile);
+		} catch (IOException e) {
+			logger.debug("Could not dump the journal: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Decodes a dump into lines of text, one per record: the wall clock time, the time since the previous record,
+	 * the operation, the id of the working request (the sequence number and the id given by the caller, if the id
+	 * has a sequence number in its upper half), the length and the duration, if the operation has one.
+	 * @param in the stream of the dump
+	 * @param out the stream of the text
+	 * @return the number of records decoded
+	 * @throws IOException if the dump cannot be read or is not a dump of the journal.
+	 */
+	public static int decode(InputStream in, PrintStream out) throws IOException {
+		DataInputStream data = new DataInputStream(in);
+		try {
+			if (data.readInt() != MAGIC) throw new IOException("Not a dump of the journal.");
+			int version = data.readInt();
+			if (version != FORMAT_VERSION) throw new IOException("Unknown format version " + version);
+			long dumpMillis = data.readLong();
+			long dumpNanos = data.readLong();
+			int count = data.readInt();
+			SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+			long previous = 0;
+			for (int i = 0; i < count; i++) {
+				int operation = data.readInt();
+				int length = data.readInt();
+				long wrId = data.readLong();
+				long time = data.readLong();
+				long duration = data.readLong();
+				long nanos = time - dumpNanos;
+				String date = format.format(new Date(dumpMillis + Math.floorDiv(nanos, 1000000L)));
+				String micros = String.format("%03d", Math.floorMod(nanos, 1000000L) / 1000);
+				String delta = i == 0 ? "" : "+" + (time - previous) / 1000 + "us";
+				String id = wrId >>> Integer.SIZE == 0 ? Long.toString(wrId) : (wrId >>> Integer.SIZE) + "/" + (int) wrId;
+				String took = duration == 0 ? "" : " took " + duration / 1000 + "us";
+				out.println(date + micros + " " + delta + " " + nameOf(operation) + " wr_id " + id + " length " + length + took);
+				previous = time;
+			}
+			return count;
+		} catch (EOFException e) {
+			throw new IOException("The dump is truncated.");
+		}
+	}
+
+	/**
+	 * Gets the name of an operation, as it is decoded.
+	 * @param operation the operation of a record
+	 * @return the name, or "unknown" if the operation is not known
+	 */
+	static String nameOf(int operation) {
+		return operation > 0 && operation < OPERATIONS.length ? OPERATIONS[operation] : OPERATIONS[0];
+	}
+
+	/**
+	 * Decodes the dumps given as arguments to the standard output.
+	 * @param args the paths of the dumps
+	 * @throws IOException if a dump cannot be read.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.out.println("Usage: EventJournal <dump>...");
+			System.exit(1);
+		}
+		for (String file : args) {
+			InputStream in = new BufferedInputStream(new FileInputStream(file));
+			try {
+				decode(in, System.out);
+			} finally {
+				in.close();
+			}
+		}
+	}
+
+}
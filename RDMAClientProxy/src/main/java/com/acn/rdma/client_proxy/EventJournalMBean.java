@@ -0,0 +1,32 @@
+package com.acn.rdma.client_proxy;
+
+import java.io.IOException;
+
+/**
+ * The management interface of the <tt>EventJournal</tt>, which dumps the recorded RDMA operations on demand.
+ * @see EventJournal
+ * @version 1
+ */
+public interface EventJournalMBean {
+
+	/**
+	 * Gets the number of records the journal keeps, the older records are overwritten.
+	 * @return the number of records
+	 */
+	int getCapacity();
+
+	/**
+	 * Gets the number of records written since the start, including the overwritten ones.
+	 * @return the number of records
+	 */
+	long getRecorded();
+
+	/**
+	 * Writes the records the journal keeps into the file, oldest first, for the offline decoding.
+	 * @param file the path of the file, which is overwritten
+	 * @return the number of records written
+	 * @throws IOException if the file cannot be written.
+	 */
+	int dump(String file) throws IOException;
+
+}
@@ -0,0 +1,150 @@
+package com.acn.rdma.client_proxy;
+
+import java.util.Arrays;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class decides when a fetch is hedged, i.e. when the same resource is requested also from a second replica.
+ * <p>
+ * A fetch is hedged if it did not complete within the configured percentile of the recent latencies of the fetches.
+ * The recent latencies are kept in a fixed window and the percentile is recomputed periodically, not for every fetch.
+ * </p>
+ * <p>
+ * The extra load caused by the hedged fetches is capped by a budget. Every fetch earns a fraction of a token
+ * (the budget, for example 0.05 for at most 5% hedged fetches) and every hedged fetch spends one token.
+ * </p>
+ * The fetches run on a bounded pool of threads owned by the policy, not on the thread of the request, which only
+ * waits for the first response: a stalled fetch finishes its exchange in the background while the other one
+ * answers. A few more threads start the hedged fetches when their delay expires.
+ *
+ * @see RdmaHandler
+ * @version 1
+ */
+public class HedgingPolicy {
+
+	public static final double DEFAULT_BUDGET = 0.05;
+
+	private static final int WINDOW = 1024; // number of recent latencies
+	private static final int MIN_SAMPLES = 32; // latencies needed before hedging
+	private static final int RECOMPUTE_PERIOD = 64; // recompute the percentile every 64 latencies
+	private static final double MAX_TOKENS = 10;
+	private static final int HEDGE_THREADS = 1;
+	// the losing fetches finish their exchange after their request, so there are more threads than workers
+	private static final int FETCH_THREADS = 8 * Runtime.getRuntime().availableProcessors();
+	private static final long FETCH_KEEP_ALIVE = 60; // seconds
+
+	private final double percentile;
+	private final double budget;
+
+	private final long[] latencies;
+	private int next;
+	private long recorded;
+	private volatile long hedgeDelay;
+	private double tokens;
+
+	private final ScheduledThreadPoolExecutor executor;
+	private final ThreadPoolExecutor fetchExecutor;
+
+	/**
+	 * Constructs the hedging policy.
+	 * @param percentile the percentile of the recent latencies after which a fetch is hedged (for example 95)
+	 * @param budget the maximal fraction of hedged fetches (for example 0.05)
+	 */
+	public HedgingPolicy(double percentile, double budget) {
+		if (percentile <= 0 || percentile >= 100) throw new IllegalArgumentException("The percentile must be between 0 and 100.");
+		if (budget < 0 || budget > 1) throw new IllegalArgumentException("The budget must be between 0 and 1.");
+		this.percentile = percentile;
+		this.budget = budget;
+		this.latencies = new long[WINDOW];
+		this.hedgeDelay = -1;
+		this.executor = new ScheduledThreadPoolExecutor(HEDGE_THREADS, newThreadFactory("hedge-timer"));
+		this.fetchExecutor = new ThreadPoolExecutor(0, FETCH_THREADS, FETCH_KEEP_ALIVE, TimeUnit.SECONDS,
+				new SynchronousQueue<Runnable>(), newThreadFactory("hedged-fetch"));
+		// most fetches complete before their hedge, which is then cancelled
+		this.executor.setRemoveOnCancelPolicy(true);
+	}
+
+	/**
+	 * Records the latency of a completed fetch.
+	 * @param latency the latency in nanoseconds
+	 */
+	public synchronized void recordLatency(long latency) {
+		latencies[next] = latency;
+		next = (next + 1) % WINDOW;
+		recorded++;
+		if (recorded >= MIN_SAMPLES && (recorded == MIN_SAMPLES || recorded % RECOMPUTE_PERIOD == 0)) {
+			int samples = (int) Math.min(recorded, WINDOW);
+			long[] sorted = Arrays.copyOf(latencies, samples);
+			Arrays.sort(sorted);
+			int index = (int) Math.ceil(percentile / 100 * samples) - 1;
+			hedgeDelay = sorted[Math.max(0, Math.min(samples - 1, index))];
+		}
+	}
+
+	/**
+	 * Gets the time after which a fetch should be hedged.
+	 * @return the delay in nanoseconds, or a negative value if not enough latencies were recorded yet.
+	 */
+	public long getHedgeDelay() {
+		return hedgeDelay;
+	}
+
+	/**
+	 * Registers a new fetch, which earns its share of the budget.
+	 */
+	public synchronized void fetchStarted() {
+		tokens = Math.min(MAX_TOKENS, tokens + budget);
+	}
+
+	/**
+	 * Tries to spend the budget for a hedged fetch.
+	 * @return true if the fetch may be hedged, false if the budget is exhausted.
+	 */
+	public synchronized boolean tryHedge() {
+		if (tokens < 1) return false;
+		tokens -= 1;
+		return true;
+	}
+
+	/**
+	 * Schedules the start of a hedged fetch after the delay, unless it is cancelled before. The scheduled task
+	 * must only start the fetch (see <tt>execute</tt>), not run it.
+	 * @param hedge the task starting the hedged fetch
+	 * @param delay the delay in nanoseconds (see <tt>getHedgeDelay</tt>)
+	 * @return the scheduled task, to cancel it
+	 */
+	public ScheduledFuture<?> schedule(Runnable hedge, long delay) {
+		return executor.schedule(hedge, delay, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Runs a fetch in the background, on one of the threads of the fetches.
+	 * @param fetch the fetch
+	 * @return true if the fetch was started, false if all the threads of the fetches are busy
+	 */
+	public boolean execute(Runnable fetch) {
+		try {
+			fetchExecutor.execute(fetch);
+			return true;
+		} catch (RejectedExecutionException e) {
+			return false;
+		}
+	}
+
+	private static ThreadFactory newThreadFactory(final String name) {
+		return new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name);
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+}
@@ -0,0 +1,354 @@
+package com.acn.rdma.client_proxy;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.log4j.Logger;
+
+/**
+ * This class implements the non-blocking HTTP/1.1 front end of the proxy, which intercepts the requests of the browser.
+ * <p>
+ * One selector thread accepts the connections, reads and parses the requests and writes the responses. The requests
+ * are handled by a pool of workers, because a handler blocks while it fetches the resource from the server:
+ *  <ul>
+ *   <li>Persistent connections</li>
+ *   A connection stays open after a response, unless the browser asks to close it. Idle connections are closed after
+ *   the idle timeout.
+ *   <li>Pipelining</li>
+ *   Several requests of a connection may be handled at the same time, the responses are written back in the order of
+ *   the requests. A connection with too many outstanding requests is not read until its responses are written.
+ *   <li>Light memory usage</li>
+ *   The bytes are read into one buffer shared by all the connections, only an incomplete request is copied into a
+ *   buffer of its connection. Hence, an idle connection holds no buffer at all.
+ *   <li>Direct writes</li>
+ *   The header block and the body of a response are written with one gathering write from their buffers.
+ *  </ul>
+ * </p>
+ * The handlers are chosen by the longest context path matching the path of the request, like the contexts of
+ * <tt>com.sun.net.httpserver.HttpServer</tt>.
+ *
+ * @see HttpRequestHandler
+ * @version 1
+ */
+public class HttpFrontEnd implements Runnable {
+
+	private static final Logger logger = Logger.getLogger(HttpFrontEnd.class);
+
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+	private static final int MAX_PIPELINED_REQUESTS = 32;
+	private static final long IDLE_TIMEOUT = 5 * 60 * 1000; // milliseconds
+	private static final long IDLE_CHECK_PERIOD = 1000; // milliseconds
+
+	private int port;
+	private TreeMap<String, HttpRequestHandler> contexts;
+	private ExecutorService workers;
+
+	private Selector selector;
+	private ServerSocketChannel serverChannel;
+	private ByteBuffer readBuffer;
+	private ConcurrentLinkedQueue<HttpConnection> completed;
+	private long lastIdleCheck;
+
+	/**
+	 * Constructs the front end.
+	 * @param port the port where the proxy waits for the browser
+	 * @param workers the number of threads handling the requests
+	 */
+	public HttpFrontEnd(int port, int workers) {
+		this.port = port;
+		this.contexts = new TreeMap<String, HttpRequestHandler>();
+		this.workers = Executors.newFixedThreadPool(workers);
+		this.readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+		this.completed = new ConcurrentLinkedQueue<HttpConnection>();
+	}
+
+	/**
+	 * Registers the handler for the requests whose path starts with the given path.
+	 * It must be called before the front end is started.
+	 * @param path the context path (for example /network.png)
+	 * @param handler the handler
+	 */
+	public void createContext(String path, HttpRequestHandler handler) {
+		contexts.put(path, handler);
+	}
+
+	/**
+	 * Binds the front end to the port and starts the selector thread.
+	 * @throws IOException if the port cannot be bound.
+	 */
+	public void start() throws IOException {
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(new InetSocketAddress(port), 1024);
+		serverChannel.configureBlocking(false);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		Thread thread = new Thread(this, "http-front-end");
+		thread.start();
+		logger.debug("Listening for the browser on port " + port);
+	}
+
+	/**
+	 * The loop of the selector thread.
+	 */
+	public void run() {
+		while (true) {
+			try {
+				selector.select(IDLE_CHECK_PERIOD);
+				writeCompletedResponses();
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) continue;
+					if (key.isAcceptable()) {
+						accept();
+						continue;
+					}
+					HttpConnection connection = (HttpConnection) key.attachment();
+					try {
+						if (key.isWritable()) connection.write();
+						if (key.isValid() && key.isReadable()) connection.read();
+					} catch (IOException e) {
+						logger.debug("Closing the connection to the browser: " + e.getMessage());
+						connection.close();
+					}
+				}
+				closeIdleConnections();
+			} catch (IOException e) {
+				logger.debug("Error in the selector loop: " + e.getMessage());
+			}
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel;
+		while ((channel = serverChannel.accept()) != null) {
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+			key.attach(new HttpConnection(channel, key));
+		}
+	}
+
+	/**
+	 * Writes the responses completed by the workers since the last selection.
+	 */
+	private void writeCompletedResponses() {
+		HttpConnection connection;
+		while ((connection = completed.poll()) != null) {
+			try {
+				connection.write();
+			} catch (IOException e) {
+				logger.debug("Closing the connection to the browser: " + e.getMessage());
+				connection.close();
+			}
+		}
+	}
+
+	private void closeIdleConnections() {
+		long now = System.currentTimeMillis();
+		if (now - lastIdleCheck < IDLE_CHECK_PERIOD) return;
+		lastIdleCheck = now;
+		for (SelectionKey key : selector.keys()) {
+			Object attachment = key.attachment();
+			if (attachment instanceof HttpConnection) {
+				HttpConnection connection = (HttpConnection) attachment;
+				if (connection.isIdle() && now - connection.lastActivity > IDLE_TIMEOUT) connection.close();
+			}
+		}
+	}
+
+	/**
+	 * Finds the handler of the requests with the given path.
+	 * @param path the path of a request
+	 * @return the handler of the longest matching context, or null if no context matches.
+	 */
+	HttpRequestHandler findHandler(String path) {
+		for (Map.Entry<String, HttpRequestHandler> context = contexts.floorEntry(path); context != null;
+				context = contexts.lowerEntry(context.getKey())) {
+			if (path.startsWith(context.getKey())) return context.getValue();
+		}
+		return null;
+	}
+
+	/**
+	 * A response waiting for its worker, the responses of a connection are written in the order of the requests.
+	 */
+	private static class PendingResponse {
+
+		private volatile ByteBuffer[] buffers;
+		private boolean keepAlive;
+
+	}
+
+	/**
+	 * This class represents the connection to the browser. It is used only by the selector thread,
+	 * except for the responses, which are completed by the workers.
+	 */
+	private class HttpConnection {
+
+		private SocketChannel channel;
+		private SelectionKey key;
+		private ByteBuffer partialRequest;
+		private long bodyToSkip;
+		private ArrayDeque<PendingResponse> responses;
+		private boolean closeAfterResponses;
+		private long lastActivity;
+
+		public HttpConnection(SocketChannel channel, SelectionKey key) {
+			this.channel = channel;
+			this.key = key;
+			this.responses = new ArrayDeque<PendingResponse>();
+			this.lastActivity = System.currentTimeMillis();
+		}
+
+		/**
+		 * Reads the available bytes and hands the complete requests over to the workers.
+		 * @throws IOException
+		 */
+		public void read() throws IOException {
+			readBuffer.clear();
+			if (partialRequest != null) {
+				readBuffer.put(partialRequest);
+				partialRequest = null;
+			}
+			int read = channel.read(readBuffer);
+			readBuffer.flip();
+			if (read < 0) {
+				// the browser closed its side, answer the outstanding requests first
+				closeAfterResponses = true;
+				key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+				if (responses.isEmpty()) close();
+				return;
+			}
+			lastActivity = System.currentTimeMillis();
+
+			while (readBuffer.hasRemaining() && !closeAfterResponses && responses.size() < MAX_PIPELINED_REQUESTS) {
+				if (bodyToSkip > 0) {
+					int skipped = (int) Math.min(bodyToSkip, readBuffer.remaining());
+					readBuffer.position(readBuffer.position() + skipped);
+					bodyToSkip -= skipped;
+					continue;
+				}
+				HttpRequest request;
+				try {
+					request = HttpRequest.parse(readBuffer);
+				} catch (HttpParseException e) {
+					logger.debug("Invalid request: " + e.getMessage());
+					respondNow(new HttpResponse(e.getStatusCode(), new byte[0]));
+					break;
+				}
+				if (request == null) break;
+				if (request.isChunked()) {
+					respondNow(new HttpResponse(501, new byte[0]));
+					break;
+				}
+				bodyToSkip = request.getContentLength();
+				dispatch(request);
+			}
+
+			if (readBuffer.hasRemaining() && !closeAfterResponses) {
+				// keep only the incomplete request (or the requests over the pipelining limit)
+				partialRequest = ByteBuffer.allocate(readBuffer.remaining());
+				partialRequest.put(readBuffer);
+				partialRequest.flip();
+			}
+			if (responses.size() >= MAX_PIPELINED_REQUESTS) {
+				key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+			}
+		}
+
+		private void dispatch(final HttpRequest request) {
+			final PendingResponse response = new PendingResponse();
+			response.keepAlive = request.isKeepAlive();
+			if (!response.keepAlive) closeAfterResponses = true;
+			responses.add(response);
+			final HttpRequestHandler handler = findHandler(request.getPath());
+			workers.execute(new Runnable() {
+				public void run() {
+					HttpResponse httpResponse;
+					try {
+						httpResponse = handler == null ? new HttpResponse(404, new byte[0]) : handler.handle(request);
+					} catch (RuntimeException e) {
+						logger.debug("The handler failed: " + e.getMessage());
+						httpResponse = new HttpResponse(500, new byte[0]);
+					}
+					response.buffers = httpResponse.toBuffers(request.isHead(), response.keepAlive);
+					completed.add(HttpConnection.this);
+					selector.wakeup();
+				}
+			});
+		}
+
+		/**
+		 * Answers an invalid request and closes the connection after the outstanding responses.
+		 */
+		private void respondNow(HttpResponse httpResponse) throws IOException {
+			PendingResponse response = new PendingResponse();
+			response.buffers = httpResponse.toBuffers(false, false);
+			responses.add(response);
+			closeAfterResponses = true;
+			write();
+		}
+
+		/**
+		 * Writes the completed responses in the order of the requests, as long as the socket accepts the bytes.
+		 * @throws IOException
+		 */
+		public void write() throws IOException {
+			if (!channel.isOpen()) return;
+			while (!responses.isEmpty()) {
+				PendingResponse response = responses.peek();
+				ByteBuffer[] buffers = response.buffers;
+				if (buffers == null) break;
+				channel.write(buffers);
+				if (buffers[buffers.length - 1].hasRemaining()) {
+					key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+					return;
+				}
+				responses.poll();
+				lastActivity = System.currentTimeMillis();
+			}
+			if (responses.isEmpty() && closeAfterResponses) {
+				close();
+				return;
+			}
+			int interestOps = key.interestOps() & ~SelectionKey.OP_WRITE;
+			if (!closeAfterResponses && responses.size() < MAX_PIPELINED_REQUESTS) {
+				interestOps |= SelectionKey.OP_READ;
+			}
+			key.interestOps(interestOps);
+			if (partialRequest != null && (interestOps & SelectionKey.OP_READ) != 0 && responses.isEmpty()) {
+				// requests over the pipelining limit may be already complete in the kept bytes
+				read();
+			}
+		}
+
+		public boolean isIdle() {
+			return responses.isEmpty();
+		}
+
+		public void close() {
+			key.cancel();
+			try {
+				channel.close();
+			} catch (IOException e) {
+				logger.debug("Problems closing the connection to the browser.");
+			}
+		}
+
+	}
+
+}
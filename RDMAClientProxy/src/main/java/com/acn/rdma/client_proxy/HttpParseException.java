@@ -0,0 +1,43 @@
+package com.acn.rdma.client_proxy;
+
+import java.io.IOException;
+
+/**
+ * The HttpParseException occurs when the request of the browser is not a valid HTTP/1.x request.
+ * The status code tells the browser what was wrong with the request.
+ * 
+ * @version 1
+ */
+public class HttpParseException extends IOException {
+
+
+    /**
+     * 
+     */
+    private static final long serialVersionUID = 1L;
+    
+    private final int statusCode;
+
+    /**
+     * Constructs a new HttpParseException class with an argument indicating
+     * the exception.
+     * 
+     * @param statusCode
+     *            The status code of the response (for example 400 Bad Request).
+     * @param message
+     *            The message indicating the problem.
+     */
+    public HttpParseException(int statusCode, String message) {
+        super(message);
+        this.statusCode = statusCode;
+    }
+    
+    /**
+     * Gets the status code of the response to the invalid request.
+     * @return the status code
+     */
+    public int getStatusCode() {
+    	return statusCode;
+    }
+
+}
@@ -0,0 +1,262 @@
+package com.acn.rdma.client_proxy;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class represents a HTTP/1.x request of the browser and parses it.
+ * <p>
+ * The parser works directly on the bytes read from the socket and creates strings only for the request line and
+ * for the headers the proxy uses (Host, Connection, Accept-Encoding, Range, If-Range, Content-Length and
+ * Transfer-Encoding). The
+ * other headers are skipped. A request is parsed only when its header block is complete, the bytes after it
+ * (for example the next pipelined request) are left in the buffer.
+ * </p>
+ * @see HttpFrontEnd
+ * @version 1
+ */
+public class HttpRequest {
+	
+	public static final int MAX_HEADER_SIZE = 8192;
+	
+	private static final byte[] HOST = "host".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] CONNECTION = "connection".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] ACCEPT_ENCODING = "accept-encoding".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] CONTENT_LENGTH = "content-length".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] TRANSFER_ENCODING = "transfer-encoding".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] RANGE = "range".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] IF_RANGE = "if-range".getBytes(StandardCharsets.US_ASCII);
+	
+	private String method;
+	private String target;
+	private String version;
+	private String hostHeader;
+	private String connection;
+	private String acceptEncoding;
+	private String range;
+	private String ifRange;
+	private long contentLength;
+	private boolean chunked;
+	private long received;
+	
+	private HttpRequest() {
+		this.received = System.nanoTime();
+	}
+	
+	/**
+	 * Parses the next request in the buffer. 
+	 * @param buf the bytes read from the browser, in read mode
+	 * @return the request if its header block is complete (the position of the buffer is moved after it),
+	 * or null if more bytes are needed (the position is not changed).
+	 * @throws HttpParseException if the request is not valid or its header block is too large.
+	 */
+	public static HttpRequest parse(ByteBuffer buf) throws HttpParseException {
+		int start = buf.position();
+		int limit = Math.min(buf.limit(), start + MAX_HEADER_SIZE);
+		HttpRequest request = null;
+		int lineStart = start;
+		for (int i = start; i < limit; i++) {
+			if (buf.get(i) != '\n') continue;
+			int lineEnd = (i > lineStart && buf.get(i - 1) == '\r') ? i - 1 : i;
+			if (request == null) {
+				// tolerate empty lines in front of the request line
+				if (lineEnd > lineStart) request = parseRequestLine(buf, lineStart, lineEnd);
+			} else if (lineEnd == lineStart) {
+				buf.position(i + 1);
+				return request;
+			} else {
+				request.parseHeader(buf, lineStart, lineEnd);
+			}
+			lineStart = i + 1;
+		}
+		if (limit - start >= MAX_HEADER_SIZE) throw new HttpParseException(431, "The header block is too large.");
+		return null;
+	}
+	
+	private static HttpRequest parseRequestLine(ByteBuffer buf, int start, int end) throws HttpParseException {
+		int firstSpace = indexOf(buf, start, end, (byte) ' ');
+		int secondSpace = firstSpace < 0 ? -1 : indexOf(buf, firstSpace + 1, end, (byte) ' ');
+		if (secondSpace < 0) throw new HttpParseException(400, "Invalid request line.");
+		HttpRequest request = new HttpRequest();
+		request.method = toString(buf, start, firstSpace);
+		request.target = toString(buf, firstSpace + 1, secondSpace);
+		request.version = toString(buf, secondSpace + 1, end);
+		if (!request.version.startsWith("HTTP/1.")) throw new HttpParseException(505, "Unsupported version " + request.version);
+		return request;
+	}
+	
+	private void parseHeader(ByteBuffer buf, int start, int end) throws HttpParseException {
+		int colon = indexOf(buf, start, end, (byte) ':');
+		if (colon <= start) throw new HttpParseException(400, "Invalid header line.");
+		int valueStart = colon + 1;
+		while (valueStart < end && isWhitespace(buf.get(valueStart))) valueStart++;
+		int valueEnd = end;
+		while (valueEnd > valueStart && isWhitespace(buf.get(valueEnd - 1))) valueEnd--;
+		
+		if (nameEquals(buf, start, colon, HOST)) {
+			hostHeader = toString(buf, valueStart, valueEnd);
+		} else if (nameEquals(buf, start, colon, CONNECTION)) {
+			connection = toString(buf, valueStart, valueEnd);
+		} else if (nameEquals(buf, start, colon, ACCEPT_ENCODING)) {
+			acceptEncoding = toString(buf, valueStart, valueEnd);
+		} else if (nameEquals(buf, start, colon, CONTENT_LENGTH)) {
+			try {
+				contentLength = Long.parseLong(toString(buf, valueStart, valueEnd));
+			} catch (NumberFormatException e) {
+				throw new HttpParseException(400, "Invalid Content-Length.");
+			}
+			if (contentLength < 0) throw new HttpParseException(400, "Invalid Content-Length.");
+		} else if (nameEquals(buf, start, colon, TRANSFER_ENCODING)) {
+			chunked = true;
+		} else if (nameEquals(buf, start, colon, RANGE)) {
+			range = toString(buf, valueStart, valueEnd);
+		} else if (nameEquals(buf, start, colon, IF_RANGE)) {
+			ifRange = toString(buf, valueStart, valueEnd);
+		}
+	}
+	
+	private static boolean nameEquals(ByteBuffer buf, int start, int end, byte[] name) {
+		if (end - start != name.length) return false;
+		for (int i = 0; i < name.length; i++) {
+			byte b = buf.get(start + i);
+			// lower case of an ascii letter
+			if (b >= 'A' && b <= 'Z') b += 'a' - 'A';
+			if (b != name[i]) return false;
+		}
+		return true;
+	}
+	
+	private static int indexOf(ByteBuffer buf, int start, int end, byte b) {
+		for (int i = start; i < end; i++) {
+			if (buf.get(i) == b) return i;
+		}
+		return -1;
+	}
+	
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t';
+	}
+	
+	private static String toString(ByteBuffer buf, int start, int end) {
+		byte[] bytes = new byte[end - start];
+		for (int i = 0; i < bytes.length; i++) bytes[i] = buf.get(start + i);
+		return new String(bytes, StandardCharsets.ISO_8859_1);
+	}
+	
+	/**
+	 * Gets the method of the request (for example GET).
+	 * @return the method
+	 */
+	public String getMethod() {
+		return method;
+	}
+	
+	/**
+	 * Gets the target of the request, which is an absolute URI if the browser uses the proxy
+	 * (for example http://www.rdmawebpage.com/network.png).
+	 * @return the target
+	 */
+	public String getTarget() {
+		return target;
+	}
+	
+	/**
+	 * Gets the host of the request, from the target if it is an absolute URI, otherwise from the Host header.
+	 * @return the host without the port, or null if not given
+	 */
+	public String getHost() {
+		String authority = hostHeader;
+		int scheme = target.indexOf("://");
+		if (scheme >= 0) {
+			int pathStart = target.indexOf('/', scheme + 3);
+			authority = target.substring(scheme + 3, pathStart < 0 ? target.length() : pathStart);
+		}
+		if (authority == null) return null;
+		int port = authority.lastIndexOf(':');
+		return port < 0 ? authority : authority.substring(0, port);
+	}
+	
+	/**
+	 * Gets the path of the request, without the query.
+	 * @return the path
+	 */
+	public String getPath() {
+		String path = target;
+		int scheme = target.indexOf("://");
+		if (scheme >= 0) {
+			int pathStart = target.indexOf('/', scheme + 3);
+			path = pathStart < 0 ? "/" : target.substring(pathStart);
+		}
+		int query = path.indexOf('?');
+		return query < 0 ? path : path.substring(0, query);
+	}
+	
+	/**
+	 * Gets the value of the Accept-Encoding header.
+	 * @return the codings accepted by the browser, or null if not given
+	 */
+	public String getAcceptEncoding() {
+		return acceptEncoding;
+	}
+	
+	/**
+	 * Gets the value of the Range header.
+	 * @return the requested byte ranges, or null if not given
+	 */
+	public String getRange() {
+		return range;
+	}
+	
+	/**
+	 * Gets the value of the If-Range header.
+	 * @return the validator of the range request, or null if not given
+	 */
+	public String getIfRange() {
+		return ifRange;
+	}
+	
+	/**
+	 * Gets the time the request was received.
+	 * @return the time, as given by <tt>System.nanoTime</tt>
+	 */
+	public long getReceived() {
+		return received;
+	}
+	
+	/**
+	 * Gets the length of the body of the request.
+	 * @return the length of the body, 0 if there is no body
+	 */
+	public long getContentLength() {
+		return contentLength;
+	}
+	
+	/**
+	 * Checks if the body of the request is chunked (which is not supported by the proxy).
+	 * @return true if a Transfer-Encoding is given, false otherwise.
+	 */
+	public boolean isChunked() {
+		return chunked;
+	}
+	
+	/**
+	 * Checks if the request is a HEAD request, whose response has no body.
+	 * @return true for HEAD, false otherwise.
+	 */
+	public boolean isHead() {
+		return "HEAD".equals(method);
+	}
+	
+	/**
+	 * Checks if the connection should be kept open after the response. HTTP/1.1 connections are persistent
+	 * unless the browser closes them, HTTP/1.0 connections only if the browser asks for it.
+	 * @return true if the connection should be kept alive, false otherwise.
+	 */
+	public boolean isKeepAlive() {
+		if ("HTTP/1.0".equals(version)) {
+			return connection != null && connection.toLowerCase().contains("keep-alive");
+		}
+		return connection == null || !connection.toLowerCase().contains("close");
+	}
+
+}
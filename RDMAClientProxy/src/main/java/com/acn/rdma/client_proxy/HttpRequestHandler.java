@@ -0,0 +1,18 @@
+package com.acn.rdma.client_proxy;
+
+/**
+ * Provides an interface to handle the requests of the browser received by the <tt>HttpFrontEnd</tt>.
+ * The requests are handled by the workers of the front end, so the handler may block (for example while
+ * it fetches the resource from the server).
+ * @version 1
+ */
+public interface HttpRequestHandler {
+	
+	/**
+	 * Handles the request of the browser.
+	 * @param request the request
+	 * @return the response sent back to the browser
+	 */
+	public HttpResponse handle(HttpRequest request);
+
+}
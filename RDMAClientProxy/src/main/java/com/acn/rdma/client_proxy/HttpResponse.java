@@ -0,0 +1,117 @@
+package com.acn.rdma.client_proxy;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class represents the HTTP/1.1 response sent back to the browser. The body is kept in a
+ * <tt>ByteBuffer</tt>, so that it is written to the socket as it is, without copying it into a stream.
+ * @see HttpFrontEnd
+ * @version 1
+ */
+public class HttpResponse {
+	
+	private int statusCode;
+	private List<String> headers;
+	private ByteBuffer body;
+	
+	/**
+	 * Constructs the response.
+	 * @param statusCode the status code (for example 200)
+	 * @param body the body of the response
+	 */
+	public HttpResponse(int statusCode, byte[] body) {
+		this(statusCode, ByteBuffer.wrap(body));
+	}
+	
+	/**
+	 * Constructs the response.
+	 * @param statusCode the status code (for example 200)
+	 * @param body the body of the response, from its position to its limit
+	 */
+	public HttpResponse(int statusCode, ByteBuffer body) {
+		this.statusCode = statusCode;
+		this.headers = new ArrayList<String>();
+		this.body = body;
+	}
+	
+	/**
+	 * Sets a header of the response.
+	 * @param name the name of the header
+	 * @param value the value of the header
+	 * @return this response
+	 */
+	public HttpResponse setHeader(String name, String value) {
+		headers.add(name);
+		headers.add(value);
+		return this;
+	}
+	
+	/**
+	 * Gets the status code of the response.
+	 * @return the status code
+	 */
+	public int getStatusCode() {
+		return statusCode;
+	}
+	
+	/**
+	 * Gets the value of a header of the response.
+	 * @param name the name of the header
+	 * @return the value, or null if the header is not set
+	 */
+	public String getHeader(String name) {
+		for (int i = 0; i < headers.size(); i += 2) {
+			if (headers.get(i).equalsIgnoreCase(name)) return headers.get(i + 1);
+		}
+		return null;
+	}
+	
+	/**
+	 * Gets the body of the response.
+	 * @return the body
+	 */
+	public ByteBuffer getBody() {
+		return body;
+	}
+	
+	/**
+	 * Creates the buffers to be written to the socket, the header block and the body.
+	 * @param head true if the response is for a HEAD request, which has no body
+	 * @param keepAlive true if the connection is kept open after the response
+	 * @return the buffers
+	 */
+	public ByteBuffer[] toBuffers(boolean head, boolean keepAlive) {
+		StringBuilder header = new StringBuilder(128);
+		header.append("HTTP/1.1 ").append(statusCode).append(' ').append(reasonPhrase(statusCode)).append("\r\n");
+		for (int i = 0; i < headers.size(); i += 2) {
+			header.append(headers.get(i)).append(": ").append(headers.get(i + 1)).append("\r\n");
+		}
+		header.append("Content-Length: ").append(body.remaining()).append("\r\n");
+		if (!keepAlive) header.append("Connection: close\r\n");
+		header.append("\r\n");
+		ByteBuffer headerBuf = ByteBuffer.wrap(header.toString().getBytes(StandardCharsets.ISO_8859_1));
+		if (head) return new ByteBuffer[] { headerBuf };
+		return new ByteBuffer[] { headerBuf, body.duplicate() };
+	}
+	
+	private static String reasonPhrase(int statusCode) {
+		switch (statusCode) {
+		case 200: return "OK";
+		case 206: return "Partial Content";
+		case 400: return "Bad Request";
+		case 404: return "Not Found";
+		case 416: return "Range Not Satisfiable";
+		case 431: return "Request Header Fields Too Large";
+		case 500: return "Internal Server Error";
+		case 501: return "Not Implemented";
+		case 503: return "Service Unavailable";
+		case 504: return "Gateway Time-out";
+		case 505: return "HTTP Version Not Supported";
+		default: return "Unknown";
+		}
+	}
+
+}
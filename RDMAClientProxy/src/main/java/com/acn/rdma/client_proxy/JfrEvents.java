@@ -0,0 +1,138 @@
+package com.acn.rdma.client_proxy;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * This class defines the JFR events of the proxy. It is only loaded through <tt>RdmaEvents</tt>, if the JVM has
+ * JFR.
+ * @see RdmaEvents
+ * @version 1
+ */
+final class JfrEvents {
+
+	private JfrEvents() {
+	}
+
+	static RdmaEvents.Timed beginPost(int operation) {
+		Posted event = operation == EventJournal.POST_RECV ? new PostRecv() : new PostSend(operation);
+		if (!event.isEnabled()) return RdmaEvents.DISABLED;
+		event.begin();
+		return event;
+	}
+
+	static RdmaEvents.Timed beginConnection(int operation) {
+		Connection event = new Connection();
+		if (!event.isEnabled()) return RdmaEvents.DISABLED;
+		event.operation = EventJournal.nameOf(operation);
+		event.begin();
+		return event;
+	}
+
+	static void readCompleted(long wrId, int length, long latency) {
+		ReadCompletion event = new ReadCompletion();
+		if (!event.isEnabled()) return;
+		event.wrId = wrId;
+		event.length = length;
+		event.latency = latency;
+		event.commit();
+	}
+
+	static void disconnected(int qpNum) {
+		Disconnect event = new Disconnect();
+		if (!event.isEnabled()) return;
+		event.qpNum = qpNum;
+		event.commit();
+	}
+
+	@Category({ "RDMA", "Proxy" })
+	@StackTrace(false)
+	static abstract class Posted extends Event implements RdmaEvents.Timed {
+
+		@Label("Work Request Id")
+		long wrId;
+
+		@Label("Length")
+		@Description("The bytes of a send or a read, the working requests of a chain or the receives of a batch")
+		int length;
+
+		public void commit(long id, int length) {
+			this.wrId = id;
+			this.length = length;
+			commit();
+		}
+	}
+
+	@Name("com.acn.rdma.client_proxy.PostSend")
+	@Label("RDMA Post Send")
+	@Description("A send, a read or a chain of them posted on the send queue")
+	static final class PostSend extends Posted {
+
+		@Label("Operation")
+		String operation;
+
+		PostSend(int operation) {
+			this.operation = EventJournal.nameOf(operation);
+		}
+	}
+
+	@Name("com.acn.rdma.client_proxy.PostRecv")
+	@Label("RDMA Post Receive")
+	@Description("A batch of receives posted for the replies")
+	static final class PostRecv extends Posted {
+	}
+
+	@Name("com.acn.rdma.client_proxy.ReadCompletion")
+	@Label("RDMA Read Completion")
+	@Description("The completion of a read of the content, with its latency from the post or the start of the wait")
+	@Category({ "RDMA", "Proxy" })
+	@StackTrace(false)
+	static final class ReadCompletion extends Event {
+
+		@Label("Work Request Id")
+		long wrId;
+
+		@Label("Length")
+		@DataAmount
+		int length;
+
+		@Label("Latency")
+		@Timespan(Timespan.NANOSECONDS)
+		long latency;
+	}
+
+	@Name("com.acn.rdma.client_proxy.Connection")
+	@Label("RDMA Connection")
+	@Description("A connect to the server or a restart with the connected endpoint")
+	@Category({ "RDMA", "Proxy" })
+	static final class Connection extends Event implements RdmaEvents.Timed {
+
+		@Label("Operation")
+		String operation;
+
+		@Label("Queue Pair")
+		long qpNum;
+
+		public void commit(long id, int length) {
+			this.qpNum = id;
+			commit();
+		}
+	}
+
+	@Name("com.acn.rdma.client_proxy.Disconnect")
+	@Label("RDMA Disconnect")
+	@Description("A disconnect announced by the RDMA connection manager, which poisons the waits of the connection")
+	@Category({ "RDMA", "Proxy" })
+	static final class Disconnect extends Event {
+
+		@Label("Queue Pair")
+		int qpNum;
+	}
+
+}
@@ -0,0 +1,109 @@
+package com.acn.rdma.client_proxy;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class finds the resources embedded in an HTML page, which the browser requests right after the page:
+ *  <ul>
+ *   <li>the images (<tt>img src</tt>)</li>
+ *   <li>the scripts (<tt>script src</tt>)</li>
+ *   <li>the style sheets, icons and preloaded resources (<tt>link href</tt>)</li>
+ *  </ul>
+ * The page is only scanned for these tags, it is not parsed as a whole. Only the resources of the web page
+ * behind the proxy are kept, the links of other hosts are ignored.
+ *
+ * @see Prefetcher
+ * @version 1
+ */
+public class PageLinks {
+
+	private static final Pattern TAG = Pattern.compile("<(img|script|link)\\b([^>]*)>", Pattern.CASE_INSENSITIVE);
+	private static final Pattern ATTRIBUTE = Pattern.compile(
+			"([a-zA-Z_:][-a-zA-Z0-9_:.]*)\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)'|([^\\s\"'>]+))");
+	private static final Set<String> LINK_RELATIONS = new LinkedHashSet<String>();
+
+	static {
+		LINK_RELATIONS.add("stylesheet");
+		LINK_RELATIONS.add("icon");
+		LINK_RELATIONS.add("preload");
+		LINK_RELATIONS.add("modulepreload");
+	}
+
+	private PageLinks() {
+	}
+
+	/**
+	 * Finds the paths of the resources embedded in the page.
+	 * @param html the page
+	 * @param host the host of the page (for example www.rdmawebpage.com)
+	 * @param pagePath the path of the page, the relative links are resolved against it
+	 * @return the paths of the resources of the same host, without duplicates and without the page itself,
+	 * in the order of the page.
+	 */
+	public static List<String> extract(String html, String host, String pagePath) {
+		URI base;
+		try {
+			base = new URI("http", host, pagePath, null);
+		} catch (URISyntaxException e) {
+			return new ArrayList<String>();
+		}
+		Set<String> paths = new LinkedHashSet<String>();
+		Matcher tag = TAG.matcher(html);
+		while (tag.find()) {
+			String name = tag.group(1).toLowerCase(Locale.ROOT);
+			String link = null;
+			String relation = null;
+			Matcher attribute = ATTRIBUTE.matcher(tag.group(2));
+			while (attribute.find()) {
+				String attributeName = attribute.group(1).toLowerCase(Locale.ROOT);
+				String value = attribute.group(2) != null ? attribute.group(2)
+						: attribute.group(3) != null ? attribute.group(3) : attribute.group(4);
+				if (attributeName.equals("link".equals(name) ? "href" : "src")) {
+					link = value;
+				} else if (attributeName.equals("rel")) {
+					relation = value.toLowerCase(Locale.ROOT);
+				}
+			}
+			if (link == null) continue;
+			if ("link".equals(name) && !isEmbedded(relation)) continue;
+			String path = resolve(base, host, link);
+			if (path != null && !path.equals(base.getRawPath())) paths.add(path);
+		}
+		return new ArrayList<String>(paths);
+	}
+
+	private static boolean isEmbedded(String relation) {
+		if (relation == null) return false;
+		for (String value : relation.split("\\s+")) {
+			if (LINK_RELATIONS.contains(value)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Resolves the link against the page.
+	 * @return the path of the link (without the query, like <tt>HttpRequest.getPath</tt>), or null if the link is invalid or points to another host.
+	 */
+	private static String resolve(URI base, String host, String link) {
+		link = link.trim().replace("&amp;", "&");
+		if (link.isEmpty()) return null;
+		URI uri;
+		try {
+			uri = base.resolve(new URI(link));
+		} catch (URISyntaxException | IllegalArgumentException e) {
+			return null;
+		}
+		if (!"http".equalsIgnoreCase(uri.getScheme()) || !host.equalsIgnoreCase(uri.getHost())) return null;
+		String path = uri.getRawPath();
+		return path == null || path.isEmpty() ? "/" : path;
+	}
+
+}
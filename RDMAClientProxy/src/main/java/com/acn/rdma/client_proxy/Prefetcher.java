@@ -0,0 +1,309 @@
+package com.acn.rdma.client_proxy;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * This class prefetches the resources embedded in a page while the page is sent to the browser.
+ * <p>
+ * When a page was fetched, its embedded resources (see <tt>PageLinks</tt>) are fetched in parallel over RDMA,
+ * by the handlers which would handle the requests of the browser. The resources held by the same replicated
+ * servers are fetched together with batch requests (see <tt>RdmaHandler.fetchBatch</tt>), one exchange for
+ * all of them. The fetched resources are kept in a cache bounded by a byte budget:
+ *  <ul>
+ *   <li>A resource is taken out of the cache by the first request of the browser for it. If the request arrives
+ *   while the resource is being fetched, it waits for the prefetch instead of fetching the resource again.</li>
+ *   <li>A resource is served only for the same accepted codings as the page, because the server chose its coding
+ *   from them.</li>
+ *   <li>No more prefetches are started while the budget is used. If the fetched resources exceed the budget,
+ *   the oldest ones are dropped. A resource not requested within the expiry time is dropped as well.</li>
+ *  </ul>
+ * </p>
+ * The cache only shortens the round trips of one page load, it never serves a resource twice.
+ *
+ * @see RdmaIndexHandler
+ * @version 1
+ */
+public class Prefetcher {
+
+	private static final Logger logger = Logger.getLogger(Prefetcher.class);
+
+	public static final long DEFAULT_BUDGET = 1024 * 1024; // bytes
+
+	private static final int PREFETCH_THREADS = 4;
+	private static final int MAX_LINKS_PER_PAGE = 32;
+	private static final long EXPIRY_TIME = 30 * 1000; // milliseconds
+	// a request waits for its prefetch at most for this share of its remaining time, the rest is left for a fetch
+	private static final double MAX_WAIT_SHARE = 0.5;
+
+	private final HttpFrontEnd frontEnd;
+	private final long budget;
+	private final ExecutorService executor;
+
+	// ordered from the oldest to the newest prefetch
+	private final LinkedHashMap<String, Entry> cache;
+	private long cachedBytes;
+
+	/**
+	 * Constructs the prefetcher.
+	 * @param frontEnd the front end, which chooses the handler of a resource
+	 * @param budget the maximal number of bytes of the prefetched resources
+	 */
+	public Prefetcher(HttpFrontEnd frontEnd, long budget) {
+		if (budget <= 0) throw new IllegalArgumentException("The budget must be positive.");
+		this.frontEnd = frontEnd;
+		this.budget = budget;
+		this.cache = new LinkedHashMap<String, Entry>();
+		this.executor = Executors.newFixedThreadPool(PREFETCH_THREADS, new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "prefetch");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Prefetches the resources embedded in the page in the background.
+	 * @param host the host of the page
+	 * @param pagePath the path of the page
+	 * @param page the fetched page
+	 * @param acceptEncoding the codings accepted by the browser, or null
+	 */
+	public void prefetchLinks(final String host, final String pagePath, final Resource page, final String acceptEncoding) {
+		if (page.getRange() != null) return;
+		executor.execute(new Runnable() {
+			public void run() {
+				List<String> paths;
+				try {
+					String html = new String(decode(page), StandardCharsets.ISO_8859_1);
+					paths = PageLinks.extract(html, host, pagePath);
+				} catch (IOException e) {
+					logger.debug("Could not decode the page " + pagePath + ": " + e.getMessage());
+					return;
+				}
+				// the resources of the same replicated servers are fetched together
+				Map<ReplicaSet, List<Prefetch>> batches = new LinkedHashMap<ReplicaSet, List<Prefetch>>();
+				int started = 0;
+				for (String path : paths) {
+					if (started == MAX_LINKS_PER_PAGE) break;
+					Prefetch prefetch = reserve(path, acceptEncoding);
+					if (prefetch == null) continue;
+					ReplicaSet replicas = prefetch.handler.getReplicaSet(path);
+					List<Prefetch> batch = batches.get(replicas);
+					if (batch == null) {
+						batch = new ArrayList<Prefetch>();
+						batches.put(replicas, batch);
+					}
+					batch.add(prefetch);
+					started++;
+				}
+				for (Map.Entry<ReplicaSet, List<Prefetch>> batch : batches.entrySet()) {
+					fetch(batch.getKey(), batch.getValue(), acceptEncoding);
+				}
+				logger.debug("Prefetching " + started + " resources of " + pagePath);
+			}
+		});
+	}
+
+	/**
+	 * Takes the prefetched resource out of the cache, waiting for it if it is being fetched. The wait takes at most
+	 * half of the time left until the deadline of the request: a prefetch stuck on a slow server is left behind,
+	 * and the request still has the other half to fetch the resource from the servers.
+	 * @param path the path of the resource
+	 * @param acceptEncoding the codings accepted by the browser, or null
+	 * @param deadline the deadline of the request, as given by <tt>System.nanoTime</tt>
+	 * @return the resource, or null if it was not prefetched (or the prefetch failed or took too long).
+	 */
+	public Resource take(String path, String acceptEncoding, long deadline) {
+		Entry entry;
+		synchronized (this) {
+			entry = cache.get(path);
+			if (entry == null || !Objects.equals(entry.acceptEncoding, acceptEncoding)) return null;
+			remove(path, entry);
+			if (System.currentTimeMillis() - entry.created > EXPIRY_TIME) return null;
+		}
+		try {
+			long wait = (long) ((deadline - System.nanoTime()) * MAX_WAIT_SHARE);
+			Resource resource = entry.resource.get(wait, TimeUnit.NANOSECONDS);
+			logger.debug("Serving the prefetched resource " + path);
+			return resource;
+		} catch (ExecutionException e) {
+			return null;
+		} catch (TimeoutException e) {
+			logger.debug("The prefetch of " + path + " took too long, fetching it again.");
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+
+	/**
+	 * Reserves the place of the resource in the cache, unless it is already cached or the budget is used.
+	 * @return the reserved prefetch, or null if the resource should not be prefetched.
+	 */
+	private Prefetch reserve(String path, String acceptEncoding) {
+		HttpRequestHandler handler = frontEnd.findHandler(path);
+		if (!(handler instanceof RdmaHandler)) return null;
+		Entry entry = new Entry(acceptEncoding);
+		synchronized (this) {
+			removeExpired();
+			if (cache.containsKey(path) || cachedBytes >= budget) return null;
+			cache.put(path, entry);
+		}
+		return new Prefetch(path, (RdmaHandler) handler, entry);
+	}
+
+	/**
+	 * Fetches the reserved resources of the same replicated servers in the background, with one batch request
+	 * if there are several of them. The handlers share the ring of the servers, so any of them fetches the batch.
+	 */
+	private void fetch(final ReplicaSet replicas, final List<Prefetch> prefetches, final String acceptEncoding) {
+		executor.execute(new Runnable() {
+			public void run() {
+				long deadline = RdmaHandler.getDeadline(System.nanoTime());
+				try {
+					if (prefetches.size() == 1) {
+						Prefetch prefetch = prefetches.get(0);
+						completed(prefetch, prefetch.handler.fetchRemote(prefetch.path, acceptEncoding, null, deadline));
+						return;
+					}
+					List<String> requests = new ArrayList<String>(prefetches.size());
+					for (Prefetch prefetch : prefetches) requests.add(prefetch.handler.getRequest());
+					List<Resource> resources = prefetches.get(0).handler.fetchBatch(replicas, requests, acceptEncoding, deadline);
+					for (int i = 0; i < prefetches.size(); i++) {
+						if (resources.get(i) == null) {
+							failed(prefetches.get(i), new RdmaConnectionException("The resource is unknown to the server."));
+						} else {
+							completed(prefetches.get(i), resources.get(i));
+						}
+					}
+				} catch (RdmaConnectionException | RuntimeException e) {
+					logger.debug("Prefetch failed: " + e.getMessage());
+					for (Prefetch prefetch : prefetches) failed(prefetch, e);
+				}
+			}
+		});
+	}
+
+	private void completed(Prefetch prefetch, Resource resource) {
+		account(prefetch.path, prefetch.entry, resource);
+		prefetch.entry.resource.complete(resource);
+	}
+
+	private void failed(Prefetch prefetch, Exception e) {
+		synchronized (this) {
+			if (cache.get(prefetch.path) == prefetch.entry) remove(prefetch.path, prefetch.entry);
+		}
+		prefetch.entry.resource.completeExceptionally(e);
+	}
+
+	/**
+	 * Accounts the fetched resource in the budget and drops the oldest resources if the budget is exceeded.
+	 */
+	private synchronized void account(String path, Entry entry, Resource resource) {
+		if (cache.get(path) != entry) return; // already taken or dropped
+		entry.size = resource.getContent().length;
+		cachedBytes += entry.size;
+		Iterator<Map.Entry<String, Entry>> entries = cache.entrySet().iterator();
+		while (cachedBytes > budget && entries.hasNext()) {
+			Entry oldest = entries.next().getValue();
+			if (!oldest.resource.isDone() && oldest != entry) continue;
+			entries.remove();
+			cachedBytes -= oldest.size;
+		}
+	}
+
+	private void removeExpired() {
+		long now = System.currentTimeMillis();
+		Iterator<Entry> entries = cache.values().iterator();
+		while (entries.hasNext()) {
+			Entry entry = entries.next();
+			if (now - entry.created <= EXPIRY_TIME) break;
+			entries.remove();
+			cachedBytes -= entry.size;
+		}
+	}
+
+	private void remove(String path, Entry entry) {
+		cache.remove(path);
+		cachedBytes -= entry.size;
+	}
+
+	/**
+	 * Decodes the content of the page, the server may have sent a compressed variant.
+	 */
+	private static byte[] decode(Resource page) throws IOException {
+		if (!page.isEncoded()) return page.getContent();
+		InputStream is = new ByteArrayInputStream(page.getContent());
+		if ("gzip".equals(page.getEncoding())) {
+			is = new GZIPInputStream(is);
+		} else if ("deflate".equals(page.getEncoding())) {
+			is = new InflaterInputStream(is);
+		} else {
+			throw new IOException("Unknown coding " + page.getEncoding());
+		}
+		try {
+			return IOUtils.toByteArray(is);
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * A resource reserved in the cache, together with the handler which fetches it.
+	 */
+	private static class Prefetch {
+
+		private final String path;
+		private final RdmaHandler handler;
+		private final Entry entry;
+
+		public Prefetch(String path, RdmaHandler handler, Entry entry) {
+			this.path = path;
+			this.handler = handler;
+			this.entry = entry;
+		}
+
+	}
+
+	/**
+	 * A prefetched resource, which may be still fetched.
+	 */
+	private static class Entry {
+
+		private final String acceptEncoding;
+		private final long created;
+		private final CompletableFuture<Resource> resource;
+		private int size;
+
+		public Entry(String acceptEncoding) {
+			this.acceptEncoding = acceptEncoding;
+			this.created = System.currentTimeMillis();
+			this.resource = new CompletableFuture<Resource>();
+		}
+
+	}
+
+}
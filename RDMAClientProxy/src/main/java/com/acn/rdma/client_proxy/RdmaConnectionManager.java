@@ -0,0 +1,285 @@
+package com.acn.rdma.client_proxy;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * This class keeps the RDMA connection of the proxy to one server alive.
+ * <p>
+ * The connection is established eagerly when the proxy starts and afterwards it is monitored
+ * by a background thread. Whenever the monitor finds the connection broken (for example because
+ * the server was restarted), it connects the endpoint that the connection already prepared in advance,
+ * without holding the lock of the connection, and takes the lock only to switch to the connected endpoint.
+ * In this way a browser request finds in the normal case an established connection, and even if it has to
+ * reconnect by itself it pays only for one connect round trip.
+ * </p>
+ * <p>
+ * The connects run on a connector thread and are bounded by a timeout. A connect which does not return (it
+ * cannot be interrupted) is given up together with its endpoint, and the thread is replaced for the next
+ * attempt. No attempt is started while too many connector threads are still wedged.
+ * </p>
+ * <p>
+ * The manager also keeps the statistics of the server used to balance the load between replicas: the number of
+ * outstanding operations and the exponentially weighted moving average (EWMA) of the observed latency. The server
+ * is not healthy after its connection was broken until the connection is reestablished.
+ * </p>
+ * <p>
+ * The operations on the server are admitted by a limiter (see <tt>ConcurrencyLimiter</tt>), an operation which
+ * is not admitted is rejected at once instead of queueing for the connection.
+ * </p>
+ * The connection (and therefore also this manager) must be used while holding the lock of the connection.
+ *
+ * @see ClientRdmaConnection
+ * @see ReplicaSet
+ * @version 1
+ */
+public class RdmaConnectionManager implements ConnectionListener {
+
+	private static final Logger logger = Logger.getLogger(RdmaConnectionManager.class);
+
+	private static final int TIMEOUT = 2; // seconds
+	private static final int MONITOR_PERIOD = 1; // seconds
+	private static final int MAX_WEDGED_CONNECTORS = 4;
+	private static final double EWMA_WEIGHT = 0.2; // weight of the newest latency
+
+	private ClientRdmaConnection connection;
+	private String serverIpAddress;
+	private int serverPort;
+
+	private ExecutorService connector;
+	private ScheduledExecutorService monitor;
+	private final Object connectLock = new Object(); // the prepared endpoint and the connector
+	private final AtomicInteger connecting = new AtomicInteger(); // connector threads in a connect
+	
+	private volatile boolean healthy;
+	private AtomicInteger outstanding;
+	private volatile double latencyEwma; // nanoseconds
+	private ConcurrencyLimiter limiter;
+
+	/**
+	 * Constructs the manager of the given RDMA connection.
+	 * @param connection the connection to the server
+	 * @param serverIpAddress the ip address of the server
+	 * @param serverPort the port of the server
+	 */
+	public RdmaConnectionManager(ClientRdmaConnection connection, String serverIpAddress, int serverPort) {
+		this.connection = connection;
+		this.serverIpAddress = serverIpAddress;
+		this.serverPort = serverPort;
+		this.connector = newConnector();
+		this.monitor = Executors.newSingleThreadScheduledExecutor();
+		this.outstanding = new AtomicInteger();
+		this.limiter = new ConcurrencyLimiter(ConcurrencyLimiter.DEFAULT_INITIAL_LIMIT, ConcurrencyLimiter.DEFAULT_MAX_LIMIT);
+		connection.setConnectionListener(this);
+	}
+
+	/**
+	 * Prepares the endpoint, connects eagerly to the server and starts monitoring the connection
+	 * in the background. If the server is not reachable yet, the monitor keeps trying to connect.
+	 */
+	public void start() {
+		logger.debug("Connecting eagerly to the server " + serverIpAddress + ":" + serverPort + "...");
+		synchronized (connection) {
+			try {
+				ensureConnected();
+			} catch (RdmaConnectionException e) {
+				logger.debug("Could not connect to the server at startup: " + e.getMessage());
+			}
+		}
+		monitor.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				checkConnection();
+			}
+		}, MONITOR_PERIOD, MONITOR_PERIOD, TimeUnit.SECONDS);
+		logger.debug("Started monitoring the connection.");
+	}
+
+	/**
+	 * Reconnects to the server if the connection is broken. The caller must hold the lock of the connection.
+	 * @throws RdmaConnectionException if the connection fails, either due to timeout or another connection error
+	 */
+	public void ensureConnected() throws RdmaConnectionException {
+		if (!connection.isConnected()) {
+			logger.debug("Restarting ...");
+			healthy = false;
+			synchronized (connectLock) {
+				connectToServer();
+				connection.restart();
+			}
+			healthy = true;
+		}
+	}
+	
+	/**
+	 * Marks the server as not healthy, it is called when the server disconnects.
+	 */
+	@Override
+	public void connectionBroken() {
+		logger.debug("The server " + serverIpAddress + ":" + serverPort + " is not healthy.");
+		healthy = false;
+	}
+	
+	/**
+	 * Checks if the server is healthy, i.e. if the connection was not broken since the last connect.
+	 * @return true if healthy, false otherwise.
+	 */
+	public boolean isHealthy() {
+		return healthy;
+	}
+	
+	/**
+	 * Registers the start of an operation on the server, if the limiter admits it.
+	 * @throws ServerOverloadedException if the operation is not admitted.
+	 */
+	public void beginOperation() throws ServerOverloadedException {
+		if (!limiter.tryAcquire()) {
+			throw new ServerOverloadedException("The server " + serverIpAddress + ":" + serverPort + " is overloaded (limit "
+					+ limiter.getLimit() + ").");
+		}
+		outstanding.incrementAndGet();
+	}
+	
+	/**
+	 * Registers the end of an operation on the server.
+	 * @param latency the observed latency of the operation in nanoseconds, or a negative value if the operation failed.
+	 */
+	public void endOperation(long latency) {
+		outstanding.decrementAndGet();
+		limiter.release(latency);
+		if (latency >= 0) {
+			double ewma = latencyEwma;
+			latencyEwma = (ewma == 0) ? latency : EWMA_WEIGHT * latency + (1 - EWMA_WEIGHT) * ewma;
+		}
+	}
+	
+	/**
+	 * Registers the end of an operation which was skipped before it used the server.
+	 */
+	public void cancelOperation() {
+		outstanding.decrementAndGet();
+		limiter.cancel();
+	}
+	
+	/**
+	 * Gets the load of the server, the expected time to serve an operation taking into account the outstanding operations.
+	 * @return the load of the server.
+	 */
+	public double getLoad() {
+		// a server without observed latency yet counts as 1 ns, then the outstanding operations decide
+		return (outstanding.get() + 1) * Math.max(latencyEwma, 1);
+	}
+
+	/**
+	 * Gets the managed connection.
+	 * @return {@link ClientRdmaConnection}
+	 */
+	public ClientRdmaConnection getConnection() {
+		return connection;
+	}
+
+	/**
+	 * Checks the connection in the background. If the connection is broken, it connects the prepared endpoint
+	 * without holding the lock of the connection, so that the requests are not held up by the connect, and
+	 * takes the lock only to switch to the connected endpoint. Otherwise it prepares the endpoint for the next
+	 * restart, so that it is not created on the request path.
+	 */
+	private void checkConnection() {
+		try {
+			// a hint only, the lock is taken before the switch
+			boolean connected = connection.isConnected();
+			synchronized (connectLock) {
+				if (connected) {
+					connection.prepareEndpoint();
+					return;
+				}
+				connectToServer();
+			}
+			synchronized (connection) {
+				synchronized (connectLock) {
+					if (!connection.isConnected()) {
+						healthy = false;
+						connection.restart();
+						healthy = true;
+					}
+				}
+			}
+		} catch (RdmaConnectionException e) {
+			logger.debug("The server is still not reachable: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Tries to connect the prepared endpoint to the server on the connector thread, so no thread is created on
+	 * the request path. The caller must hold the lock of the prepared endpoint. If the connect does not return
+	 * within the timeout, the endpoint is given up and the wedged connector thread is replaced.
+	 * @throws RdmaConnectionException if the connection fails, either due to timeout or another connection error
+	 */
+	private void connectToServer() throws RdmaConnectionException {
+		if (connecting.get() >= MAX_WEDGED_CONNECTORS) {
+			throw new RdmaConnectionException(connecting.get() + " connects to the server did not return yet.");
+		}
+		logger.debug("Connecting to the server...");
+		Future<ClientRdmaConnection> future = connector.submit(new RdmaConnectToServer());
+		try {
+			future.get(TIMEOUT, TimeUnit.SECONDS);
+		} catch (ExecutionException e) {
+			throw new RdmaConnectionException(e.getCause().getMessage());
+		} catch (TimeoutException | InterruptedException e) {
+			logger.debug("Connection to the server timed out");
+			future.cancel(true);
+			connection.discardEndpoint();
+			connector.shutdownNow();
+			connector = newConnector();
+			throw new RdmaConnectionException("The connection to the server timed out.");
+		}
+		logger.debug("Successfully connected to the server.");
+	}
+
+	/**
+	 * Creates the executor of the connects, with one daemon thread.
+	 * @return the executor
+	 */
+	private static ExecutorService newConnector() {
+		return Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "rdma-connect");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * This class tries to connect the client endpoint to the server
+	 * It extends callable to be possible to timeout when the server is offline
+	 */
+	private class RdmaConnectToServer implements Callable<ClientRdmaConnection> {
+
+		/**
+		 * Tries to connect the client endpoint to the server
+		 */
+		public ClientRdmaConnection call() throws Exception {
+			logger.debug("Connecting...");
+			connecting.incrementAndGet();
+			try {
+				connection.rdmaConnect(serverIpAddress, serverPort);
+			} finally {
+				connecting.decrementAndGet();
+			}
+			logger.debug("Connected.");
+			return connection;
+		}
+
+	}
+
+}
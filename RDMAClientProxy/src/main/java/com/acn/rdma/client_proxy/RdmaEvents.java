@@ -0,0 +1,95 @@
+package com.acn.rdma.client_proxy;
+
+import org.apache.log4j.Logger;
+
+/**
+ * This class commits the RDMA operations of the hot path and the connection lifecycle as JFR events, next to the
+ * records of the <tt>EventJournal</tt>. A flight recording then shows them with the collections of the garbage
+ * collector, the safepoints and the threads of the JVM:
+ * <pre>
+ * java -XX:StartFlightRecording=filename=proxy.jfr -jar RDMAClientProxy-*.jar ...
+ * </pre>
+ * <p>
+ * The events are only defined by JVMs with the <tt>jdk.jfr</tt> module (Java 8u262 and later, Java 11 and later).
+ * The event classes (see <tt>JfrEvents</tt>) are not loaded if the JVM has no JFR, the events are dropped then.
+ * A timed event is begun before the operation and committed after it, so the recording keeps the duration of
+ * the operation. An event which is not enabled in the recording costs the check only.
+ * </p>
+ * @see EventJournal
+ * @version 1
+ */
+public final class RdmaEvents {
+
+	private static final Logger logger = Logger.getLogger(RdmaEvents.class);
+
+	/**
+	 * An event begun before an operation, which is committed when the operation is done.
+	 */
+	public interface Timed {
+
+		/**
+		 * Commits the event with its duration from the begin, if it is enabled.
+		 * @param id the id of the working request, or the queue pair number of a connection
+		 * @param length the length of the operation in bytes, or 0
+		 */
+		void commit(long id, int length);
+	}
+
+	/** The event of an operation which is not recorded. */
+	static final Timed DISABLED = new Timed() {
+		public void commit(long id, int length) {
+		}
+	};
+
+	private static final boolean AVAILABLE = isAvailable();
+
+	private RdmaEvents() {
+	}
+
+	/**
+	 * Begins the event of a post of a working request.
+	 * @param operation the operation of the post, as it is journaled, e.g. <tt>EventJournal.POST_SEND</tt>
+	 * @return the event to commit after the post
+	 */
+	public static Timed beginPost(int operation) {
+		return AVAILABLE ? JfrEvents.beginPost(operation) : DISABLED;
+	}
+
+	/**
+	 * Begins the event of a step of the connection lifecycle.
+	 * @param operation the operation, as it is journaled, e.g. <tt>EventJournal.CONNECT</tt>
+	 * @return the event to commit with the queue pair number when the step is done
+	 */
+	public static Timed beginConnection(int operation) {
+		return AVAILABLE ? JfrEvents.beginConnection(operation) : DISABLED;
+	}
+
+	/**
+	 * Commits the event of a completed read.
+	 * @param wrId the id of the working request
+	 * @param length the length of the read in bytes
+	 * @param latency the time from the post, or the start of the wait, to the completion in nanoseconds
+	 */
+	public static void readCompleted(long wrId, int length, long latency) {
+		if (AVAILABLE) JfrEvents.readCompleted(wrId, length, latency);
+	}
+
+	/**
+	 * Commits the event of a disconnect announced by the RDMA connection manager.
+	 * @param qpNum the queue pair number of the connection, or 0
+	 */
+	public static void disconnected(int qpNum) {
+		if (AVAILABLE) JfrEvents.disconnected(qpNum);
+	}
+
+	private static boolean isAvailable() {
+		try {
+			Class.forName("jdk.jfr.Event", false, RdmaEvents.class.getClassLoader());
+			return true;
+		} catch (ClassNotFoundException e) {
+			logger.debug("No JFR in this JVM, the RDMA operations are only journaled.");
+			return false;
+		}
+	}
+
+}
@@ -2,37 +2,44 @@ package com.acn.rdma.client_proxy;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.log4j.Logger;
 
-import com.ibm.disni.rdma.RdmaActiveEndpointGroup;
-import com.sun.net.httpserver.HttpExchange;
-import com.sun.net.httpserver.HttpHandler;
 
 /**
  * This class represents the interceptor. It intercepts the requests from the browser (for example Mozilla browser) 
- * and forwards them to the server by using a RDMA connection. The connection must be given during the construction
- * of the class.
+ * and forwards them to the server by using a RDMA connection. The connections to the (replicated) servers must be
+ * given during the construction of the class.
  * @version 1
  */
-@SuppressWarnings("restriction")
-public abstract class RdmaHandler implements HttpHandler {
+public abstract class RdmaHandler implements HttpRequestHandler {
 	
 	protected static final Logger logger = Logger.getLogger(RdmaHandler.class);
 	
 	protected static final String RDMA_WEBPAGE_URL_PREFIX = "www.rdmawebpage.com";
 	protected static final String PATH_404 = "static_content/notFound.html";
+	protected static final String PATH_503 = "static_content/serviceUnavailable.html";
 	protected static final String PATH_504 = "static_content/gatewayTimeout.html";
+	protected static final int RETRY_AFTER = 1; // seconds
+	protected static final long REQUEST_TIMEOUT = 3000; // milliseconds, from the arrival of the request
 	protected static final String GET_INDEX = "Get Index";
 	protected static final String GET_IMAGE = "Get Png";
+	protected static final String GET_BATCH = "Get Batch";
 	protected static final String FINAL_SIGNAL_MESSAGE = "Everything went fine";
+	protected static final String ACCEPT_ENCODING_PREFIX = "Accept-Encoding: ";
+	protected static final String RANGE_LINE = "Range: bytes";
+	protected static final String PUSH_PREFIX = "Push: ";
+	protected static final int STATUS_CODE_206_PARTIAL_CONTENT = 206;
 	protected static final int GET_INDEX_ID = 1000; 
 	protected static final int RDMA_READ_INDEX_ID = 1001;
 	
@@ -41,76 +48,480 @@ public abstract class RdmaHandler implements HttpHandler {
 	
 	protected static final int FINAL_SIGNAL_ID = 3000;
 	
-	protected static final int TIMEOUT = 2; // seconds
+	protected static final int GET_BATCH_ID = 4000;
+	protected static final int RDMA_READ_BATCH_ID = 4001;
 	
-	protected ClientRdmaConnection rdmaConnection;
-	private String serverIpAddress;
-	private int serverPort;
+	private ConsistentHashRing<ReplicaSet> servers;
+	private HedgingPolicy hedgingPolicy;
+	private Prefetcher prefetcher;
 	
 	
 	/**
-	 * Constructs the interceptor with the given RDMA connection, where it forwards the data intercepted.
-	 * @param rdmaConnection the connection to forward the data.
+	 * Constructs the interceptor with the given RDMA connections, where it forwards the data intercepted.
+	 * @param servers the ring of the replicated servers, which decides where the data of a path is.
+	 * @param hedgingPolicy the policy to hedge slow fetches, or null if the fetches should not be hedged.
+	 * @param prefetcher the prefetcher of the embedded resources of the pages, or null if nothing is prefetched.
 	 */
-	public RdmaHandler(ClientRdmaConnection rdmaConnection, String serverIpAddress, int serverPort) {
-		this.rdmaConnection = rdmaConnection;
-		this.serverIpAddress = serverIpAddress;
-		this.serverPort = serverPort;
+	public RdmaHandler(ConsistentHashRing<ReplicaSet> servers, HedgingPolicy hedgingPolicy, Prefetcher prefetcher) {
+		this.servers = servers;
+		this.hedgingPolicy = hedgingPolicy;
+		this.prefetcher = prefetcher;
 	}
-
+	
 	/**
-	 * Tries to connect the client endpoint to the server
-	 * 
-	 * 
-	 * @throws RdmaConnectionException if the connection fails, either due to timeout or another connection error
+	 * Requests the resource from the server by using the given connection.
+	 * @param rdmaConnection the connection to the server
+	 * @param acceptEncoding the codings accepted by the browser, or null
+	 * @param range the value of the Range header of the browser, or null
+	 * @return the resource
+	 * @throws RdmaConnectionException
+	 */
+	protected abstract Resource requestResource(ClientRdmaConnection rdmaConnection, String acceptEncoding, String range) throws RdmaConnectionException;
+	
+	/**
+	 * Gets the request of the resource of this handler, as it is sent to the server (for example Get Index).
+	 * @return the request
+	 */
+	protected abstract String getRequest();
+	
+	/**
+	 * Exchanges the messages with the server to fetch a resource.
+	 * <ul>
+	 *   <li>The proxy sends the request</li>
+	 *   The codings accepted by the browser are given in a second line, so that the server can reply with a
+	 *   precompressed variant. For a range request, a line asks the server for its registered content instead.
+	 *   Otherwise, a line names the local buffer the server can push the reply into.
+	 *   <li>The proxy gets the data</li>
+	 *   The whole reply pushed by the server (or with a RDMA read, if it is too large to be pushed), or for a range
+	 *   request only the requested part of the registered content (by reading at an offset in the remote buffer).
+	 *   <li>The proxy sends the final signal</li>
+	 *   The final signal needs no reply, it is posted together with the next request on the connection.
+	 * </ul>
+	 * @param rdmaConnection the connection to the server
+	 * @param request the request (for example Get Index)
+	 * @param requestId the unique id for the request
+	 * @param readId the unique id for the RDMA read
+	 * @param acceptEncoding the codings accepted by the browser, or null
+	 * @param range the value of the Range header of the browser, or null
+	 * @return the resource
+	 * @throws RdmaConnectionException
+	 */
+	protected Resource exchange(ClientRdmaConnection rdmaConnection, String request, int requestId, int readId,
+			String acceptEncoding, String range) throws RdmaConnectionException {
+		StringBuilder message = new StringBuilder(request);
+		if (range != null) {
+			message.append('\n').append(RANGE_LINE);
+		} else {
+			if (acceptEncoding != null) message.append('\n').append(ACCEPT_ENCODING_PREFIX).append(acceptEncoding);
+			RdmaRegion push = rdmaConnection.getPushRegion();
+			message.append('\n').append(PUSH_PREFIX).append(push.getAddress()).append(' ').append(push.getLength())
+					.append(' ').append(push.getKey());
+		}
+		rdmaConnection.rdmaSend(message.toString().getBytes(), requestId);
+		logger.debug("Sent a " + request + " with id " + requestId + " to the server.");
+		
+		Resource resource;
+		if (range == null) {
+			resource = new Resource(rdmaConnection.rdmaReceivePushed(readId));
+		} else {
+			RdmaRegion region = rdmaConnection.rdmaReceiveRegion(readId);
+			if (region.getStatusCode() != STATUS_CODE_206_PARTIAL_CONTENT) {
+				throw new RdmaConnectionException("status code not 206: " + region.getStatusCode());
+			}
+			ByteRange byteRange = ByteRange.parse(range, region.getLength());
+			if (byteRange == null) {
+				resource = new Resource(rdmaConnection.rdmaReadRegion(region, 0, region.getLength(), readId), null, region.getLength());
+			} else if (!byteRange.isSatisfiable()) {
+				resource = new Resource(new byte[0], byteRange, region.getLength());
+			} else {
+				byte[] part = rdmaConnection.rdmaReadRegion(region, byteRange.getStart(), byteRange.getLength(), readId);
+				resource = new Resource(part, byteRange, region.getLength());
+			}
+		}
+		logger.debug("Got the resource.");
+		
+		rdmaConnection.rdmaSendDeferred(FINAL_SIGNAL_MESSAGE.getBytes(), FINAL_SIGNAL_ID);
+		logger.debug("Queued the final signal message " + FINAL_SIGNAL_MESSAGE + " with id " + FINAL_SIGNAL_ID);
+		return resource;
+	}
+	
+	/**
+	 * Exchanges the messages with the server to fetch several resources at once.
+	 * <ul>
+	 *   <li>The proxy sends the batch request</li>
+	 *   The requests of the resources follow, one per line, and the codings accepted by the browser.
+	 *   <li>The proxy reads the data</li>
+	 *   The server replies with one table of RDMA info, the proxy reads all the resources with one chain of RDMA reads.
+	 *   <li>The proxy sends the final signal</li>
+	 * </ul>
+	 * @param rdmaConnection the connection to the server
+	 * @param requests the requests of the resources (for example Get Index)
+	 * @param acceptEncoding the codings accepted by the browser, or null
+	 * @return the resources in the order of the requests, null for an unknown resource. The server may reply
+	 * only to the first requests, if the resources do not fit together in its buffer.
+	 * @throws RdmaConnectionException
 	 */
-	protected void connectToServer() throws RdmaConnectionException {
-		logger.debug("Connecting to the server...");
+	protected List<Resource> exchangeBatch(ClientRdmaConnection rdmaConnection, List<String> requests, String acceptEncoding) throws RdmaConnectionException {
+		StringBuilder message = new StringBuilder(GET_BATCH);
+		for (String request : requests) message.append('\n').append(request);
+		if (acceptEncoding != null) message.append('\n').append(ACCEPT_ENCODING_PREFIX).append(acceptEncoding);
+		rdmaConnection.rdmaSend(message.toString().getBytes(), GET_BATCH_ID);
+		logger.debug("Sent a batch of " + requests.size() + " requests to the server.");
 		
-		final ExecutorService executor = Executors.newSingleThreadExecutor();
-		final Future future = executor.submit(new RdmaConnectToServer(rdmaConnection, serverIpAddress, serverPort));
+		List<Resource> resources = new ArrayList<Resource>(requests.size());
+		for (byte[] reply : rdmaConnection.rdmaReadBatch(RDMA_READ_BATCH_ID)) {
+			resources.add(reply == null ? null : new Resource(reply));
+		}
+		logger.debug("Got " + resources.size() + " resources of the batch.");
 		
+		rdmaConnection.rdmaSendDeferred(FINAL_SIGNAL_MESSAGE.getBytes(), FINAL_SIGNAL_ID);
+		logger.debug("Queued the final signal message " + FINAL_SIGNAL_MESSAGE + " with id " + FINAL_SIGNAL_ID);
+		return resources;
+	}
+	
+	/**
+	 * Creates the response with the resource and the headers for its coding: 200 with the whole resource,
+	 * 206 with a part of it or 416 if the requested range is not satisfiable.
+	 * @param resource the resource
+	 * @param contentType the type of the resource
+	 * @return the response
+	 */
+	protected HttpResponse createResponse(Resource resource, String contentType) {
+		ByteRange range = resource.getRange();
+		if (range != null && !range.isSatisfiable()) {
+			return new HttpResponse(416, new byte[0]).setHeader("Content-Range", "bytes */" + resource.getTotalLength());
+		}
+		HttpResponse response = new HttpResponse(range == null ? 200 : 206, resource.getContent());
+		response.setHeader("Content-Type", contentType);
+		response.setHeader("Accept-Ranges", "bytes");
+		response.setHeader("Vary", "Accept-Encoding");
+		if (range != null) {
+			response.setHeader("Content-Range", "bytes " + range.getStart() + "-" + range.getEnd() + "/" + resource.getTotalLength());
+		}
+		if (resource.isEncoded()) {
+			response.setHeader("Content-Encoding", resource.getEncoding());
+		}
+		return response;
+	}
+	
+	/**
+	 * Gets the range requested by the browser. The range is ignored if it is conditional (If-Range), because the
+	 * proxy has no validators of the resources, and for other methods than GET.
+	 * @param request the request of the browser
+	 * @return the value of the Range header, or null
+	 */
+	protected String getRange(HttpRequest request) {
+		if (!"GET".equals(request.getMethod()) || request.getIfRange() != null) return null;
+		return request.getRange();
+	}
+	
+	/**
+	 * Gets the deadline of the fetches of a request.
+	 * @param start the time the request arrived, as given by <tt>System.nanoTime</tt>
+	 * @return the deadline, as given by <tt>System.nanoTime</tt>
+	 */
+	protected static long getDeadline(long start) {
+		return start + TimeUnit.MILLISECONDS.toNanos(REQUEST_TIMEOUT);
+	}
+	
+	/**
+	 * Fetches the resource with the given path. A whole resource is taken from the prefetched resources
+	 * if it was prefetched (see <tt>Prefetcher</tt>), otherwise it is fetched from the servers. A prefetch which
+	 * does not complete within half of the time left until the deadline is fetched from the servers as well,
+	 * within the other half.
+	 * @param path the path of the requested resource
+	 * @param acceptEncoding the codings accepted by the browser, or null
+	 * @param range the range requested by the browser, or null
+	 * @param deadline the deadline of the fetch, as given by <tt>System.nanoTime</tt>
+	 * @return the resource
+	 * @throws RdmaConnectionException if the communication with the server fails.
+	 */
+	protected Resource fetchResource(String path, String acceptEncoding, String range, long deadline) throws RdmaConnectionException {
+		if (prefetcher != null && range == null) {
+			Resource resource = prefetcher.take(path, acceptEncoding, deadline);
+			if (resource != null) return resource;
+		}
+		return fetchRemote(path, acceptEncoding, range, deadline);
+	}
+	
+	/**
+	 * Prefetches the resources embedded in the fetched page, if a prefetcher is given and the page is shown
+	 * by the browser (a GET request).
+	 * @param request the request of the page
+	 * @param page the page
+	 */
+	protected void prefetchLinks(HttpRequest request, Resource page) {
+		if (prefetcher != null && "GET".equals(request.getMethod())) prefetcher.prefetchLinks(request.getHost(), request.getPath(), page, request.getAcceptEncoding());
+	}
+	
+	/**
+	 * Fetches the resource with the given path from the servers. The replicated servers responsible for the path
+	 * are looked up in the ring, and the replica with the lower load is chosen (see <tt>ReplicaSet</tt>). If a
+	 * hedging policy is given and there are other replicas, the fetch may be hedged (see <tt>HedgingPolicy</tt>).
+	 * @param path the path of the requested resource
+	 * @param acceptEncoding the codings accepted by the browser, or null
+	 * @param range the range requested by the browser, or null
+	 * @param deadline the deadline of the fetch, as given by <tt>System.nanoTime</tt>
+	 * @return the resource
+	 * @throws RdmaConnectionException if the communication with the server fails.
+	 */
+	protected Resource fetchRemote(String path, String acceptEncoding, String range, long deadline) throws RdmaConnectionException {
+		ReplicaSet replicas = servers.get(path);
+		if (hedgingPolicy == null || replicas.size() < 2) {
+			return fetchFromReplica(replicas.select(), acceptEncoding, range, deadline, null);
+		}
+		return fetchHedged(replicas, acceptEncoding, range, deadline);
+	}
+	
+	/**
+	 * Gets the replicated servers responsible for the path.
+	 * @param path the path of a resource
+	 * @return the replica set
+	 */
+	protected ReplicaSet getReplicaSet(String path) {
+		return servers.get(path);
+	}
+	
+	/**
+	 * Fetches several resources of the same replicated servers with batch requests, instead of one exchange per
+	 * resource. If the server replies only to the first requests of a batch, the others are sent in a new batch
+	 * on the same connection. The batches are not hedged.
+	 * @param replicas the replicated servers holding the resources
+	 * @param requests the requests of the resources (see <tt>getRequest</tt>)
+	 * @param acceptEncoding the codings accepted by the browser, or null
+	 * @param deadline the deadline of the batches, as given by <tt>System.nanoTime</tt>
+	 * @return the resources in the order of the requests, null for an unknown resource
+	 * @throws ServerOverloadedException if the server does not admit the batch.
+	 * @throws RdmaConnectionException if the communication with the server fails.
+	 */
+	protected List<Resource> fetchBatch(ReplicaSet replicas, List<String> requests, String acceptEncoding, long deadline) throws RdmaConnectionException {
+		RdmaConnectionManager replica = replicas.select();
+		ClientRdmaConnection rdmaConnection = replica.getConnection();
+		List<Resource> resources = new ArrayList<Resource>(requests.size());
+		long latency = -1;
+		replica.beginOperation();
 		try {
-			future.get(TIMEOUT, TimeUnit.SECONDS);
-		} catch (Exception e) {
-			logger.debug("Connection to the server timed out");
-			executor.shutdownNow();
+			synchronized (rdmaConnection) {
+				beginExchange(rdmaConnection, deadline);
+				replica.ensureConnected();
+				long start = System.nanoTime();
+				while (resources.size() < requests.size()) {
+					List<Resource> batch = exchangeBatch(rdmaConnection, requests.subList(resources.size(), requests.size()), acceptEncoding);
+					if (batch.isEmpty()) throw new RdmaConnectionException("The resource is too large for a batch.");
+					resources.addAll(batch);
+				}
+				latency = System.nanoTime() - start;
+				return resources;
+			}
+		} finally {
+			replica.endOperation(latency);
+		}
+	}
+	
+	/**
+	 * Fetches the resource from the given replica and reports the latency of the fetch to the replica.
+	 * @param replica the replica
+	 * @param acceptEncoding the codings accepted by the browser, or null
+	 * @param range the range requested by the browser, or null
+	 * @param deadline the deadline of the fetch, as given by <tt>System.nanoTime</tt>
+	 * @param response the response of a hedged fetch, the fetch is skipped if the response is already done.
+	 * May be null, if the fetch is not hedged.
+	 * @return the resource, or null if the fetch was skipped.
+	 * @throws ServerOverloadedException if the replica does not admit the fetch.
+	 * @throws RdmaConnectionException if the communication with the server fails or the deadline passes.
+	 */
+	private Resource fetchFromReplica(RdmaConnectionManager replica, String acceptEncoding, String range, long deadline,
+			Future<Resource> response) throws RdmaConnectionException {
+		ClientRdmaConnection rdmaConnection = replica.getConnection();
+		long latency = -1;
+		boolean skipped = false;
+		replica.beginOperation();
+		try {
+			synchronized (rdmaConnection) {
+				// the other fetch won while we were waiting for the connection, nothing was sent yet
+				if (response != null && response.isDone()) {
+					skipped = true;
+					return null;
+				}
+				beginExchange(rdmaConnection, deadline);
+				replica.ensureConnected();
+				long start = System.nanoTime();
+				Resource resource = requestResource(rdmaConnection, acceptEncoding, range);
+				latency = System.nanoTime() - start;
+				if (hedgingPolicy != null) hedgingPolicy.recordLatency(latency);
+				return resource;
+			}
+		} finally {
+			if (skipped) {
+				replica.cancelOperation();
+			} else {
+				replica.endOperation(latency);
+			}
+		}
+	}
+	
+	/**
+	 * Gives the deadline to the connection for the following exchange, unless it passed already while the fetch
+	 * was waiting for the connection. The caller must hold the lock of the connection.
+	 * @param rdmaConnection the connection to the server
+	 * @param deadline the deadline of the fetch, as given by <tt>System.nanoTime</tt>
+	 * @throws RdmaConnectionException if the deadline passed, nothing was sent to the server.
+	 */
+	private void beginExchange(ClientRdmaConnection rdmaConnection, long deadline) throws RdmaConnectionException {
+		if (deadline - System.nanoTime() <= 0) throw new RdmaConnectionException("The deadline passed before the request was sent.");
+		rdmaConnection.setDeadline(deadline);
+	}
+	
+	/**
+	 * Fetches the resource from a replica in the background, the thread of the request only waits for the
+	 * response. If the fetch does not complete within the delay given by the hedging policy, the resource is
+	 * requested also from a second replica, if the budget allows it. The first response wins, even if the other
+	 * fetch is stalled. The losing fetch is cancelled: if it did not
+	 * start yet (for example if it waits for its connection) it is skipped, otherwise it completes its exchange
+	 * with the server (to keep the connection consistent) and its response is dropped. The hedged fetch also
+	 * answers the request if the primary fetch fails.
+	 * @param replicas the replicas holding the resource
+	 * @param acceptEncoding the codings accepted by the browser, or null
+	 * @param range the range requested by the browser, or null
+	 * @param deadline the deadline of the fetches, as given by <tt>System.nanoTime</tt>
+	 * @return the resource
+	 * @throws ServerOverloadedException if no thread is left for the fetch (see <tt>HedgingPolicy</tt>).
+	 * @throws RdmaConnectionException if the communication with all the replicas fails or the deadline passes.
+	 */
+	private Resource fetchHedged(ReplicaSet replicas, String acceptEncoding, String range, long deadline) throws RdmaConnectionException {
+		CompletableFuture<Resource> response = new CompletableFuture<Resource>();
+		AtomicInteger pending = new AtomicInteger(1);
+		RdmaConnectionManager primary = replicas.select();
+		if (!hedgingPolicy.execute(new HedgedFetch(primary, acceptEncoding, range, deadline, response, pending))) {
+			throw new ServerOverloadedException("No thread is left for the fetch.");
+		}
+		hedgingPolicy.fetchStarted();
+		long delay = hedgingPolicy.getHedgeDelay();
+		ScheduledFuture<?> hedge = null;
+		if (delay >= 0) {
+			hedge = hedgingPolicy.schedule(new Hedge(replicas, primary, acceptEncoding, range, deadline, response, pending), delay);
+		}
+		try {
+			return response.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+		} catch (TimeoutException e) {
+			throw new RdmaConnectionException("The hedged fetch missed its deadline.");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RdmaConnectionException) throw (RdmaConnectionException) cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if (cause instanceof Error) throw (Error) cause;
+			throw new RdmaConnectionException(cause);
+		} catch (InterruptedException e) {
 			throw new RdmaConnectionException(e.getMessage());
+		} finally {
+			if (hedge != null) hedge.cancel(false);
+		}
+	}
+	
+	/**
+	 * This class starts the hedged fetch of a request, when the primary fetch did not complete within the delay.
+	 * The hedged fetch is skipped if no thread is left for it.
+	 */
+	private class Hedge implements Runnable {
+		
+		private ReplicaSet replicas;
+		private RdmaConnectionManager primary;
+		private String acceptEncoding;
+		private String range;
+		private long deadline;
+		private CompletableFuture<Resource> response;
+		private AtomicInteger pending;
+		
+		public Hedge(ReplicaSet replicas, RdmaConnectionManager primary, String acceptEncoding, String range, long deadline,
+				CompletableFuture<Resource> response, AtomicInteger pending) {
+			this.replicas = replicas;
+			this.primary = primary;
+			this.acceptEncoding = acceptEncoding;
+			this.range = range;
+			this.deadline = deadline;
+			this.response = response;
+			this.pending = pending;
 		}
-		executor.shutdown();
-		logger.debug("Successfully connected to the server.");	
+		
+		public void run() {
+			if (response.isDone()) return;
+			RdmaConnectionManager secondary = replicas.select(primary);
+			if (secondary == null || !hedgingPolicy.tryHedge()) return;
+			logger.debug("Hedging the fetch to a second replica.");
+			pending.incrementAndGet();
+			if (!hedgingPolicy.execute(new HedgedFetch(secondary, acceptEncoding, range, deadline, response, pending))) {
+				logger.debug("No thread is left for the hedged fetch.");
+				// the primary fetch may have failed meanwhile, then the request waits for this one
+				if (pending.decrementAndGet() == 0) {
+					response.completeExceptionally(new ServerOverloadedException("No thread is left for the hedged fetch."));
+				}
+			}
+		}
+		
 	}
 	
 	/**
-	 * Responds with a 404 error.
-	 * @param t
-	 * @throws IOException
+	 * This class executes one of the fetches of a hedged request. The first successful fetch completes the response,
+	 * the response fails only if all the fetches fail.
 	 */
-	protected void send404Error(HttpExchange t) throws IOException {
+	private class HedgedFetch implements Runnable {
+		
+		private RdmaConnectionManager replica;
+		private String acceptEncoding;
+		private String range;
+		private long deadline;
+		private CompletableFuture<Resource> response;
+		private AtomicInteger pending;
+		
+		public HedgedFetch(RdmaConnectionManager replica, String acceptEncoding, String range, long deadline,
+				CompletableFuture<Resource> response, AtomicInteger pending) {
+			this.replica = replica;
+			this.acceptEncoding = acceptEncoding;
+			this.range = range;
+			this.deadline = deadline;
+			this.response = response;
+			this.pending = pending;
+		}
+		
+		public void run() {
+			try {
+				Resource resource = fetchFromReplica(replica, acceptEncoding, range, deadline, response);
+				if (resource != null) response.complete(resource);
+			} catch (Throwable e) {
+				// whatever the failure, the last fetch must complete the response, its request waits for it
+				logger.debug("Hedged fetch failed: " + e.getMessage());
+				if (pending.decrementAndGet() == 0) response.completeExceptionally(e);
+			}
+		}
+		
+	}
+	
+	/**
+	 * Creates a 404 error.
+	 * @return the response
+	 */
+	protected HttpResponse create404Error() {
 		logger.debug("Sending 404 back back to the browser...");
-		byte[] errorBody = getErrorBody(404);
-		t.sendResponseHeaders(404, errorBody.length);
-		OutputStream os = t.getResponseBody();
-		os.write(errorBody);
-		os.close();
-		t.getResponseBody().close();
-		logger.debug("Sent the response back.");
+		return new HttpResponse(404, getErrorBody(404)).setHeader("Content-Type", "text/html");
+	}
+	
+	/**
+	 * Creates a 503 error, the browser may retry after a short time.
+	 * @return the response
+	 */
+	protected HttpResponse create503Error() {
+		logger.debug("Sending 503 (Service Unavailable) back to the browser...");
+		return new HttpResponse(503, getErrorBody(503)).setHeader("Content-Type", "text/html")
+				.setHeader("Retry-After", String.valueOf(RETRY_AFTER));
 	}
 	
 	/**
-	 * Responds with a 504 error.
-	 * @param t
-	 * @throws IOException
+	 * Creates a 504 error.
+	 * @return the response
 	 */
-	protected void send504Error(HttpExchange t) throws IOException {
+	protected HttpResponse create504Error() {
 		logger.debug("Sending 504 (Gateway Time-out) back to the browser...");
-		byte[] errorBody = getErrorBody(504);
-		t.sendResponseHeaders(504, errorBody.length);
-		OutputStream os = t.getResponseBody();
-		os.write(errorBody);
-		os.close();
-		t.getResponseBody().close();
-		logger.debug("Sent the response back.");
+		return new HttpResponse(504, getErrorBody(504)).setHeader("Content-Type", "text/html");
 	}
 	
     protected byte[] getErrorBody(int errorCode) {
@@ -119,6 +530,9 @@ public abstract class RdmaHandler implements HttpHandler {
     	case 404: 
     		path = PATH_404;
     		break;
+    	case 503:
+    		path = PATH_503;
+    		break;
     	case 504:
     		path = PATH_504;
     		break;
@@ -148,36 +562,5 @@ public abstract class RdmaHandler implements HttpHandler {
 		InputStream is = Thread.currentThread().getContextClassLoader().getResourceAsStream(path);
 		return IOUtils.toByteArray(is);
 	}
-	
-	
-	/**
-	 * This class tries to connect the client endpoint to the server
-	 * It extends callable to be possible to timeout when the server is offline
-	 */
-	private class RdmaConnectToServer implements Callable<ClientRdmaConnection> {
-		
-		ClientRdmaConnection connection;
-		private String serverIpAddress;
-		private int serverPort;
-		
-		
-		public RdmaConnectToServer(ClientRdmaConnection connection, String serverIpAddress, int serverPort) {
-			this.connection = connection;
-			this.serverIpAddress = serverIpAddress;
-			this.serverPort = serverPort;
-		}
-
-		/**
-		 * Tries to connect the client endpoint to the server
-		 */
-		public ClientRdmaConnection call() throws Exception {
-			logger.debug("Connecting...");
-			connection.rdmaConnect(serverIpAddress, serverPort);
-			logger.debug("Connected.");
-			
-			return connection;
-		}
-		
-	}
 
 }
@@ -1,45 +1,38 @@
 package com.acn.rdma.client_proxy;
 
-import java.io.IOException;
-import java.io.OutputStream;
-import java.sql.Connection;
-import java.util.Base64;
-
-import com.sun.net.httpserver.HttpExchange;
-
 /**
  * The <tt>RdmaImageHandler</tt> class is a specialized <tt>RdmaHandler</tt> for intercepting the requests of
  * the network image from the browser (for example Mozilla) and forwards them to the server by using a 
  * RDMA connection. The connection must be given during the construction of the class.
  * @version 1
  */
-@SuppressWarnings("restriction")
 public class RdmaImageHandler extends RdmaHandler {
 	
-	public RdmaImageHandler(ClientRdmaConnection rdmaConnection, String serverIpAddress, int serverPort) {
-		super(rdmaConnection, serverIpAddress, serverPort);
+	public RdmaImageHandler(ConsistentHashRing<ReplicaSet> servers, HedgingPolicy hedgingPolicy, Prefetcher prefetcher) {
+		super(servers, hedgingPolicy, prefetcher);
 	}
 
 	
 	/**
 	 * Requests the image network.png from the server
 	 * 
-	 * @return the byte array representation of the image
+	 * @param rdmaConnection the connection to the server responsible for the image
+	 * @param acceptEncoding the codings accepted by the browser, or null
+	 * @param range the range requested by the browser, or null
+	 * @return the (encoded) image
 	 * @throws RdmaConnectionException
 	 */
-	private byte[] requestImage() throws RdmaConnectionException {
-		rdmaConnection.rdmaSend(GET_IMAGE.getBytes(), GET_IMAGE_ID);
-		logger.debug("Requested the image with the request " + GET_IMAGE + " and id " + GET_IMAGE_ID);
-		
-		//read the image!
-		byte[] image = rdmaConnection.rdmaRead(RDMA_READ_IMAGE_ID);
-		logger.debug("Got image.");
-		
-		rdmaConnection.rdmaSend(FINAL_SIGNAL_MESSAGE.getBytes(), FINAL_SIGNAL_ID);
-		logger.debug("Sent the final signal message " + new String(FINAL_SIGNAL_MESSAGE) + " with id " + FINAL_SIGNAL_ID);
-		return image;
+	@Override
+	protected Resource requestResource(ClientRdmaConnection rdmaConnection, String acceptEncoding, String range) throws RdmaConnectionException {
+		return exchange(rdmaConnection, GET_IMAGE, GET_IMAGE_ID, RDMA_READ_IMAGE_ID, acceptEncoding, range);
+	}
+	
+	@Override
+	protected String getRequest() {
+		return GET_IMAGE;
 	}
 	
+	
 	/**.
 	 * <p>
 	 * The interceptor sends a 404 HTTP Response code back  to the browser unless
@@ -56,40 +49,28 @@ public class RdmaImageHandler extends RdmaHandler {
 	 * </ul>
 	 * 
 	 * If the communication between the proxy and the server fails, the proxy replies with HTTP 504 (Gateway Time-out).
+	 * If the server has too many concurrent requests, the proxy replies at once with HTTP 503 (Service Unavailable).
 	 * </p>
 	 */
-    public void handle(HttpExchange t) throws IOException {
-    	logger.debug("Starting to handle the request " + t.getRequestURI());
+    public HttpResponse handle(HttpRequest t) {
+    	logger.debug("Starting to handle the request " + t.getTarget());
     	
-    	if (t.getRequestURI().getHost().equals(RDMA_WEBPAGE_URL_PREFIX)) {
+    	if (RDMA_WEBPAGE_URL_PREFIX.equals(t.getHost())) {
     		try {
-    			byte[] image = null;
-    			
-    			synchronized (rdmaConnection) {
-    				if (!rdmaConnection.isConnected()) {
-        				rdmaConnection.restart();
-        				connectToServer();
-    				}
-    					
-    				image = requestImage();
-				}
+    			Resource resource = fetchResource(t.getPath(), t.getAcceptEncoding(), getRange(t), getDeadline(t.getReceived()));
     			
-				byte[] decodedImage = Base64.getMimeDecoder().decode(image);
-				t.sendResponseHeaders(200, decodedImage.length);
-				t.getResponseHeaders().set("Content-Type", "image/png");
 				logger.debug("Sending 200 for the image back to the browser...");
-				OutputStream os = t.getResponseBody();
-        		os.write(decodedImage);
-        		os.close();
-        		logger.debug("Sent the response back.");
-        		
+				return createResponse(resource, "image/png");
+			} catch (ServerOverloadedException e) {
+				logger.debug(e.getMessage());
+				return create503Error();
 			} catch (RdmaConnectionException e) {
 				logger.debug(e.getMessage());
-				send504Error(t);
+				return create504Error();
 			}
     	}
     	else {
-    		send404Error(t);
+    		return create404Error();
     	}
     	
     }
@@ -1,42 +1,36 @@
 package com.acn.rdma.client_proxy;
 
-import java.io.IOException;
-import java.io.OutputStream;
-
-import com.sun.net.httpserver.HttpExchange;
-
 /**
  * The <tt>RdmaIndexHandler</tt> class is a specialized <tt>RdmaHandler</tt> for intercepting the requests of
  * the index from the browser (for example Mozilla) and forwards them to the server by using a 
  * RDMA connection. The connection must be given during the construction of the class.
  * @version 1
  */
-@SuppressWarnings("restriction")
 public class RdmaIndexHandler extends RdmaHandler {
 	
 	
-	public RdmaIndexHandler(ClientRdmaConnection rdmaConnection, String serverIpAddress, int serverPort) {
-		super(rdmaConnection, serverIpAddress, serverPort);
+	public RdmaIndexHandler(ConsistentHashRing<ReplicaSet> servers, HedgingPolicy hedgingPolicy, Prefetcher prefetcher) {
+		super(servers, hedgingPolicy, prefetcher);
 	}
 
 
 	/**
 	 * Requests the file index.html from the server
 	 * 
-	 * @return the byte array representation of the file
+	 * @param rdmaConnection the connection to the server responsible for the index
+	 * @param acceptEncoding the codings accepted by the browser, or null
+	 * @param range the range requested by the browser, or null
+	 * @return the (encoded) file
 	 * @throws RdmaConnectionException
 	 */
-	private byte[] requestIndex() throws RdmaConnectionException {
-		rdmaConnection.rdmaSend(GET_INDEX.getBytes(), GET_INDEX_ID);
-		logger.debug("Sent a " + GET_INDEX + " with id " + GET_INDEX_ID + " to the server.");
-		
-		byte[] index = rdmaConnection.rdmaRead(RDMA_READ_INDEX_ID);
-		logger.debug("Got index: " + index);
-		
-		rdmaConnection.rdmaSend(FINAL_SIGNAL_MESSAGE.getBytes(), FINAL_SIGNAL_ID);
-		logger.debug("Sent the final signal message " + FINAL_SIGNAL_MESSAGE + " with id " + FINAL_SIGNAL_ID);
-		
-		return index;
+	@Override
+	protected Resource requestResource(ClientRdmaConnection rdmaConnection, String acceptEncoding, String range) throws RdmaConnectionException {
+		return exchange(rdmaConnection, GET_INDEX, GET_INDEX_ID, RDMA_READ_INDEX_ID, acceptEncoding, range);
+	}
+	
+	@Override
+	protected String getRequest() {
+		return GET_INDEX;
 	}
 	
 	
@@ -52,43 +46,39 @@ public class RdmaIndexHandler extends RdmaHandler {
 	 *   <li>The index (www.rdmawebpage.com)</li>
 	 *   In this particular case, the proxy forwards the request to the server. The server replies 
 	 *   back with a 200 OK HTTP Response code and the HTML content size and other necessary parameters 
-	 *   to the client proxy, which is forwarded back to the browser.
+	 *   to the client proxy, which is forwarded back to the browser. The server chooses the precompressed variant
+	 *   of the content from the codings accepted by the browser, the proxy passes it through with its Content-Encoding.
+	 *   While the page is sent to the browser, the proxy prefetches the resources embedded in it.
 	 * </ul>
 	 * 
 	 * If the communication between the proxy and the server fails, the proxy replies with HTTP 504 (Gateway Time-out).
+	 * If the server has too many concurrent requests, the proxy replies at once with HTTP 503 (Service Unavailable).
 	 * </p>
 	 */
-    public void handle(HttpExchange t) throws IOException {
-    	logger.debug("Starting to handle the request " + t.getRequestURI());
+    public HttpResponse handle(HttpRequest t) {
+    	logger.debug("Starting to handle the request " + t.getTarget());
 
     	
-    	if (t.getRequestURI().getHost().equals(RDMA_WEBPAGE_URL_PREFIX)) {
+    	if (RDMA_WEBPAGE_URL_PREFIX.equals(t.getHost())) {
         	logger.debug("Found the request");
         	
         	try {
-        		byte[] index = null;
-        		synchronized (rdmaConnection) {
-    				if (!rdmaConnection.isConnected()) {
-    					logger.debug("Restarting ...");
-    					rdmaConnection.restart();
-    					connectToServer();
-    				}
-    				index = requestIndex();
-				}
+        		Resource resource = fetchResource(t.getPath(), t.getAcceptEncoding(), getRange(t), getDeadline(t.getReceived()));
+        		// the browser requests the embedded resources right after the page
+        		prefetchLinks(t, resource);
         		
 	        	logger.debug("Sending 200 for the html file back to the browser...");
-	        	t.sendResponseHeaders(200, index.length);
-	        	OutputStream os = t.getResponseBody();
-	        	os.write(index);
-	        	os.close();
-	        	logger.debug("Sent the response back.");	
+	        	return createResponse(resource, "text/html");
+        	} catch (ServerOverloadedException e) {
+				logger.debug(e.getMessage());
+				return create503Error();
         	} catch (RdmaConnectionException e) {
 				logger.debug(e.getMessage());
-				send504Error(t);
+				return create504Error();
 			}
     	}
     	else {
-    		send404Error(t);
+    		return create404Error();
     	}
     	
     }
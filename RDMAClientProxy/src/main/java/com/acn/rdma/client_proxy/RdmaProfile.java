@@ -0,0 +1,147 @@
+package com.acn.rdma.client_proxy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+/**
+ * This class holds the sizes of the RDMA resources of the proxy: the completion queue and the queue pairs of the
+ * endpoint groups, the event queues of the endpoints and the receives they post at a time.
+ * <p>
+ * A profile is either one of the built-in profiles or a properties file, whose missing keys keep the values of
+ * the default profile:
+ *  <ul>
+ *   <li>small</li>
+ *   Short queues, for a proxy with little traffic.
+ *   <li>default</li>
+ *   The sizes the proxy was always started with.
+ *   <li>large</li>
+ *   Deep queues and more receives posted at a time, for a busy proxy.
+ *  </ul>
+ * </p>
+ * The queue depth and the event queue capacity are only the initial values, the <tt>RdmaTuner</tt> adjusts them
+ * online.
+ *
+ * @see RdmaTuner
+ * @version 1
+ */
+public class RdmaProfile {
+
+	public static final String SMALL = "small";
+	public static final String DEFAULT = "default";
+	public static final String LARGE = "large";
+
+	private static final String TIMEOUT_KEY = "timeout";
+	private static final String QUEUE_DEPTH_KEY = "queue.depth";
+	private static final String MAX_SGE_KEY = "max.sge";
+	private static final String CQ_SIZE_KEY = "cq.size";
+	private static final String EVENT_QUEUE_CAPACITY_KEY = "event.queue.capacity";
+	private static final String RECEIVE_BATCH_KEY = "receive.batch";
+
+	private final int timeout;
+	private final int queueDepth;
+	private final int maxSge;
+	private final int cqSize;
+	private final int eventQueueCapacity;
+	private final int receiveBatch;
+
+	/**
+	 * Constructs a profile.
+	 * @param timeout the timeout of the connection manager in milliseconds
+	 * @param queueDepth the initial number of working requests of the send and the receive queue of a queue pair
+	 * @param maxSge the number of scatter gather elements of a working request
+	 * @param cqSize the number of events of the completion queue
+	 * @param eventQueueCapacity the initial number of completion events an endpoint keeps before they are delivered
+	 * @param receiveBatch the number of receives posted at a time
+	 */
+	public RdmaProfile(int timeout, int queueDepth, int maxSge, int cqSize, int eventQueueCapacity, int receiveBatch) {
+		if (timeout <= 0 || queueDepth <= 0 || maxSge <= 0 || cqSize <= 0 || eventQueueCapacity <= 0
+				|| receiveBatch <= 0) {
+			throw new IllegalArgumentException("The sizes of the profile must be positive.");
+		}
+		if (queueDepth > cqSize) throw new IllegalArgumentException("The queue depth must not exceed the completion queue.");
+		if (receiveBatch > queueDepth) throw new IllegalArgumentException("The receive batch must not exceed the queue depth.");
+		this.timeout = timeout;
+		this.queueDepth = queueDepth;
+		this.maxSge = maxSge;
+		this.cqSize = cqSize;
+		this.eventQueueCapacity = eventQueueCapacity;
+		this.receiveBatch = receiveBatch;
+	}
+
+	/**
+	 * Gets a built-in profile, or loads a profile from a properties file.
+	 * @param profile the name of a built-in profile, or the path of a properties file
+	 * @return the profile
+	 * @throws IOException if the file cannot be read.
+	 * @throws IllegalArgumentException if a size is not valid.
+	 */
+	public static RdmaProfile load(String profile) throws IOException {
+		if (SMALL.equals(profile)) return new RdmaProfile(1000, 32, 4, 64, 10, 4);
+		if (DEFAULT.equals(profile)) return getDefault();
+		if (LARGE.equals(profile)) return new RdmaProfile(1000, 256, 4, 1024, 64, 16);
+		Properties properties = new Properties();
+		try (InputStream in = Files.newInputStream(Paths.get(profile))) {
+			properties.load(in);
+		}
+		RdmaProfile defaults = getDefault();
+		return new RdmaProfile(
+				getInt(properties, TIMEOUT_KEY, defaults.timeout),
+				getInt(properties, QUEUE_DEPTH_KEY, defaults.queueDepth),
+				getInt(properties, MAX_SGE_KEY, defaults.maxSge),
+				getInt(properties, CQ_SIZE_KEY, defaults.cqSize),
+				getInt(properties, EVENT_QUEUE_CAPACITY_KEY, defaults.eventQueueCapacity),
+				getInt(properties, RECEIVE_BATCH_KEY, defaults.receiveBatch));
+	}
+
+	/**
+	 * Gets the default profile.
+	 * @return the profile
+	 */
+	public static RdmaProfile getDefault() {
+		return new RdmaProfile(1000, 128, 4, 128, 10, 8);
+	}
+
+	public int getTimeout() {
+		return timeout;
+	}
+
+	public int getQueueDepth() {
+		return queueDepth;
+	}
+
+	public int getMaxSge() {
+		return maxSge;
+	}
+
+	public int getCqSize() {
+		return cqSize;
+	}
+
+	public int getEventQueueCapacity() {
+		return eventQueueCapacity;
+	}
+
+	public int getReceiveBatch() {
+		return receiveBatch;
+	}
+
+	private static int getInt(Properties properties, String key, int defaultValue) {
+		String value = properties.getProperty(key);
+		if (value == null) return defaultValue;
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("The value of " + key + " is not a number: " + value);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "timeout " + timeout + " ms, queue depth " + queueDepth + ", max sge " + maxSge + ", cq size " + cqSize
+				+ ", event queue capacity " + eventQueueCapacity + ", receive batch " + receiveBatch;
+	}
+
+}
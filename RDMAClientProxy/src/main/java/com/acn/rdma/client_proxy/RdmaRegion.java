@@ -0,0 +1,51 @@
+package com.acn.rdma.client_proxy;
+
+/**
+ * This class represents the information the server sends about a buffer which the proxy can read with
+ * one-sided RDMA read operations: the status code, the address, the length and the key of the buffer.
+ * <ul>
+ *   <li>200</li>
+ *   The buffer is the registered reply of the resource (its length, then the reply).
+ *   <li>206</li>
+ *   The buffer is the registered content of the resource, the proxy reads only the part it needs.
+ * </ul>
+ * @version 1
+ */
+public class RdmaRegion {
+	
+	private int statusCode;
+	private long address;
+	private int length;
+	private int key;
+	
+	/**
+	 * Constructs the region.
+	 * @param statusCode the status code sent by the server
+	 * @param address the address of the remote buffer
+	 * @param length the length of the remote buffer
+	 * @param key the key of the remote buffer
+	 */
+	public RdmaRegion(int statusCode, long address, int length, int key) {
+		this.statusCode = statusCode;
+		this.address = address;
+		this.length = length;
+		this.key = key;
+	}
+	
+	public int getStatusCode() {
+		return statusCode;
+	}
+	
+	public long getAddress() {
+		return address;
+	}
+	
+	public int getLength() {
+		return length;
+	}
+	
+	public int getKey() {
+		return key;
+	}
+
+}
@@ -0,0 +1,254 @@
+package com.acn.rdma.client_proxy;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+/**
+ * This class sizes the RDMA resources of the endpoints from a profile (see <tt>RdmaProfile</tt>) and adjusts them
+ * online from what the endpoints observe.
+ * <p>
+ * The endpoints report the working requests they have outstanding on a queue of their queue pair, the latency of
+ * their completions, and the completion events which found their event queue full. Every adjust period, the
+ * settings are computed again:
+ *  <ul>
+ *   <li>Queue depth</li>
+ *   Twice the working requests ever outstanding at once, or in flight on average by Little's law (the completion
+ *   rate times the completion latency), rounded up to a power of two. It is kept between the minimal depth and
+ *   the size of the completion queue.
+ *   <li>Event queue capacity</li>
+ *   Doubled after a period with queue-full events, up to the maximal capacity.
+ *   <li>Completion queue size</li>
+ *   The send and the receive queue of the endpoints of a group: the endpoint connected to the server and the one
+ *   prepared for the restart. The completion queue is created with the first endpoint of the group, so this size
+ *   is only recommended for the next start.
+ *  </ul>
+ * </p>
+ * The queue depth and the event queue capacity apply to the endpoints created afterwards, the connected endpoints
+ * keep theirs. The settings and the observations are exported as a JMX bean (see <tt>RdmaTunerMBean</tt>), and
+ * every change is logged.
+ *
+ * @see TunedEndpointGroup
+ * @version 1
+ */
+public class RdmaTuner implements RdmaTunerMBean {
+
+	private static final Logger logger = Logger.getLogger(RdmaTuner.class);
+
+	private static final String OBJECT_NAME = "com.acn.rdma.client_proxy:type=RdmaTuner";
+	private static final long ADJUST_PERIOD = 10; // seconds
+	private static final int MIN_QUEUE_DEPTH = 16;
+	private static final int MAX_EVENT_QUEUE_CAPACITY = 1024;
+	private static final int MAX_CQ_SIZE = 65536;
+	private static final int ENDPOINTS_PER_GROUP = 2; // connected and prepared
+	private static final double SMOOTHING = 0.25; // weight of the last period in the completion latency
+
+	private final RdmaProfile profile;
+	private final AtomicInteger peakOutstanding;
+	private final AtomicInteger endpoints;
+	private final AtomicLong completions; // of the period
+	private final AtomicLong latencies; // of the period, nanoseconds
+	private final AtomicLong queueFullEvents;
+
+	private volatile int queueDepth;
+	private volatile int eventQueueCapacity;
+	private volatile int recommendedCqSize;
+	private volatile double completionLatency; // nanoseconds
+	private long lastQueueFullEvents;
+	private long lastAdjust; // System.nanoTime()
+	private ScheduledExecutorService timer;
+
+	/**
+	 * Constructs the tuner, which starts with the sizes of the profile.
+	 * @param profile the profile
+	 */
+	public RdmaTuner(RdmaProfile profile) {
+		this.profile = profile;
+		this.peakOutstanding = new AtomicInteger();
+		this.endpoints = new AtomicInteger();
+		this.completions = new AtomicLong();
+		this.latencies = new AtomicLong();
+		this.queueFullEvents = new AtomicLong();
+		this.queueDepth = profile.getQueueDepth();
+		this.eventQueueCapacity = profile.getEventQueueCapacity();
+		this.recommendedCqSize = profile.getCqSize();
+		this.completionLatency = -1;
+	}
+
+	/**
+	 * Exports the tuner as a JMX bean and adjusts the settings periodically in the background.
+	 */
+	public synchronized void start() {
+		if (timer != null) return;
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+		} catch (JMException e) {
+			logger.debug("Could not export the tuner: " + e.getMessage());
+		}
+		lastAdjust = System.nanoTime();
+		timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "rdma-tuner");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		timer.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				adjust();
+			}
+		}, ADJUST_PERIOD, ADJUST_PERIOD, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Records the working requests outstanding on a queue of a queue pair, right after they were posted.
+	 * @param workRequests the number of working requests
+	 */
+	public void recordOutstanding(int workRequests) {
+		int peak;
+		while ((peak = peakOutstanding.get()) < workRequests) {
+			if (peakOutstanding.compareAndSet(peak, workRequests)) return;
+		}
+	}
+
+	/**
+	 * Records the completion of a working request.
+	 * @param latency the time from the post to the completion in nanoseconds
+	 */
+	public void recordCompletion(long latency) {
+		completions.incrementAndGet();
+		latencies.addAndGet(latency);
+	}
+
+	/**
+	 * Records a completion event which found the event queue of its endpoint full.
+	 */
+	public void recordQueueFull() {
+		queueFullEvents.incrementAndGet();
+	}
+
+	/**
+	 * Records an endpoint which was connected.
+	 */
+	public void endpointOpened() {
+		endpoints.incrementAndGet();
+	}
+
+	/**
+	 * Records an endpoint which was closed.
+	 */
+	public void endpointClosed() {
+		endpoints.decrementAndGet();
+	}
+
+	/**
+	 * Computes the settings again from the observations since the last adjustment.
+	 */
+	public synchronized void adjust() {
+		long now = System.nanoTime();
+		adjust(now - lastAdjust);
+		lastAdjust = now;
+	}
+
+	/**
+	 * Computes the settings again from the observations of the period.
+	 * @param period the time since the last adjustment in nanoseconds
+	 */
+	synchronized void adjust(long period) {
+		long count = completions.getAndSet(0);
+		long sum = latencies.getAndSet(0);
+		if (count > 0) {
+			double latency = (double) sum / count;
+			completionLatency = completionLatency < 0 ? latency : (1 - SMOOTHING) * completionLatency + SMOOTHING * latency;
+		}
+		// Little's law: the working requests in flight on average on one endpoint
+		int inFlight = 0;
+		if (count > 0 && period > 0) {
+			inFlight = (int) Math.ceil(count * completionLatency / period / Math.max(1, endpoints.get()));
+		}
+		int needed = Math.max(peakOutstanding.get(), inFlight);
+		int depth = queueDepth;
+		int cqSize = recommendedCqSize;
+		if (needed > 0) {
+			depth = Math.min(profile.getCqSize(), Math.max(MIN_QUEUE_DEPTH, nextPowerOfTwo(2 * needed)));
+			cqSize = Math.min(MAX_CQ_SIZE, nextPowerOfTwo(2 * depth * ENDPOINTS_PER_GROUP));
+		}
+		int capacity = eventQueueCapacity;
+		long full = queueFullEvents.get();
+		if (full > lastQueueFullEvents) capacity = Math.min(MAX_EVENT_QUEUE_CAPACITY, 2 * capacity);
+		lastQueueFullEvents = full;
+
+		if (depth != queueDepth || capacity != eventQueueCapacity || cqSize != recommendedCqSize) {
+			logger.debug("Queue depth " + depth + ", event queue capacity " + capacity + ", recommended cq size "
+					+ cqSize + " (" + peakOutstanding.get() + " outstanding at the peak, " + inFlight + " in flight, "
+					+ full + " queue-full events).");
+		}
+		queueDepth = depth;
+		eventQueueCapacity = capacity;
+		recommendedCqSize = cqSize;
+	}
+
+	/**
+	 * Gets the profile the tuner started with.
+	 * @return the profile
+	 */
+	public RdmaProfile getProfile() {
+		return profile;
+	}
+
+	@Override
+	public int getQueueDepth() {
+		return queueDepth;
+	}
+
+	@Override
+	public int getEventQueueCapacity() {
+		return eventQueueCapacity;
+	}
+
+	@Override
+	public int getCqSize() {
+		return profile.getCqSize();
+	}
+
+	@Override
+	public int getRecommendedCqSize() {
+		return recommendedCqSize;
+	}
+
+	@Override
+	public int getPeakOutstanding() {
+		return peakOutstanding.get();
+	}
+
+	@Override
+	public int getEndpoints() {
+		return endpoints.get();
+	}
+
+	@Override
+	public long getCompletionLatency() {
+		double latency = completionLatency;
+		return latency < 0 ? -1 : TimeUnit.NANOSECONDS.toMicros((long) latency);
+	}
+
+	@Override
+	public long getQueueFullEvents() {
+		return queueFullEvents.get();
+	}
+
+	private static int nextPowerOfTwo(int value) {
+		if (value <= 1) return 1;
+		return Integer.highestOneBit(value - 1) << 1;
+	}
+
+}
@@ -0,0 +1,59 @@
+package com.acn.rdma.client_proxy;
+
+/**
+ * The management interface of the <tt>RdmaTuner</tt>, which exports the settings of the RDMA resources and the
+ * observations they are computed from.
+ * @see RdmaTuner
+ * @version 1
+ */
+public interface RdmaTunerMBean {
+
+	/**
+	 * Gets the queue depth of the queue pairs created from now on.
+	 * @return the number of working requests of the send and the receive queue
+	 */
+	int getQueueDepth();
+
+	/**
+	 * Gets the capacity of the event queues of the endpoints created from now on.
+	 * @return the number of completion events
+	 */
+	int getEventQueueCapacity();
+
+	/**
+	 * Gets the size of the completion queue of the profile.
+	 * @return the number of completion events
+	 */
+	int getCqSize();
+
+	/**
+	 * Gets the recommended size of the completion queue, for the next start.
+	 * @return the number of completion events
+	 */
+	int getRecommendedCqSize();
+
+	/**
+	 * Gets the most working requests which were outstanding at once on a queue of a queue pair.
+	 * @return the number of working requests
+	 */
+	int getPeakOutstanding();
+
+	/**
+	 * Gets the number of connected endpoints.
+	 * @return the number of endpoints
+	 */
+	int getEndpoints();
+
+	/**
+	 * Gets the smoothed latency of the completions.
+	 * @return the latency in microseconds, or -1 before the first completion
+	 */
+	long getCompletionLatency();
+
+	/**
+	 * Gets the number of completion events which found the event queue of their endpoint full.
+	 * @return the number of events
+	 */
+	long getQueueFullEvents();
+
+}
@@ -0,0 +1,87 @@
+package com.acn.rdma.client_proxy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * This class represents a set of replicated servers, which hold identical content.
+ * <p>
+ * The requests are spread across the replicas with the power-of-two-choices: two healthy replicas are
+ * chosen at random and the one with the lower load is taken. The load of a replica combines the number
+ * of outstanding operations with the exponentially weighted moving average of the observed latency
+ * (see <tt>RdmaConnectionManager</tt>). A replica whose connection was broken is not healthy and is not
+ * chosen until its connection is reestablished.
+ * </p>
+ *
+ * @see RdmaConnectionManager
+ * @version 1
+ */
+public class ReplicaSet {
+
+	private String name;
+	private List<RdmaConnectionManager> replicas;
+
+	/**
+	 * Constructs the replica set.
+	 * @param name the unique name of the replica set (used for the consistent-hash ring)
+	 * @param replicas the managers of the connections to the replicas
+	 */
+	public ReplicaSet(String name, List<RdmaConnectionManager> replicas) {
+		if (replicas.isEmpty()) throw new IllegalArgumentException("A replica set needs at least one replica.");
+		this.name = name;
+		this.replicas = replicas;
+	}
+
+	/**
+	 * Selects the replica for the next request.
+	 * @return the replica with the lower load of two random healthy replicas. If no replica is healthy,
+	 * a random replica is returned, so that the request can try to reconnect.
+	 */
+	public RdmaConnectionManager select() {
+		return select(null);
+	}
+	
+	/**
+	 * Selects the replica for a hedged request, which must be another replica than the one of the first request.
+	 * @param excluded the replica which should not be chosen (null to choose from all replicas)
+	 * @return the selected replica. If no replica is healthy, a random replica is returned if no replica was
+	 * excluded, otherwise null.
+	 */
+	public RdmaConnectionManager select(RdmaConnectionManager excluded) {
+		List<RdmaConnectionManager> healthy = new ArrayList<RdmaConnectionManager>(replicas.size());
+		for (RdmaConnectionManager replica : replicas) {
+			if (replica.isHealthy() && replica != excluded) healthy.add(replica);
+		}
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		if (healthy.isEmpty()) {
+			if (excluded != null) return null;
+			return replicas.get(random.nextInt(replicas.size()));
+		}
+		if (healthy.size() == 1) return healthy.get(0);
+
+		int first = random.nextInt(healthy.size());
+		int second = random.nextInt(healthy.size() - 1);
+		if (second >= first) second++;
+		RdmaConnectionManager a = healthy.get(first);
+		RdmaConnectionManager b = healthy.get(second);
+		return a.getLoad() <= b.getLoad() ? a : b;
+	}
+
+	/**
+	 * Gets the number of replicas (healthy or not).
+	 * @return the number of replicas
+	 */
+	public int size() {
+		return replicas.size();
+	}
+
+	/**
+	 * Gets the unique name of the replica set.
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+
+}
@@ -0,0 +1,91 @@
+package com.acn.rdma.client_proxy;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * This class represents a resource fetched from the server. The reply of the server contains the content coding
+ * of the resource (identity, gzip or deflate), a new line and the content. For a range request, only the
+ * requested part of the (not encoded) resource is fetched.
+ * @version 1
+ */
+public class Resource {
+	
+	public static final String IDENTITY = "identity";
+	
+	private String encoding;
+	private byte[] content;
+	private ByteRange range;
+	private long totalLength;
+	
+	/**
+	 * Constructs the resource from the reply of the server.
+	 * @param reply the reply of the server
+	 */
+	public Resource(byte[] reply) {
+		int newLine = 0;
+		while (newLine < reply.length && reply[newLine] != '\n') newLine++;
+		if (newLine == reply.length) {
+			// the reply has no coding
+			this.encoding = IDENTITY;
+			this.content = reply;
+		} else {
+			this.encoding = new String(reply, 0, newLine, StandardCharsets.US_ASCII);
+			this.content = Arrays.copyOfRange(reply, newLine + 1, reply.length);
+		}
+	}
+	
+	/**
+	 * Constructs a part of the resource, which is never encoded.
+	 * @param content the bytes of the range, empty if the range is not satisfiable
+	 * @param range the range of the resource
+	 * @param totalLength the length of the whole resource
+	 */
+	public Resource(byte[] content, ByteRange range, long totalLength) {
+		this.encoding = IDENTITY;
+		this.content = content;
+		this.range = range;
+		this.totalLength = totalLength;
+	}
+	
+	/**
+	 * Gets the content coding of the resource, the value of the Content-Encoding header.
+	 * @return the coding
+	 */
+	public String getEncoding() {
+		return encoding;
+	}
+	
+	/**
+	 * Checks if the content is encoded.
+	 * @return true if the coding is not identity, false otherwise.
+	 */
+	public boolean isEncoded() {
+		return !IDENTITY.equals(encoding);
+	}
+	
+	/**
+	 * Gets the (encoded) content of the resource.
+	 * @return the content in bytes
+	 */
+	public byte[] getContent() {
+		return content;
+	}
+	
+	/**
+	 * Gets the range of the resource, if only a part of it was fetched.
+	 * @return the range, or null if the content is the whole resource
+	 */
+	public ByteRange getRange() {
+		return range;
+	}
+	
+	/**
+	 * Gets the length of the whole resource, if only a part of it was fetched.
+	 * @return the length of the whole resource
+	 */
+	public long getTotalLength() {
+		return totalLength;
+	}
+
+}
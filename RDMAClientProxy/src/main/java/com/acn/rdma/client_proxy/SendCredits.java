@@ -0,0 +1,83 @@
+package com.acn.rdma.client_proxy;
+
+/**
+ * This class counts the credits of the sends of one connection: the receive slots of the server which are known
+ * to be free for the messages of the proxy.
+ * <p>
+ * Every send spends a credit and every reply returns the credits of the messages the server has received since
+ * the last reply. The deferred sends (see <tt>ClientEndpointDiSNIAdapter</tt>) take the credits left as follows:
+ *  <ul>
+ *   <li>In front of a request</li>
+ *   The request spent its own credit already and its reply returns the credits, so the deferred sends may take
+ *   all the credits left.
+ *   <li>In front of other working requests (RDMA reads)</li>
+ *   No reply follows, so one credit is kept for the next request.
+ *   <li>On their own</li>
+ *   The connection stayed idle for the flush delay, so the deferred sends may take all the credits left, even
+ *   the last one (the next request is covered by the retries of the queue pair if it comes before the reply).
+ *  </ul>
+ * </p>
+ * The credits may become negative when a request is sent without credits, after the idle flush took the last one.
+ *
+ * @see ClientEndpointDiSNIAdapter
+ * @version 1
+ */
+public class SendCredits {
+
+	private final int initialCredits;
+	private int credits;
+
+	/**
+	 * Constructs the credits of a new connection.
+	 * @param initialCredits the credits before the first reply
+	 */
+	public SendCredits(int initialCredits) {
+		if (initialCredits < 1) throw new IllegalArgumentException("The initial credits must be positive.");
+		this.initialCredits = initialCredits;
+		this.credits = initialCredits;
+	}
+
+	/**
+	 * Gets the credits left.
+	 * @return the credits, negative if more messages were sent than the server has slots for
+	 */
+	public int get() {
+		return credits;
+	}
+
+	/**
+	 * Spends the credits of messages which are posted.
+	 * @param sends the number of messages
+	 */
+	public void spend(int sends) {
+		credits -= sends;
+	}
+
+	/**
+	 * Takes the credits returned by a reply.
+	 * @param returned the number of credits
+	 */
+	public void add(int returned) {
+		credits += returned;
+	}
+
+	/**
+	 * Spends the credits of the deferred sends which may be posted now, the oldest first.
+	 * @param deferred the number of deferred sends
+	 * @param keepOne true if one credit must be kept for the next request, because no reply follows the post
+	 * @return the number of deferred sends to post, the others stay deferred
+	 */
+	public int takeDeferred(int deferred, boolean keepOne) {
+		int count = Math.max(0, Math.min(deferred, keepOne ? credits - 1 : credits));
+		credits -= count;
+		return count;
+	}
+
+	/**
+	 * Resets the credits for a new connection.
+	 */
+	public void reset() {
+		credits = initialCredits;
+	}
+
+}
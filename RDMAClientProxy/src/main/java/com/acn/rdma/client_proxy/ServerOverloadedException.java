@@ -0,0 +1,30 @@
+package com.acn.rdma.client_proxy;
+
+/**
+ * The ServerOverloadedException occurs when an operation is not admitted by the limiter of the server, because
+ * the server already has as many concurrent operations as its limit, when the proxy has no thread left for the
+ * fetch (see <tt>HedgingPolicy</tt>), or when the server has no receive left for the deferred messages of the
+ * proxy (see <tt>ClientEndpointDiSNIAdapter</tt>). The refused operation was not sent to the server.
+ * 
+ * @see ConcurrencyLimiter
+ * @version 1
+ */
+public class ServerOverloadedException extends RdmaConnectionException {
+
+    /**
+     * 
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructs a new ServerOverloadedException class with an argument indicating
+     * the exception.
+     * 
+     * @param message
+     *            The message indicating the problem.
+     */
+    public ServerOverloadedException(String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,40 @@
+package com.acn.rdma.client_proxy;
+
+import java.io.IOException;
+
+import com.ibm.disni.rdma.RdmaActiveEndpoint;
+import com.ibm.disni.rdma.RdmaActiveEndpointGroup;
+import com.ibm.disni.rdma.verbs.IbvQP;
+
+/**
+ * This class is an endpoint group sized by the <tt>RdmaTuner</tt>. The completion queue is created with the size
+ * of the profile, but every queue pair is created with the queue depth of the tuner at the time, instead of a
+ * depth fixed for the whole group.
+ * @see RdmaTuner
+ * @version 1
+ */
+public class TunedEndpointGroup<C extends RdmaActiveEndpoint> extends RdmaActiveEndpointGroup<C> {
+
+	private final RdmaTuner tuner;
+
+	/**
+	 * Constructs the group with the sizes of the profile of the tuner.
+	 * @param tuner the tuner
+	 * @throws IOException
+	 */
+	public TunedEndpointGroup(RdmaTuner tuner) throws IOException {
+		super(tuner.getProfile().getTimeout(), false, tuner.getQueueDepth(), tuner.getProfile().getMaxSge(),
+				tuner.getProfile().getCqSize());
+		this.tuner = tuner;
+	}
+
+	/**
+	 * Creates the queue pair of the endpoint with the current queue depth of the tuner.
+	 */
+	@Override
+	public synchronized IbvQP createQpProvider(C endpoint) throws IOException {
+		maxWR = tuner.getQueueDepth();
+		return super.createQpProvider(endpoint);
+	}
+
+}
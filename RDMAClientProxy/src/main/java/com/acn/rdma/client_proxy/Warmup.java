@@ -0,0 +1,180 @@
+package com.acn.rdma.client_proxy;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * This class warms up the proxy before it reports ready. It sends synthetic requests of a browser to the
+ * interception port over the loopback interface, so that they take the whole path of the requests of the browser:
+ * the front end and the parser, the handlers, the connections to the servers and their RDMA operations. The
+ * classes are loaded and initialized and the path is compiled by the JIT before the first request of the browser.
+ * <p>
+ * The requests are sent as a browser loads the page: the index, then the image, with and without compression,
+ * and a range of the image. The image is requested right after the index, so it takes the prefetched image
+ * and no prefetched resource is left behind. The warmup stops at the first failure (for example if no server is
+ * reachable yet), the proxy starts anyway.
+ * </p>
+ * @see ClientProxy
+ * @version 1
+ */
+public class Warmup {
+
+	private static final Logger logger = Logger.getLogger(Warmup.class);
+
+	public static final int DEFAULT_REQUESTS = 3000;
+
+	private static final int TIMEOUT = 10000; // milliseconds
+	private static final String HOST = RdmaHandler.RDMA_WEBPAGE_URL_PREFIX;
+	private static final String[] REQUESTS = {
+		"GET / HTTP/1.1\r\nHost: " + HOST + "\r\n\r\n",
+		"GET /network.png HTTP/1.1\r\nHost: " + HOST + "\r\n\r\n",
+		"GET / HTTP/1.1\r\nHost: " + HOST + "\r\nAccept-Encoding: gzip, deflate\r\n\r\n",
+		"GET /network.png HTTP/1.1\r\nHost: " + HOST + "\r\nAccept-Encoding: gzip, deflate\r\n\r\n",
+		"GET /network.png HTTP/1.1\r\nHost: " + HOST + "\r\nRange: bytes=0-1023\r\n\r\n"
+	};
+
+	private int port;
+	private int requests;
+
+	/**
+	 * Constructs the warmup.
+	 * @param port the interception port of the proxy
+	 * @param requests the number of synthetic requests
+	 */
+	public Warmup(int port, int requests) {
+		this.port = port;
+		this.requests = requests;
+	}
+
+	/**
+	 * Sends the synthetic requests one after the other on one connection, which is opened again if the proxy
+	 * closes it.
+	 * @return the number of requests which were answered successfully
+	 */
+	public int run() {
+		logger.debug("Warming up with " + requests + " requests...");
+		long start = System.nanoTime();
+		int answered = 0;
+		Socket socket = null;
+		InputStream in = null;
+		try {
+			for (int i = 0; i < requests; i++) {
+				if (socket == null) {
+					socket = connect();
+					in = new BufferedInputStream(socket.getInputStream());
+				}
+				OutputStream out = socket.getOutputStream();
+				out.write(REQUESTS[i % REQUESTS.length].getBytes(StandardCharsets.ISO_8859_1));
+				out.flush();
+				int status = readResponse(in);
+				if (status < 0) {
+					status = -status;
+					socket.close();
+					socket = null;
+				}
+				if (status >= 400) {
+					logger.debug("Stopped the warmup, the proxy answered " + status + ".");
+					break;
+				}
+				answered++;
+			}
+		} catch (IOException e) {
+			logger.debug("Stopped the warmup: " + e.getMessage());
+		} finally {
+			if (socket != null) {
+				try {
+					socket.close();
+				} catch (IOException e) {
+					logger.debug(e.getMessage());
+				}
+			}
+		}
+		logger.debug("Warmed up with " + answered + " requests in "
+				+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms.");
+		return answered;
+	}
+
+	/**
+	 * Opens a connection to the interception port.
+	 * @return the connection
+	 * @throws IOException if the connection cannot be opened.
+	 */
+	private Socket connect() throws IOException {
+		Socket socket = new Socket();
+		socket.setTcpNoDelay(true);
+		socket.setSoTimeout(TIMEOUT);
+		socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), TIMEOUT);
+		return socket;
+	}
+
+	/**
+	 * Reads a response: the status line, the headers and the body of the length given by the headers.
+	 * @param in the stream of the connection
+	 * @return the status of the response, negated if the proxy closes the connection after it
+	 * @throws IOException if the response cannot be read.
+	 */
+	private static int readResponse(InputStream in) throws IOException {
+		String statusLine = readLine(in);
+		String[] fields = statusLine.split(" ");
+		int status;
+		try {
+			status = Integer.parseInt(fields[1]);
+		} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+			throw new IOException("Malformed status line " + statusLine);
+		}
+		long contentLength = 0;
+		boolean close = false;
+		String header;
+		while (!(header = readLine(in)).isEmpty()) {
+			int colon = header.indexOf(':');
+			if (colon < 0) continue;
+			String name = header.substring(0, colon).trim();
+			String value = header.substring(colon + 1).trim();
+			if (name.equalsIgnoreCase("Content-Length")) {
+				try {
+					contentLength = Long.parseLong(value);
+				} catch (NumberFormatException e) {
+					throw new IOException("Malformed header " + header);
+				}
+			} else if (name.equalsIgnoreCase("Connection") && value.equalsIgnoreCase("close")) {
+				close = true;
+			}
+		}
+		while (contentLength > 0) {
+			long skipped = in.skip(contentLength);
+			if (skipped <= 0) {
+				if (in.read() < 0) throw new IOException("The response ended before its body.");
+				skipped = 1;
+			}
+			contentLength -= skipped;
+		}
+		return close ? -status : status;
+	}
+
+	/**
+	 * Reads a line ended by CRLF.
+	 * @param in the stream of the connection
+	 * @return the line without the CRLF
+	 * @throws IOException if the connection is closed before the end of the line.
+	 */
+	private static String readLine(InputStream in) throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int b;
+		while ((b = in.read()) != '\n') {
+			if (b < 0) throw new IOException("The connection was closed by the proxy.");
+			if (b != '\r') line.write(b);
+		}
+		return new String(line.toByteArray(), StandardCharsets.ISO_8859_1);
+	}
+
+}
@@ -0,0 +1,61 @@
+package com.acn.rdma.client_proxy;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the parser of the Range header.
+ */
+public class ByteRangeTest extends TestCase
+{
+    private static final long LENGTH = 10000;
+
+    public ByteRangeTest( String testName )
+    {
+        super( testName );
+    }
+
+    public void testClosedRange()
+    {
+        assertRange( 0, 499, ByteRange.parse( "bytes=0-499", LENGTH ) );
+        assertEquals( 500, ByteRange.parse( "bytes=0-499", LENGTH ).getLength() );
+    }
+
+    public void testOpenRange()
+    {
+        assertRange( 9500, 9999, ByteRange.parse( "bytes=9500-", LENGTH ) );
+    }
+
+    public void testSuffixRange()
+    {
+        assertRange( 9500, 9999, ByteRange.parse( "bytes=-500", LENGTH ) );
+        assertRange( 0, 9999, ByteRange.parse( "bytes=-20000", LENGTH ) );
+    }
+
+    public void testEndIsClampedToLength()
+    {
+        assertRange( 9000, 9999, ByteRange.parse( "bytes=9000-20000", LENGTH ) );
+    }
+
+    public void testUnsatisfiableRange()
+    {
+        assertFalse( ByteRange.parse( "bytes=10000-", LENGTH ).isSatisfiable() );
+        assertFalse( ByteRange.parse( "bytes=-0", LENGTH ).isSatisfiable() );
+    }
+
+    public void testIgnoredRanges()
+    {
+        assertNull( ByteRange.parse( null, LENGTH ) );
+        assertNull( ByteRange.parse( "items=0-1", LENGTH ) );
+        assertNull( ByteRange.parse( "bytes=0-1,5-6", LENGTH ) );
+        assertNull( ByteRange.parse( "bytes=5-1", LENGTH ) );
+        assertNull( ByteRange.parse( "bytes=a-b", LENGTH ) );
+        assertNull( ByteRange.parse( "bytes=-", LENGTH ) );
+    }
+
+    private static void assertRange( long start, long end, ByteRange range )
+    {
+        assertTrue( range.isSatisfiable() );
+        assertEquals( start, range.getStart() );
+        assertEquals( end, range.getEnd() );
+    }
+}
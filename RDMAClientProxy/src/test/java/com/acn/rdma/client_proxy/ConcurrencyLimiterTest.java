@@ -0,0 +1,67 @@
+package com.acn.rdma.client_proxy;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the adaptive limit of the concurrent operations on a server.
+ */
+public class ConcurrencyLimiterTest extends TestCase
+{
+    private static final long LATENCY = 100000; // nanoseconds
+
+    public ConcurrencyLimiterTest( String testName )
+    {
+        super( testName );
+    }
+
+    public void testOperationsOverTheLimitAreRejected()
+    {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter( 2, 4 );
+        assertTrue( limiter.tryAcquire() );
+        assertTrue( limiter.tryAcquire() );
+        assertFalse( limiter.tryAcquire() );
+        limiter.cancel();
+        assertTrue( limiter.tryAcquire() );
+    }
+
+    public void testLimitGrowsWhileLatencyIsFlat()
+    {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter( 2, 4 );
+        for ( int i = 0; i < 100; i++ )
+        {
+            int admitted = 0;
+            while ( limiter.tryAcquire() )
+            {
+                admitted++;
+            }
+            for ( int j = 0; j < admitted; j++ )
+            {
+                limiter.release( LATENCY );
+            }
+        }
+        assertEquals( 4, limiter.getLimit() );
+    }
+
+    public void testLimitShrinksWhenLatencyGrows()
+    {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter( 8, 8 );
+        assertTrue( limiter.tryAcquire() );
+        limiter.release( LATENCY );
+        assertTrue( limiter.tryAcquire() );
+        limiter.release( 10 * LATENCY );
+        assertEquals( 6, limiter.getLimit() );
+    }
+
+    public void testFailuresShrinkTheLimitToOne()
+    {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter( 8, 8 );
+        for ( int i = 0; i < 10; i++ )
+        {
+            assertTrue( limiter.tryAcquire() );
+            limiter.release( -1 );
+        }
+        assertEquals( 1, limiter.getLimit() );
+        assertTrue( limiter.tryAcquire() );
+        assertFalse( limiter.tryAcquire() );
+    }
+}
@@ -0,0 +1,100 @@
+package com.acn.rdma.client_proxy;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the consistent-hash ring.
+ */
+public class ConsistentHashRingTest extends TestCase
+{
+    private static final int KEYS = 10000;
+
+    public ConsistentHashRingTest( String testName )
+    {
+        super( testName );
+    }
+
+    public void testEmptyRing()
+    {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<String>();
+        assertTrue( ring.isEmpty() );
+        assertNull( ring.get( "/index.html" ) );
+    }
+
+    public void testSameKeySameNode()
+    {
+        ConsistentHashRing<String> ring = newRing( 3 );
+        assertEquals( ring.get( "/network.png" ), ring.get( "/network.png" ) );
+    }
+
+    public void testKeysAreSpreadEvenly()
+    {
+        ConsistentHashRing<String> ring = newRing( 4 );
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for ( int i = 0; i < KEYS; i++ )
+        {
+            String node = ring.get( "/resource/" + i );
+            Integer count = counts.get( node );
+            counts.put( node, count == null ? 1 : count + 1 );
+        }
+        assertEquals( 4, counts.size() );
+        for ( int count : counts.values() )
+        {
+            assertTrue( "unbalanced share " + count, count > KEYS / 4 * 0.7 && count < KEYS / 4 * 1.3 );
+        }
+    }
+
+    public void testAddingNodeMovesOnlyItsShare()
+    {
+        ConsistentHashRing<String> ring = newRing( 4 );
+        String[] before = new String[KEYS];
+        for ( int i = 0; i < KEYS; i++ )
+        {
+            before[i] = ring.get( "/resource/" + i );
+        }
+        ring.add( "server4", "server4" );
+        int moved = 0;
+        for ( int i = 0; i < KEYS; i++ )
+        {
+            String after = ring.get( "/resource/" + i );
+            if ( !after.equals( before[i] ) )
+            {
+                // keys only move to the new node
+                assertEquals( "server4", after );
+                moved++;
+            }
+        }
+        assertTrue( "moved " + moved, moved > KEYS / 5 * 0.7 && moved < KEYS / 5 * 1.3 );
+    }
+
+    public void testRemovingNodeMovesOnlyItsKeys()
+    {
+        ConsistentHashRing<String> ring = newRing( 4 );
+        String[] before = new String[KEYS];
+        for ( int i = 0; i < KEYS; i++ )
+        {
+            before[i] = ring.get( "/resource/" + i );
+        }
+        ring.remove( "server2" );
+        for ( int i = 0; i < KEYS; i++ )
+        {
+            if ( !before[i].equals( "server2" ) )
+            {
+                assertEquals( before[i], ring.get( "/resource/" + i ) );
+            }
+        }
+    }
+
+    private ConsistentHashRing<String> newRing( int nodes )
+    {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<String>();
+        for ( int i = 0; i < nodes; i++ )
+        {
+            ring.add( "server" + i, "server" + i );
+        }
+        return ring;
+    }
+}
@@ -0,0 +1,96 @@
+package com.acn.rdma.client_proxy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the journal of the RDMA operations.
+ */
+public class EventJournalTest extends TestCase
+{
+    public EventJournalTest( String testName )
+    {
+        super( testName );
+    }
+
+    public void testRecordsAreDumpedAndDecodedInOrder() throws IOException
+    {
+        EventJournal journal = new EventJournal( 8, null );
+        journal.record( EventJournal.RECV_COMPLETION, 500, 24 );
+        journal.record( EventJournal.POST_SEND, 1000, 24 );
+        journal.record( EventJournal.POST_READ, ( 7L << 32 ) | 2000, 4096 );
+        String[] lines = decode( journal, 3 );
+        assertTrue( lines[0].endsWith( " recv-completion wr_id 500 length 24" ) );
+        assertTrue( lines[1].endsWith( " post-send wr_id 1000 length 24" ) );
+        assertTrue( lines[2].endsWith( " post-read wr_id 7/2000 length 4096" ) );
+    }
+
+    public void testOnlyTheLastRecordsAreKept() throws IOException
+    {
+        EventJournal journal = new EventJournal( 4, null );
+        for ( int i = 0; i < 10; i++ )
+        {
+            journal.record( EventJournal.POST_SEND, i, i );
+        }
+        assertEquals( 10, journal.getRecorded() );
+        String[] lines = decode( journal, 4 );
+        assertTrue( lines[0].endsWith( " wr_id 6 length 6" ) );
+        assertTrue( lines[3].endsWith( " wr_id 9 length 9" ) );
+    }
+
+    public void testFailedCompletionKeepsItsStatus() throws IOException
+    {
+        EventJournal journal = new EventJournal( 4, null );
+        journal.record( EventJournal.FAILED_COMPLETION, 1000, 5 );
+        assertTrue( decode( journal, 1 )[0].endsWith( " failed-completion wr_id 1000 length 5" ) );
+    }
+
+    public void testConnectionEventsKeepTheirDuration() throws IOException
+    {
+        EventJournal journal = new EventJournal( 4, null );
+        journal.record( EventJournal.ACCEPT, 42, 0, 2000000 );
+        journal.record( EventJournal.DISCONNECT, 42, 0 );
+        String[] lines = decode( journal, 2 );
+        assertTrue( lines[0].endsWith( " accept wr_id 42 length 0 took 2000us" ) );
+        assertTrue( lines[1].endsWith( " disconnect wr_id 42 length 0" ) );
+    }
+
+    public void testCapacityMustBeAPowerOfTwo()
+    {
+        try
+        {
+            new EventJournal( 1000, null );
+            fail( "The capacity is not a power of two." );
+        }
+        catch ( IllegalArgumentException e )
+        {
+        }
+    }
+
+    public void testForeignFileIsRejected()
+    {
+        try
+        {
+            EventJournal.decode( new ByteArrayInputStream( new byte[32] ), new PrintStream( new ByteArrayOutputStream() ) );
+            fail( "The file is not a dump." );
+        }
+        catch ( IOException e )
+        {
+        }
+    }
+
+    private static String[] decode( EventJournal journal, int expected ) throws IOException
+    {
+        ByteArrayOutputStream dump = new ByteArrayOutputStream();
+        assertEquals( expected, journal.dump( dump ) );
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        assertEquals( expected, EventJournal.decode( new ByteArrayInputStream( dump.toByteArray() ), new PrintStream( text ) ) );
+        String[] lines = text.toString().split( "\n" );
+        assertEquals( expected, lines.length );
+        return lines;
+    }
+}
@@ -0,0 +1,128 @@
+package com.acn.rdma.client_proxy;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the delay and the budget of the hedged fetches.
+ */
+public class HedgingPolicyTest extends TestCase
+{
+    public HedgingPolicyTest( String testName )
+    {
+        super( testName );
+    }
+
+    public void testNoHedgingBeforeEnoughLatencies()
+    {
+        HedgingPolicy policy = new HedgingPolicy( 95, 0.05 );
+        for ( int i = 0; i < 31; i++ )
+        {
+            policy.recordLatency( 1000 );
+        }
+        assertTrue( policy.getHedgeDelay() < 0 );
+        policy.recordLatency( 1000 );
+        assertEquals( 1000, policy.getHedgeDelay() );
+    }
+
+    public void testDelayIsThePercentileOfTheLatencies()
+    {
+        HedgingPolicy policy = new HedgingPolicy( 90, 0.05 );
+        for ( int i = 1; i <= 1024; i++ )
+        {
+            policy.recordLatency( i );
+        }
+        assertEquals( 922, policy.getHedgeDelay() );
+    }
+
+    public void testOldLatenciesLeaveTheWindow()
+    {
+        HedgingPolicy policy = new HedgingPolicy( 50, 0.05 );
+        for ( int i = 0; i < 1024; i++ )
+        {
+            policy.recordLatency( 1000000 );
+        }
+        for ( int i = 0; i < 1024; i++ )
+        {
+            policy.recordLatency( 1000 );
+        }
+        assertEquals( 1000, policy.getHedgeDelay() );
+    }
+
+    public void testHedgingSpendsTheBudget()
+    {
+        HedgingPolicy policy = new HedgingPolicy( 95, 0.25 );
+        assertFalse( policy.tryHedge() );
+        for ( int i = 0; i < 3; i++ )
+        {
+            policy.fetchStarted();
+        }
+        assertFalse( policy.tryHedge() );
+        policy.fetchStarted();
+        assertTrue( policy.tryHedge() );
+        assertFalse( policy.tryHedge() );
+    }
+
+    public void testUnusedBudgetIsCapped()
+    {
+        HedgingPolicy policy = new HedgingPolicy( 95, 1 );
+        for ( int i = 0; i < 100; i++ )
+        {
+            policy.fetchStarted();
+        }
+        int hedged = 0;
+        while ( policy.tryHedge() )
+        {
+            hedged++;
+        }
+        assertEquals( 10, hedged );
+    }
+
+    public void testFetchesRunOffTheCallingThread() throws InterruptedException
+    {
+        HedgingPolicy policy = new HedgingPolicy( 95, 0.05 );
+        final Thread caller = Thread.currentThread();
+        final CountDownLatch stalled = new CountDownLatch( 1 );
+        final CountDownLatch answered = new CountDownLatch( 1 );
+        // a stalled fetch does not keep the other fetch from answering
+        assertTrue( policy.execute( new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    stalled.await();
+                }
+                catch ( InterruptedException e )
+                {
+                }
+            }
+        } ) );
+        assertTrue( policy.execute( new Runnable()
+        {
+            public void run()
+            {
+                if ( Thread.currentThread() != caller )
+                {
+                    answered.countDown();
+                }
+            }
+        } ) );
+        assertTrue( answered.await( 5, TimeUnit.SECONDS ) );
+        stalled.countDown();
+    }
+
+    public void testPercentileMustBeBetweenZeroAndHundred()
+    {
+        try
+        {
+            new HedgingPolicy( 100, 0.05 );
+            fail( "The percentile is out of range." );
+        }
+        catch ( IllegalArgumentException e )
+        {
+        }
+    }
+}
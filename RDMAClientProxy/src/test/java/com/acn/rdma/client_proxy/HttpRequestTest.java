@@ -0,0 +1,92 @@
+package com.acn.rdma.client_proxy;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the parser of the HTTP requests.
+ */
+public class HttpRequestTest extends TestCase
+{
+    public HttpRequestTest( String testName )
+    {
+        super( testName );
+    }
+
+    public void testProxyRequest() throws HttpParseException
+    {
+        ByteBuffer buf = bytes( "GET http://www.rdmawebpage.com/network.png?x=1 HTTP/1.1\r\n"
+            + "Host: www.rdmawebpage.com\r\nACCEPT-ENCODING:  gzip, deflate \r\nUser-Agent: test\r\n\r\n" );
+        HttpRequest request = HttpRequest.parse( buf );
+        assertEquals( "GET", request.getMethod() );
+        assertEquals( "www.rdmawebpage.com", request.getHost() );
+        assertEquals( "/network.png", request.getPath() );
+        assertEquals( "gzip, deflate", request.getAcceptEncoding() );
+        assertTrue( request.isKeepAlive() );
+        assertFalse( buf.hasRemaining() );
+    }
+
+    public void testHostHeaderWithoutAbsoluteTarget() throws HttpParseException
+    {
+        HttpRequest request = HttpRequest.parse( bytes( "HEAD / HTTP/1.1\r\nHost: localhost:8080\r\n\r\n" ) );
+        assertEquals( "localhost", request.getHost() );
+        assertEquals( "/", request.getPath() );
+        assertTrue( request.isHead() );
+    }
+
+    public void testIncompleteRequestNeedsMoreBytes() throws HttpParseException
+    {
+        ByteBuffer buf = bytes( "GET / HTTP/1.1\r\nHost: localhost\r\n" );
+        assertNull( HttpRequest.parse( buf ) );
+        assertEquals( 0, buf.position() );
+    }
+
+    public void testPipelinedRequests() throws HttpParseException
+    {
+        ByteBuffer buf = bytes( "GET /a HTTP/1.1\r\n\r\nGET /b HTTP/1.1\r\nConnection: close\r\n\r\nGET /c" );
+        assertEquals( "/a", HttpRequest.parse( buf ).getPath() );
+        HttpRequest second = HttpRequest.parse( buf );
+        assertEquals( "/b", second.getPath() );
+        assertFalse( second.isKeepAlive() );
+        assertNull( HttpRequest.parse( buf ) );
+        assertEquals( "GET /c", new String( buf.array(), buf.position(), buf.remaining() ) );
+    }
+
+    public void testHttp10ClosesByDefault() throws HttpParseException
+    {
+        assertFalse( HttpRequest.parse( bytes( "GET / HTTP/1.0\r\n\r\n" ) ).isKeepAlive() );
+        assertTrue( HttpRequest.parse( bytes( "GET / HTTP/1.0\r\nConnection: Keep-Alive\r\n\r\n" ) ).isKeepAlive() );
+    }
+
+    public void testInvalidRequests()
+    {
+        assertStatus( 400, "garbage\r\n\r\n" );
+        assertStatus( 400, "GET / HTTP/1.1\r\nno colon\r\n\r\n" );
+        assertStatus( 505, "GET / HTTP/2.0\r\n\r\n" );
+        StringBuilder large = new StringBuilder( "GET / HTTP/1.1\r\n" );
+        while ( large.length() <= HttpRequest.MAX_HEADER_SIZE )
+        {
+            large.append( "X-Filler: 0123456789\r\n" );
+        }
+        assertStatus( 431, large.toString() );
+    }
+
+    private static void assertStatus( int statusCode, String request )
+    {
+        try
+        {
+            HttpRequest.parse( bytes( request ) );
+            fail( "expected " + statusCode );
+        }
+        catch ( HttpParseException e )
+        {
+            assertEquals( statusCode, e.getStatusCode() );
+        }
+    }
+
+    private static ByteBuffer bytes( String request )
+    {
+        return ByteBuffer.wrap( request.getBytes() );
+    }
+}
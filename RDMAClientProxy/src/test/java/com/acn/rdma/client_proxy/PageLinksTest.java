@@ -0,0 +1,45 @@
+package com.acn.rdma.client_proxy;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the scanner of the embedded resources of a page.
+ */
+public class PageLinksTest extends TestCase
+{
+    private static final String HOST = "www.rdmawebpage.com";
+
+    public PageLinksTest( String testName )
+    {
+        super( testName );
+    }
+
+    public void testIndexPage()
+    {
+        String html = "<html><body><h1>Success!</h1><br/><img src=\"network.png\" alt=\"RDMA Read Image Missing!\"/></body></html>";
+        assertEquals( Arrays.asList( "/network.png" ), PageLinks.extract( html, HOST, "/" ) );
+    }
+
+    public void testScriptsAndStyleSheets()
+    {
+        String html = "<LINK REL=\"stylesheet\" HREF='/css/site.css'><script type=text/javascript src=js/app.js></script>"
+                + "<link rel=\"canonical\" href=\"/other.html\"><link rel=\"shortcut icon\" href=\"/favicon.ico\">";
+        assertEquals( Arrays.asList( "/css/site.css", "/docs/js/app.js", "/favicon.ico" ),
+                PageLinks.extract( html, HOST, "/docs/index.html" ) );
+    }
+
+    public void testOtherHostsAreIgnored()
+    {
+        String html = "<img src=\"http://cdn.example.com/a.png\"><img src=\"data:image/png;base64,AAAA\">"
+                + "<img src=\"//www.rdmawebpage.com/b.png\"><img src=\"http://WWW.RDMAWEBPAGE.COM/c.png?v=2\">";
+        assertEquals( Arrays.asList( "/b.png", "/c.png" ), PageLinks.extract( html, HOST, "/" ) );
+    }
+
+    public void testDuplicatesAndThePageAreIgnored()
+    {
+        String html = "<img src=\"a.png\"><img src=\"./a.png\"><img src=\"/\"><img alt=\"no source\"><img src=\"\">";
+        assertEquals( Arrays.asList( "/a.png" ), PageLinks.extract( html, HOST, "/" ) );
+    }
+}
@@ -0,0 +1,64 @@
+package com.acn.rdma.client_proxy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the profiles of the RDMA resources.
+ */
+public class RdmaProfileTest extends TestCase
+{
+    public RdmaProfileTest( String testName )
+    {
+        super( testName );
+    }
+
+    public void testDefaultProfileKeepsTheFormerSizes() throws IOException
+    {
+        RdmaProfile profile = RdmaProfile.load( RdmaProfile.DEFAULT );
+        assertEquals( 1000, profile.getTimeout() );
+        assertEquals( 128, profile.getQueueDepth() );
+        assertEquals( 4, profile.getMaxSge() );
+        assertEquals( 128, profile.getCqSize() );
+        assertEquals( 10, profile.getEventQueueCapacity() );
+        assertEquals( 8, profile.getReceiveBatch() );
+    }
+
+    public void testMissingKeysKeepTheDefaults() throws IOException
+    {
+        File file = File.createTempFile( "profile", ".properties" );
+        file.deleteOnExit();
+        Files.write( file.toPath(), "queue.depth = 256\ncq.size=1024\n".getBytes( StandardCharsets.ISO_8859_1 ) );
+        RdmaProfile profile = RdmaProfile.load( file.getPath() );
+        assertEquals( 256, profile.getQueueDepth() );
+        assertEquals( 1024, profile.getCqSize() );
+        assertEquals( 8, profile.getReceiveBatch() );
+    }
+
+    public void testInvalidSizesAreRejected() throws IOException
+    {
+        File file = File.createTempFile( "profile", ".properties" );
+        file.deleteOnExit();
+        Files.write( file.toPath(), "queue.depth=256\n".getBytes( StandardCharsets.ISO_8859_1 ) );
+        try
+        {
+            RdmaProfile.load( file.getPath() );
+            fail( "The queue depth exceeds the completion queue." );
+        }
+        catch ( IllegalArgumentException e )
+        {
+        }
+        try
+        {
+            new RdmaProfile( 1000, 128, 4, 128, 0, 8 );
+            fail( "The event queue capacity is not positive." );
+        }
+        catch ( IllegalArgumentException e )
+        {
+        }
+    }
+}
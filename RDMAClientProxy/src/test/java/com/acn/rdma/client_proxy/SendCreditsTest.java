@@ -0,0 +1,63 @@
+package com.acn.rdma.client_proxy;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the credits of the sends of a connection.
+ */
+public class SendCreditsTest extends TestCase
+{
+    public SendCreditsTest( String testName )
+    {
+        super( testName );
+    }
+
+    public void testRequestTakesAllTheCreditsLeft()
+    {
+        SendCredits credits = new SendCredits( 1 );
+        credits.add( 3 );
+        credits.spend( 1 );
+        assertEquals( 3, credits.takeDeferred( 5, false ) );
+        assertEquals( 0, credits.get() );
+    }
+
+    public void testReadsKeepOneCreditForTheNextRequest()
+    {
+        SendCredits credits = new SendCredits( 1 );
+        credits.add( 2 );
+        assertEquals( 2, credits.takeDeferred( 5, true ) );
+        assertEquals( 1, credits.get() );
+        assertEquals( 0, credits.takeDeferred( 3, true ) );
+        assertEquals( 1, credits.get() );
+    }
+
+    public void testIdleFlushTakesTheLastCredit()
+    {
+        // a server with one receive slot: the request spends it and the reply returns it
+        SendCredits credits = new SendCredits( 1 );
+        credits.spend( 1 );
+        credits.add( 1 );
+        assertEquals( 1, credits.takeDeferred( 2, false ) );
+        assertEquals( 0, credits.get() );
+        assertEquals( 0, credits.takeDeferred( 1, false ) );
+    }
+
+    public void testDeferredSendsTakeNoMoreThanQueued()
+    {
+        SendCredits credits = new SendCredits( 4 );
+        assertEquals( 2, credits.takeDeferred( 2, false ) );
+        assertEquals( 2, credits.get() );
+    }
+
+    public void testForcedSendsLeaveNoCredits()
+    {
+        SendCredits credits = new SendCredits( 1 );
+        credits.spend( 3 );
+        assertEquals( -2, credits.get() );
+        assertEquals( 0, credits.takeDeferred( 1, false ) );
+        credits.add( 3 );
+        assertEquals( 1, credits.takeDeferred( 1, false ) );
+        credits.reset();
+        assertEquals( 1, credits.get() );
+    }
+}
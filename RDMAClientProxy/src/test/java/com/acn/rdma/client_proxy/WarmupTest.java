@@ -0,0 +1,75 @@
+package com.acn.rdma.client_proxy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the warmup of the proxy with synthetic requests.
+ */
+public class WarmupTest extends TestCase
+{
+    public WarmupTest( String testName )
+    {
+        super( testName );
+    }
+
+    public void testAllRequestsAreAnswered() throws IOException
+    {
+        ServerSocket front = answer( "HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nhello" );
+        assertEquals( 12, new Warmup( front.getLocalPort(), 12 ).run() );
+        front.close();
+    }
+
+    public void testWarmupStopsAtTheFirstFailure() throws IOException
+    {
+        ServerSocket front = answer( "HTTP/1.1 504 Gateway Timeout\r\nContent-Length: 0\r\n\r\n" );
+        assertEquals( 0, new Warmup( front.getLocalPort(), 12 ).run() );
+        front.close();
+    }
+
+    /**
+     * Starts a front end answering every request of one connection with the response.
+     */
+    private static ServerSocket answer( final String response ) throws IOException
+    {
+        final ServerSocket front = new ServerSocket( 0, 1, InetAddress.getLoopbackAddress() );
+        Thread thread = new Thread( new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    Socket socket = front.accept();
+                    InputStream in = socket.getInputStream();
+                    OutputStream out = socket.getOutputStream();
+                    int matched = 0;
+                    int b;
+                    while ( ( b = in.read() ) >= 0 )
+                    {
+                        matched = b == "\r\n\r\n".charAt( matched ) ? matched + 1 : ( b == '\r' ? 1 : 0 );
+                        if ( matched == 4 )
+                        {
+                            out.write( response.getBytes( StandardCharsets.ISO_8859_1 ) );
+                            out.flush();
+                            matched = 0;
+                        }
+                    }
+                    socket.close();
+                }
+                catch ( IOException e )
+                {
+                }
+            }
+        } );
+        thread.setDaemon( true );
+        thread.start();
+        return front;
+    }
+}
@@ -0,0 +1,144 @@
+package com.acn.rdma.server;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+import org.apache.log4j.Logger;
+
+/**
+ * This class allocates buffers registered for RDMA access, for the endpoints of all the clients and for the content.
+ * <p>
+ * The buffers are slices of larger slabs. A slab is allocated and registered once, when a size class runs out of
+ * buffers, and is never deregistered, so no memory is registered while the requests are served:
+ *  <ul>
+ *   <li>Size classes</li>
+ *   The sizes are rounded up to the next power of two (at least the minimal size), every size class has its own
+ *   slabs. A slab of a size class larger than the slab size holds only one buffer.
+ *   <li>Thread caches</li>
+ *   A thread keeps a few of the buffers it gives back, and takes them again without locking the pool.
+ *   <li>Reuse</li>
+ *   An endpoint takes its send and receive buffers when it is connected and gives them back when it is closed,
+ *   so the slabs are sized to the peak of the connected clients, not to the clients accepted so far.
+ *  </ul>
+ * </p>
+ * A buffer has the capacity of its size class, but its limit and the length of its region are the requested size.
+ * @see ServerEndpoint
+ * @version 1
+ */
+public class BufferPool {
+
+	private static final Logger logger = Logger.getLogger(BufferPool.class);
+
+	public static final int MIN_SIZE = 64;
+	private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_SIZE);
+	private static final int SIZE_CLASSES = Integer.SIZE - 1 - MIN_SHIFT;
+	private static final int MAX_CACHED_PER_THREAD = 8; // per size class
+
+	private final ServerRdmaConnection connection;
+	private final int slabSize;
+	private final ArrayDeque<RdmaRegion>[] free;
+	private final ThreadLocal<ArrayDeque<RdmaRegion>[]> caches;
+	private int slabs;
+
+	/**
+	 * Constructs an empty pool, the slab of a size class is registered when the first buffer of the class is taken.
+	 * @param connection the connection of the server, which registers the slabs
+	 * @param slabSize the size of a slab in bytes
+	 */
+	public BufferPool(ServerRdmaConnection connection, int slabSize) {
+		if (slabSize <= 0) throw new IllegalArgumentException("The slab size must be positive.");
+		this.connection = connection;
+		this.slabSize = slabSize;
+		this.free = newClasses();
+		this.caches = new ThreadLocal<ArrayDeque<RdmaRegion>[]>() {
+			protected ArrayDeque<RdmaRegion>[] initialValue() {
+				return newClasses();
+			}
+		};
+	}
+
+	/**
+	 * Takes a free buffer of the size class of the given size, registering a new slab if there is none.
+	 * @param size the size of the buffer in bytes
+	 * @return the buffer with its address and key, cleared and limited to the size
+	 * @throws RdmaConnectionException if a new slab cannot be registered.
+	 */
+	public RdmaRegion take(int size) throws RdmaConnectionException {
+		int sizeClass = sizeClass(size);
+		RdmaRegion buffer = caches.get()[sizeClass].poll();
+		if (buffer == null) {
+			synchronized (this) {
+				if (free[sizeClass].isEmpty()) addSlab(sizeClass);
+				buffer = free[sizeClass].pop();
+			}
+		}
+		buffer.getBuffer().clear().limit(size);
+		return new RdmaRegion(buffer.getBuffer(), buffer.getAddress(), size, buffer.getKey());
+	}
+
+	/**
+	 * Gives the buffer back to the pool. The buffer must not be used by any working request anymore.
+	 * @param buffer a buffer taken from this pool
+	 */
+	public void give(RdmaRegion buffer) {
+		int sizeClass = sizeClass(buffer.getBuffer().capacity());
+		ArrayDeque<RdmaRegion> cache = caches.get()[sizeClass];
+		if (cache.size() < MAX_CACHED_PER_THREAD) {
+			cache.push(buffer);
+			return;
+		}
+		synchronized (this) {
+			free[sizeClass].push(buffer);
+		}
+	}
+
+	/**
+	 * Gets the number of free buffers of the size class of the given size, which are not kept by a thread.
+	 * @param size the size of the buffers in bytes
+	 * @return the number of free buffers
+	 */
+	public synchronized int getFreeBuffers(int size) {
+		return free[sizeClass(size)].size();
+	}
+
+	/**
+	 * Gets the number of registered slabs.
+	 * @return the number of slabs
+	 */
+	public synchronized int getSlabs() {
+		return slabs;
+	}
+
+	/**
+	 * Gets the size class of the size: the smallest power of two, not smaller than the minimal size, holding it.
+	 * @param size the size in bytes
+	 * @return the index of the size class
+	 */
+	static int sizeClass(int size) {
+		if (size < 0 || size > 1 << (Integer.SIZE - 2)) throw new IllegalArgumentException("Invalid size " + size);
+		if (size <= MIN_SIZE) return 0;
+		return Integer.SIZE - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+	}
+
+	private void addSlab(int sizeClass) throws RdmaConnectionException {
+		int bufferSize = MIN_SIZE << sizeClass;
+		int buffers = Math.max(1, slabSize / bufferSize);
+		ByteBuffer slab = ByteBuffer.allocateDirect(bufferSize * buffers);
+		RdmaRegion region = connection.registerMemory(slab);
+		for (int i = 0; i < buffers; i++) {
+			slab.limit((i + 1) * bufferSize);
+			slab.position(i * bufferSize);
+			free[sizeClass].add(new RdmaRegion(slab.slice(), region.getAddress() + i * bufferSize, bufferSize, region.getKey()));
+		}
+		slabs++;
+		logger.debug("Registered slab " + slabs + " of " + buffers + " buffers of " + bufferSize + " bytes.");
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static ArrayDeque<RdmaRegion>[] newClasses() {
+		ArrayDeque<RdmaRegion>[] classes = new ArrayDeque[SIZE_CLASSES];
+		for (int i = 0; i < classes.length; i++) classes[i] = new ArrayDeque<RdmaRegion>();
+		return classes;
+	}
+
+}
@@ -0,0 +1,80 @@
+package com.acn.rdma.server;
+
+import java.util.List;
+
+/**
+ * Provides an interface for the RDMA connection to one client. The classes the implement this
+ * interface should provide the following functions.
+ *  <ul>
+ *   <li>prepareRdmaAccess</li>
+ *   Sends the RDMA info of a registered reply to the client to inform where the data is. It does not wait
+ *   for the transmission.
+ *   <li>pushReply</li>
+ *   Writes a registered reply into a buffer of the client, which learns about it from one receive.
+ *   <li>prepareBatchRdmaAccess</li>
+ *   Sends one table with the RDMA info of several registered replies.
+ *   <li>grantRdmaAccess</li>
+ *   Sends the RDMA info of a registered region to the client, which reads the parts it needs.
+ *   <li>close</li>
+ *   Closes the connection to the client.
+ *  </ul>
+ * The requests of the client are delivered to the <tt>RequestListener</tt> given when the client was accepted.
+ * @see RequestListener
+ * @version 1
+ */
+public interface ClientSession {
+	
+	/**
+	 * Sends the RDMA info of the registered reply to the client to inform where the data is. The region holds
+	 * the length of the message followed by the message, the client reads all of it. It can be called from any
+	 * thread and returns without waiting for the transmission.
+	 * @param reply the registered reply
+	 * @param id the unique id for the working request
+	 * @throws RdmaConnectionException if the session is closed or the send cannot be posted.
+	 */
+	public void prepareRdmaAccess(RdmaRegion reply, int id) throws RdmaConnectionException;
+	
+	/**
+	 * Writes the registered reply into the buffer of the client with an RDMA write with immediate data, so that the
+	 * client gets the reply with one receive, without reading it. If the reply does not fit in the buffer, its RDMA
+	 * info is sent instead (as by <tt>prepareRdmaAccess</tt>). It can be called from any thread and returns without
+	 * waiting for the transmission.
+	 * @param reply the registered reply
+	 * @param target the buffer of the client, registered for remote writes
+	 * @param id the unique id for the working request
+	 * @throws RdmaConnectionException if the session is closed or the write cannot be posted.
+	 */
+	public void pushReply(RdmaRegion reply, RdmaRegion target, int id) throws RdmaConnectionException;
+	
+	/**
+	 * Sends one table with the RDMA info of the messages of the registered replies to the client, which reads all
+	 * of them at once. The messages are listed in their order as long as the client can read them at once, the
+	 * table tells the client how many were listed. It can be called from any thread and returns without waiting
+	 * for the transmission.
+	 * @param replies the registered replies (as for <tt>prepareRdmaAccess</tt>), null for an unknown resource
+	 * @param id the unique id for the working request
+	 * @throws RdmaConnectionException if the session is closed or the send cannot be posted.
+	 */
+	public void prepareBatchRdmaAccess(List<RdmaRegion> replies, int id) throws RdmaConnectionException;
+	
+	/**
+	 * Sends the RDMA info of the registered region to the client, so that it can read any part of it.
+	 * It can be called from any thread and returns without waiting for the transmission.
+	 * @param region the registered region
+	 * @param id the unique id for the working request
+	 * @throws RdmaConnectionException if the session is closed or the send cannot be posted.
+	 */
+	public void grantRdmaAccess(RdmaRegion region, int id) throws RdmaConnectionException;
+	
+	/**
+	 * Closes the connection to the client.
+	 */
+	public void close();
+	
+	/**
+	 * Checks if the connection to the client is closed.
+	 * @return true if closed, false otherwise.
+	 */
+	public boolean isClosed();
+
+}
@@ -0,0 +1,417 @@
+package com.acn.rdma.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import com.ibm.disni.rdma.verbs.IbvSendWR;
+import com.ibm.disni.rdma.verbs.IbvSge;
+import com.ibm.disni.rdma.verbs.IbvWC;
+import com.ibm.disni.rdma.verbs.SVCPostSend;
+
+/**
+ * This class is an adapter of the DiSNI server endpoint for the RDMA connection to one client.
+ * <p>
+ * The session is driven by the completion events of the endpoint instead of waiting for them:
+ *  <ul>
+ *   <li>A receive completion is read from the receive buffer of its slot, the receive working request of the
+ *   slot is posted again and the message is delivered to the <tt>RequestListener</tt>.</li>
+ *   <li>A send (or write) completion frees the send buffer for the next reply.</li>
+ *  </ul>
+ * </p>
+ * <p>
+ * The replies are posted through a lock-free send path: any thread adds the reply to a queue, and the thread
+ * which wins the send buffer (with a compare-and-set) posts it. The send completion gives the send buffer back
+ * and posts the next reply in the queue, if there is one. Hence, no thread waits for the transmission.
+ * </p>
+ * <p>
+ * The client may send only as many messages as there are receive slots posted for it, so it never waits for a
+ * receive (receiver not ready). The client starts with one credit. Every reply carries the credits returned since
+ * the last reply: one for every message whose slot was posted again, and the other slots with the first reply.
+ * A pushed reply (an RDMA write with immediate data) carries the credits as its immediate data.
+ * </p>
+ * <p>
+ * The latency of every reply, from its post to its send completion, is reported to the <tt>RdmaTuner</tt>.
+ * Every post and completion is recorded in the <tt>EventJournal</tt> of the server, the hot path does no logging.
+ * </p>
+ * The data of the replies is not copied: the RDMA info points at the replies registered once by the server,
+ * which all the clients read. Only the RDMA info goes through the send buffer of the session.
+ * For more information, look at the Adapter design pattern.
+ * @see ServerEndpoint
+ * @version 1
+ */
+public class ClientSessionDiSNIAdapter implements ClientSession, CompletionListener {
+
+	private static final Logger logger = Logger.getLogger(ClientSessionDiSNIAdapter.class);
+	public static final int STATUS_CODE_200_OK = 200;
+	public static final int STATUS_CODE_206_PARTIAL_CONTENT = 206;
+	public static final int STATUS_CODE_404_NOT_FOUND = 404;
+	
+	// the rdma information: status, credits, address, length and key
+	private static final int DESCRIPTOR_SIZE = 4 * Integer.SIZE/8 + Long.SIZE/8;
+	// the table of a batch: status, credits and count, then status, address, length and key of every message
+	private static final int TABLE_HEADER_SIZE = 3 * Integer.SIZE/8;
+	private static final int TABLE_ENTRY_SIZE = 3 * Integer.SIZE/8 + Long.SIZE/8;
+	// the credits the client starts with, before the first reply
+	private static final int INITIAL_CREDITS = 1;
+	// the client reads all the messages of a batch into a buffer of this size
+	private static final int MAX_BATCH_SIZE = 10000;
+	private static final int LENGTH_SIZE = Integer.SIZE/8;
+
+	// the opcodes of the receive completions have this bit set (see ibv_wc_opcode)
+	private static final int IBV_WC_RECV = 1 << 7;
+
+	private ServerEndpoint connection;
+	private RequestListener requestListener;
+
+	private ConcurrentLinkedQueue<Reply> replies;
+	private AtomicBoolean sending;
+	private AtomicBoolean closed;
+	private AtomicInteger returnedCredits;
+	private long postedAt; // of the reply being sent, System.nanoTime()
+
+
+	/**
+	 * Constructs the session of the accepted endpoint and starts delivering its completion events.
+	 * @param connection the endpoint of the client
+	 * @param requestListener the listener which handles the requests of the client
+	 */
+	public ClientSessionDiSNIAdapter(ServerEndpoint connection, RequestListener requestListener) {
+		this.connection = connection;
+		this.requestListener = requestListener;
+		this.replies = new ConcurrentLinkedQueue<Reply>();
+		this.sending = new AtomicBoolean();
+		this.closed = new AtomicBoolean();
+		this.returnedCredits = new AtomicInteger(connection.getReceiveSlots() - INITIAL_CREDITS);
+		connection.setCompletionListener(this);
+	}
+
+	/**
+	 * Adds the RDMA info of the reply to the send queue and posts it if the send buffer is free.
+	 * @see {@link ClientSession}
+	 */
+	@Override
+	public void prepareRdmaAccess(RdmaRegion reply, int id) throws RdmaConnectionException {
+		if (closed.get()) throw new RdmaConnectionException("The session is closed.");
+		replies.add(new Reply(STATUS_CODE_200_OK, reply, null, null, id));
+		sendNextReply();
+	}
+	
+	/**
+	 * Adds the push of the reply to the send queue and posts it if the send buffer is free. A reply which does not
+	 * fit in the buffer of the client is sent as RDMA info.
+	 * @see {@link ClientSession}
+	 */
+	@Override
+	public void pushReply(RdmaRegion reply, RdmaRegion target, int id) throws RdmaConnectionException {
+		if (reply.getLength() > target.getLength()) {
+			prepareRdmaAccess(reply, id);
+			return;
+		}
+		if (closed.get()) throw new RdmaConnectionException("The session is closed.");
+		replies.add(new Reply(STATUS_CODE_200_OK, reply, null, target, id));
+		sendNextReply();
+	}
+	
+	/**
+	 * Adds the batch to the send queue and posts it if the send buffer is free.
+	 * @see {@link ClientSession}
+	 */
+	@Override
+	public void prepareBatchRdmaAccess(List<RdmaRegion> batch, int id) throws RdmaConnectionException {
+		if (closed.get()) throw new RdmaConnectionException("The session is closed.");
+		replies.add(new Reply(STATUS_CODE_200_OK, null, batch, null, id));
+		sendNextReply();
+	}
+	
+	/**
+	 * Adds the RDMA info of the region to the send queue and posts it if the send buffer is free.
+	 * @see {@link ClientSession}
+	 */
+	@Override
+	public void grantRdmaAccess(RdmaRegion region, int id) throws RdmaConnectionException {
+		if (closed.get()) throw new RdmaConnectionException("The session is closed.");
+		replies.add(new Reply(STATUS_CODE_206_PARTIAL_CONTENT, region, null, null, id));
+		sendNextReply();
+	}
+
+	/**
+	 * Delivers the received messages and frees the send buffer after a send completion.
+	 * It is called on the completion path (the thread of the DiSNI library).
+	 * @see {@link CompletionListener}
+	 */
+	@Override
+	public void completionReceived(IbvWC wc) {
+		if (wc.getStatus() != IbvWC.IbvWcStatus.IBV_WC_SUCCESS.ordinal()) {
+			connection.getJournal().record(EventJournal.FAILED_COMPLETION, wc.getWr_id(), wc.getStatus());
+			logger.debug("Working request " + wc.getWr_id() + " failed with status " + wc.getStatus());
+			connectionBroken();
+			return;
+		}
+		try {
+			if ((wc.getOpcode() & IBV_WC_RECV) != 0) {
+				connection.getJournal().record(EventJournal.RECV_COMPLETION, wc.getWr_id(), wc.getByte_len());
+				int slot = (int) wc.getWr_id() - ServerEndpoint.RECEIVE_ID;
+				byte[] message = readOnRecvBuffer(slot);
+				postReceiveOperation(slot);
+				returnedCredits.incrementAndGet();
+				requestListener.requestReceived(this, message);
+			} else {
+				long latency = System.nanoTime() - postedAt;
+				connection.getJournal().record(EventJournal.SEND_COMPLETION, wc.getWr_id(), wc.getByte_len(), latency);
+				connection.getTuner().recordCompletion(latency);
+				sending.set(false);
+				sendNextReply();
+			}
+		} catch (RdmaConnectionException e) {
+			logger.debug(e.getMessage());
+			connectionBroken();
+		}
+	}
+
+	/**
+	 * Informs the listener only once that the session is broken.
+	 * @see {@link CompletionListener}
+	 */
+	@Override
+	public void connectionBroken() {
+		if (closed.compareAndSet(false, true)) {
+			requestListener.sessionBroken(this);
+		}
+	}
+
+	/**
+	 * Closes the endpoint of the client. It should not be called on the completion path.
+	 * @see {@link ClientSession}
+	 */
+	@Override
+	public void close() {
+		closed.set(true);
+		logger.debug("Closing the client endpoint.");
+		try {
+			if (!connection.isClosed()) connection.close();
+		} catch (IOException | InterruptedException e) {
+			logger.debug("Problems closing the endpoint");
+		}
+		logger.debug("Client endpoint closed.");
+	}
+
+	@Override
+	public boolean isClosed() {
+		return closed.get();
+	}
+
+	/**
+	 * Posts the next reply of the queue if the send buffer is free. The thread which takes the send buffer
+	 * is the only one writing on the buffers and on the send working request until the send completes.
+	 * @throws RdmaConnectionException
+	 */
+	private void sendNextReply() throws RdmaConnectionException {
+		while (!replies.isEmpty() && sending.compareAndSet(false, true)) {
+			Reply reply = replies.poll();
+			if (reply == null) {
+				// another thread took the reply, give the send buffer back and check again
+				sending.set(false);
+				continue;
+			}
+			if (reply.batch != null) {
+				sendBatchRdmaInfo(reply.batch, reply.id);
+			} else if (reply.target != null) {
+				postWriteOperation(reply.region, reply.target, reply.id);
+			} else {
+				sendRdmaInfo(reply.statusCode, reply.region.getAddress(), reply.region.getLength(),
+						reply.region.getKey(), reply.id);
+			}
+			return;
+		}
+	}
+
+	/**
+	 * Sends the information of the local buffer, together with the returned credits.
+	 * @param statusCode 200 for a registered reply, 206 for a registered content
+	 * @param address the address of the buffer
+	 * @param lengthOfRdmaAccess
+	 * @param key the key of the buffer
+	 * @param id
+	 * @throws RdmaConnectionException
+	 */
+	private void sendRdmaInfo(int statusCode, long address, int lengthOfRdmaAccess, int key, int id) throws RdmaConnectionException {
+		// prepare a message with the RDMA information of the buffer
+		// it we allow the client to read using a one-sided RDMA operation
+		ByteBuffer sendBuf = connection.getSendBuf();
+		sendBuf.clear();
+		sendBuf.putInt(statusCode);
+		sendBuf.putInt(returnedCredits.getAndSet(0));
+		sendBuf.putLong(address);
+		sendBuf.putInt(lengthOfRdmaAccess);
+		sendBuf.putInt(key);
+		sendBuf.clear();
+
+		postSendOperation(id, DESCRIPTOR_SIZE);
+	}
+
+	/**
+	 * Sends the table with the RDMA information of the messages of the batch, as long as the client can read them
+	 * at once (and the table fits in the send buffer). The client reads all the listed messages at once and asks
+	 * again for the others. The entries point at the messages behind the lengths of the registered replies.
+	 * @param batch the registered replies, null for an unknown resource
+	 * @param id
+	 * @throws RdmaConnectionException
+	 */
+	private void sendBatchRdmaInfo(List<RdmaRegion> batch, int id) throws RdmaConnectionException {
+		ByteBuffer sendBuf = connection.getSendBuf();
+		int maxEntries = (sendBuf.capacity() - TABLE_HEADER_SIZE) / TABLE_ENTRY_SIZE;
+		sendBuf.clear();
+		sendBuf.putInt(STATUS_CODE_200_OK);
+		sendBuf.putInt(returnedCredits.getAndSet(0));
+		sendBuf.putInt(0); // the count is known after the listing
+		int count = 0;
+		int size = 0;
+		for (RdmaRegion reply : batch) {
+			if (count == maxEntries) break;
+			if (reply == null) {
+				sendBuf.putInt(STATUS_CODE_404_NOT_FOUND);
+				sendBuf.putLong(0);
+				sendBuf.putInt(0);
+				sendBuf.putInt(0);
+			} else {
+				int length = reply.getLength() - LENGTH_SIZE;
+				if (length > MAX_BATCH_SIZE - size) break;
+				sendBuf.putInt(STATUS_CODE_200_OK);
+				sendBuf.putLong(reply.getAddress() + LENGTH_SIZE);
+				sendBuf.putInt(length);
+				sendBuf.putInt(reply.getKey());
+				size += length;
+			}
+			count++;
+		}
+		sendBuf.putInt(2 * Integer.SIZE/8, count);
+		sendBuf.clear();
+		
+		postSendOperation(id, TABLE_HEADER_SIZE + count * TABLE_ENTRY_SIZE);
+	}
+	
+	/**
+	 * Sets the id and the length of the message in the prepared send call, and sends the message to the client.
+	 * The simple server endpoint has only one send working request, with only one scatter gather element
+	 * (which is in fact the send buffer).
+	 * @param id
+	 * @param length the number of bytes of the send buffer to send
+	 * @throws RdmaConnectionException
+	 */
+	private void postSendOperation(int id, int length) throws RdmaConnectionException {
+		try {
+			SVCPostSend postSend = connection.getSendCall();
+			SVCPostSend.SendWRMod wrMod = postSend.getWrMod(0);
+			wrMod.setWr_id(id);
+			wrMod.getSgeMod(0).setLength(length);
+			RdmaEvents.Timed event = RdmaEvents.beginPost(EventJournal.POST_SEND);
+			postedAt = System.nanoTime();
+			postSend.execute();
+			event.commit(id, length);
+		} catch (IOException e) {
+			throw new RdmaConnectionException(e.getMessage());
+		}
+		connection.getJournal().record(EventJournal.POST_SEND, id, length, System.nanoTime() - postedAt);
+	}
+	
+	/**
+	 * Writes the registered reply into the buffer of the client, with the returned credits as immediate data.
+	 * The write is not prepared like the send, since the remote buffer and the immediate data of a prepared
+	 * call cannot be changed.
+	 * @param reply the registered reply
+	 * @param target the buffer of the client
+	 * @param id
+	 * @throws RdmaConnectionException
+	 */
+	private void postWriteOperation(RdmaRegion reply, RdmaRegion target, int id) throws RdmaConnectionException {
+		IbvSge sge = new IbvSge();
+		sge.setAddr(reply.getAddress());
+		sge.setLength(reply.getLength());
+		sge.setLkey(reply.getKey());
+		LinkedList<IbvSge> sgeList = new LinkedList<IbvSge>();
+		sgeList.add(sge);
+		IbvSendWR writeWR = new IbvSendWR();
+		writeWR.setWr_id(id);
+		writeWR.setSg_list(sgeList);
+		writeWR.setOpcode(IbvSendWR.IBV_WR_RDMA_WRITE_WITH_IMM);
+		writeWR.setSend_flags(IbvSendWR.IBV_SEND_SIGNALED);
+		writeWR.setImm_data(returnedCredits.getAndSet(0));
+		writeWR.getRdma().setRemote_addr(target.getAddress());
+		writeWR.getRdma().setRkey(target.getKey());
+		LinkedList<IbvSendWR> wrList = new LinkedList<IbvSendWR>();
+		wrList.add(writeWR);
+		try {
+			RdmaEvents.Timed event = RdmaEvents.beginPost(EventJournal.POST_WRITE);
+			postedAt = System.nanoTime();
+			connection.postSend(wrList).execute().free();
+			event.commit(id, reply.getLength());
+		} catch (IOException e) {
+			throw new RdmaConnectionException(e.getMessage());
+		}
+		connection.getJournal().record(EventJournal.POST_WRITE, id, reply.getLength(), System.nanoTime() - postedAt);
+	}
+	
+	/**
+	 * Posts the receive operation of the slot in the working queue again, so that the client can use the slot
+	 * for another message.
+	 * @param slot the receive slot
+	 * @throws RdmaConnectionException
+	 */
+	private void postReceiveOperation(int slot) throws RdmaConnectionException {
+		RdmaEvents.Timed event = RdmaEvents.beginPost(EventJournal.POST_RECV);
+		long start = System.nanoTime();
+		try {
+			connection.getRecvCall(slot).execute();
+			event.commit(ServerEndpoint.RECEIVE_ID + slot, connection.getRecvBuf(slot).capacity());
+		} catch (IOException e) {
+			throw new RdmaConnectionException(e.getMessage());
+		}
+		connection.getJournal().record(EventJournal.POST_RECV, ServerEndpoint.RECEIVE_ID + slot, connection.getRecvBuf(slot).capacity(),
+				System.nanoTime() - start);
+	}
+
+	/**
+	 * Reads on the receive buffer of the slot.
+	 * @param slot the receive slot
+	 * @return the message
+	 */
+	private byte[] readOnRecvBuffer(int slot) {
+		ByteBuffer recvBuf = connection.getRecvBuf(slot);
+		recvBuf.clear();
+		int length = recvBuf.getInt();
+		byte[] message = new byte[length];
+		recvBuf.get(message);
+		recvBuf.clear();
+		return message;
+	}
+
+	/**
+	 * A reply waiting for the send buffer, either the RDMA info of a registered region (a reply or a content),
+	 * the table of a batch or a reply pushed into the buffer of the client (the target).
+	 */
+	private static class Reply {
+
+		private final int statusCode;
+		private final RdmaRegion region;
+		private final List<RdmaRegion> batch;
+		private final RdmaRegion target;
+		private final int id;
+
+		public Reply(int statusCode, RdmaRegion region, List<RdmaRegion> batch, RdmaRegion target, int id) {
+			this.statusCode = statusCode;
+			this.region = region;
+			this.batch = batch;
+			this.target = target;
+			this.id = id;
+		}
+
+	}
+
+}
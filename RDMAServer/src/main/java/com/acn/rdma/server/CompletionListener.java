@@ -0,0 +1,23 @@
+package com.acn.rdma.server;
+
+import com.ibm.disni.rdma.verbs.IbvWC;
+
+/**
+ * Provides an interface to be informed about the events of the RDMA connection to a client.
+ * The methods are called by the threads of the DiSNI library, so they should not block.
+ * @version 1
+ */
+public interface CompletionListener {
+	
+	/**
+	 * Called when a working request of the endpoint is completed.
+	 * @param wc the working completion event
+	 */
+	public void completionReceived(IbvWC wc);
+	
+	/**
+	 * Called when the connection to the client was broken (the client disconnected).
+	 */
+	public void connectionBroken();
+
+}
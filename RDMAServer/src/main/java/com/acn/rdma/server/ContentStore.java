@@ -0,0 +1,226 @@
+package com.acn.rdma.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * This class keeps the content of the server in memory, together with its precompressed variants.
+ * <p>
+ * The resources are loaded and compressed only once, when the store is created. Every resource has the
+ * following variants (content codings):
+ *  <ul>
+ *   <li>identity</li>
+ *   The resource as it is.
+ *   <li>gzip</li>
+ *   <li>deflate</li>
+ *   The zlib format, as used by the HTTP deflate content coding.
+ *  </ul>
+ * A compressed variant is kept only if it is clearly smaller than the resource (already compressed resources,
+ * such as the png image, are not compressed again). For a request, the variant is chosen from the codings accepted
+ * by the browser (see <tt>negotiate</tt>), so no compression is done while serving the requests.
+ * </p>
+ * The reply of a variant is also prepared in advance: the name of the coding, a new line and the content.
+ *
+ * @see Server
+ * @version 1
+ */
+public class ContentStore {
+
+	private static final Logger logger = Logger.getLogger(ContentStore.class);
+
+	public static final String IDENTITY = "identity";
+	public static final String GZIP = "gzip";
+	public static final String DEFLATE = "deflate";
+
+	// a compressed variant must save at least 10% to be worth it
+	private static final double MAX_COMPRESSION_RATIO = 0.9;
+
+	private Map<String, Map<String, byte[]>> resources;
+	private Map<String, byte[]> contents;
+
+
+	/**
+	 * Constructs an empty store.
+	 */
+	public ContentStore() {
+		this.resources = new HashMap<String, Map<String, byte[]>>();
+		this.contents = new LinkedHashMap<String, byte[]>();
+	}
+
+	/**
+	 * Loads the resource from the class path and builds its variants.
+	 * @param name the name of the resource (for example the request of the resource)
+	 * @param path the path of the resource in the class path
+	 * @throws IOException if the resource cannot be loaded.
+	 */
+	public void load(String name, String path) throws IOException {
+		InputStream is = Thread.currentThread().getContextClassLoader().getResourceAsStream(path);
+		if (is == null) throw new IOException("Could not find the resource " + path);
+		try {
+			put(name, IOUtils.toByteArray(is));
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * Loads the resource from the file and builds its variants.
+	 * @param name the name of the resource (for example the request of the resource)
+	 * @param file the file of the resource
+	 * @throws IOException if the file cannot be read.
+	 */
+	public void load(String name, Path file) throws IOException {
+		put(name, Files.readAllBytes(file));
+	}
+
+	/**
+	 * Stores the content and builds its variants.
+	 * @param name the name of the resource
+	 * @param content the content of the resource
+	 * @throws IOException if the content cannot be compressed.
+	 */
+	public void put(String name, byte[] content) throws IOException {
+		// the preferred order of the codings, if the browser accepts them equally
+		Map<String, byte[]> variants = new LinkedHashMap<String, byte[]>();
+		byte[] gzip = compress(content, true);
+		byte[] deflate = compress(content, false);
+		if (gzip.length < content.length * MAX_COMPRESSION_RATIO) variants.put(GZIP, reply(GZIP, gzip));
+		if (deflate.length < content.length * MAX_COMPRESSION_RATIO) variants.put(DEFLATE, reply(DEFLATE, deflate));
+		variants.put(IDENTITY, reply(IDENTITY, content));
+		resources.put(name, variants);
+		contents.put(name, content);
+		logger.debug("Loaded " + name + " (" + content.length + " bytes) with the variants " + variants.keySet());
+	}
+
+	/**
+	 * Gets the reply of the resource in the variant preferred by the browser.
+	 * @param name the name of the resource
+	 * @param acceptEncoding the value of the Accept-Encoding header of the browser, or null if not given
+	 * @return the name of the coding, a new line and the content. Null if the resource is unknown.
+	 */
+	public byte[] get(String name, String acceptEncoding) {
+		return getVariant(name, getCoding(name, acceptEncoding));
+	}
+
+	/**
+	 * Gets the coding of the variant preferred by the browser.
+	 * @param name the name of the resource
+	 * @param acceptEncoding the value of the Accept-Encoding header of the browser, or null if not given
+	 * @return the coding, or null if the resource is unknown.
+	 */
+	public String getCoding(String name, String acceptEncoding) {
+		Map<String, byte[]> variants = resources.get(name);
+		if (variants == null) return null;
+		return negotiate(acceptEncoding, variants);
+	}
+
+	/**
+	 * Gets the codings of the variants of the resource.
+	 * @param name the name of the resource
+	 * @return the codings, or null if the resource is unknown.
+	 */
+	public Set<String> getCodings(String name) {
+		Map<String, byte[]> variants = resources.get(name);
+		return variants == null ? null : variants.keySet();
+	}
+
+	/**
+	 * Gets the reply of the resource in the given variant.
+	 * @param name the name of the resource
+	 * @param coding the coding of the variant
+	 * @return the name of the coding, a new line and the content. Null if the resource or the variant is unknown.
+	 */
+	public byte[] getVariant(String name, String coding) {
+		Map<String, byte[]> variants = resources.get(name);
+		if (variants == null) return null;
+		return variants.get(coding);
+	}
+
+	/**
+	 * Gets the names of the stored resources.
+	 * @return the names
+	 */
+	public Set<String> getNames() {
+		return contents.keySet();
+	}
+	
+	/**
+	 * Gets the content of the resource as it is (the identity variant without the coding).
+	 * @param name the name of the resource
+	 * @return the content, or null if the resource is unknown.
+	 */
+	public byte[] getContent(String name) {
+		return contents.get(name);
+	}
+
+	/**
+	 * Chooses the coding with the highest quality value among the available ones. The order of the available
+	 * codings decides between the codings with equal quality. If no coding is acceptable, identity is used.
+	 * @param acceptEncoding the value of the Accept-Encoding header, for example "gzip, deflate;q=0.5"
+	 * @param variants the available variants, which contain at least identity
+	 * @return the chosen coding
+	 */
+	static String negotiate(String acceptEncoding, Map<String, byte[]> variants) {
+		if (acceptEncoding == null) return IDENTITY;
+		Map<String, Double> qualities = new HashMap<String, Double>();
+		for (String element : acceptEncoding.split(",")) {
+			String[] parameters = element.split(";");
+			String coding = parameters[0].trim().toLowerCase();
+			double quality = 1;
+			for (int i = 1; i < parameters.length; i++) {
+				String parameter = parameters[i].trim();
+				if (parameter.startsWith("q=")) {
+					try {
+						quality = Double.parseDouble(parameter.substring(2));
+					} catch (NumberFormatException e) {
+						quality = 0;
+					}
+				}
+			}
+			if (!coding.isEmpty()) qualities.put(coding, quality);
+		}
+		String best = IDENTITY;
+		double bestQuality = 0;
+		for (String coding : variants.keySet()) {
+			Double quality = qualities.get(coding);
+			if (quality == null) quality = qualities.get("*");
+			if (quality == null) continue;
+			if (quality > bestQuality) {
+				best = coding;
+				bestQuality = quality;
+			}
+		}
+		return best;
+	}
+
+	private static byte[] compress(byte[] content, boolean gzip) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		OutputStream os = gzip ? new GZIPOutputStream(bytes) : new DeflaterOutputStream(bytes);
+		os.write(content);
+		os.close();
+		return bytes.toByteArray();
+	}
+
+	private static byte[] reply(String coding, byte[] content) {
+		byte[] header = (coding + "\n").getBytes(StandardCharsets.US_ASCII);
+		byte[] reply = new byte[header.length + content.length];
+		System.arraycopy(header, 0, reply, 0, header.length);
+		System.arraycopy(content, 0, reply, header.length, content.length);
+		return reply;
+	}
+
+}
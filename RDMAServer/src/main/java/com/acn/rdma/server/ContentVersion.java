@@ -0,0 +1,136 @@
+package com.acn.rdma.server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * This class is one version of the content of the server, copied into registered buffers for RDMA access of the
+ * clients: the reply of every variant (its length, then the reply) and the content as it is.
+ * <p>
+ * A version is never changed. When the content changes, a new version is registered and published, and the old
+ * one is retired only after the clients stopped reading it. This is tracked with a reference count:
+ *  <ul>
+ *   <li>The server holds one reference while the version is the current one.</li>
+ *   <li>A session holds one reference from the request it answered with the version, until the next message
+ *   of its client (the client sends it only after it has read the reply).</li>
+ *  </ul>
+ * When the last reference is released, the buffers are given back to the pool. A version with no references left
+ * cannot be acquired again.
+ * </p>
+ * @see Server
+ * @version 1
+ */
+public class ContentVersion {
+
+	private static final Logger logger = Logger.getLogger(ContentVersion.class);
+
+	private final int number;
+	private final ContentStore content;
+	private final BufferPool bufferPool;
+	private final Map<String, RdmaRegion> regions;
+	private final Map<String, Map<String, RdmaRegion>> replies;
+	private final AtomicInteger references;
+
+	/**
+	 * Copies the content into registered buffers. The server holds the first reference of the version.
+	 * @param number the number of the version
+	 * @param content the content, which must not be changed anymore
+	 * @param bufferPool the pool of the registered buffers
+	 * @throws RdmaConnectionException if the buffers cannot be registered.
+	 */
+	public ContentVersion(int number, ContentStore content, BufferPool bufferPool) throws RdmaConnectionException {
+		this.number = number;
+		this.content = content;
+		this.bufferPool = bufferPool;
+		this.regions = new HashMap<String, RdmaRegion>();
+		this.replies = new HashMap<String, Map<String, RdmaRegion>>();
+		this.references = new AtomicInteger(1);
+		try {
+			for (String name : content.getNames()) {
+				regions.put(name, copy(content.getContent(name), false));
+				Map<String, RdmaRegion> variants = new HashMap<String, RdmaRegion>();
+				replies.put(name, variants);
+				for (String coding : content.getCodings(name)) {
+					variants.put(coding, copy(content.getVariant(name, coding), true));
+				}
+			}
+		} catch (RdmaConnectionException e) {
+			free();
+			throw e;
+		}
+		logger.debug("Registered version " + number + " of the content.");
+	}
+
+	/**
+	 * Acquires a reference of the version, unless it was retired and all its references were released.
+	 * @return true if the reference was acquired, false if the version cannot be used anymore.
+	 */
+	public boolean acquire() {
+		while (true) {
+			int count = references.get();
+			if (count == 0) return false;
+			if (references.compareAndSet(count, count + 1)) return true;
+		}
+	}
+
+	/**
+	 * Releases a reference of the version. The buffers are given back to the pool with the last reference.
+	 */
+	public void release() {
+		if (references.decrementAndGet() == 0) {
+			free();
+			logger.debug("Retired version " + number + " of the content.");
+		}
+	}
+
+	/**
+	 * Gets the number of the version.
+	 * @return the number
+	 */
+	public int getNumber() {
+		return number;
+	}
+
+	/**
+	 * Gets the registered content (as it is, without coding).
+	 * @param name the name of the content
+	 * @return the registered content, or null if the content is unknown.
+	 */
+	public RdmaRegion getRegion(String name) {
+		return regions.get(name);
+	}
+
+	/**
+	 * Gets the registered reply of the variant of the content accepted by the browser.
+	 * @param name the name of the content
+	 * @param acceptEncoding the codings accepted by the browser, or null
+	 * @return the registered reply, or null if the content is unknown.
+	 */
+	public RdmaRegion getReply(String name, String acceptEncoding) {
+		Map<String, RdmaRegion> variants = replies.get(name);
+		if (variants == null) return null;
+		return variants.get(content.getCoding(name, acceptEncoding));
+	}
+
+	/**
+	 * Copies the bytes into a registered buffer, preceded by their length if asked.
+	 */
+	private RdmaRegion copy(byte[] bytes, boolean withLength) throws RdmaConnectionException {
+		RdmaRegion region = bufferPool.take((withLength ? Integer.SIZE/8 : 0) + bytes.length);
+		if (withLength) region.getBuffer().putInt(bytes.length);
+		region.getBuffer().put(bytes);
+		return region;
+	}
+
+	private void free() {
+		List<RdmaRegion> buffers = new ArrayList<RdmaRegion>(regions.values());
+		for (Map<String, RdmaRegion> variants : replies.values()) buffers.addAll(variants.values());
+		for (RdmaRegion buffer : buffers) bufferPool.give(buffer);
+	}
+
+}
@@ -0,0 +1,109 @@
+package com.acn.rdma.server;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * This class defines the JFR events of the server. It is only loaded through <tt>RdmaEvents</tt>, if the JVM has
+ * JFR.
+ * @see RdmaEvents
+ * @version 1
+ */
+final class JfrEvents {
+
+	private JfrEvents() {
+	}
+
+	static RdmaEvents.Timed beginPost(int operation) {
+		Posted event = operation == EventJournal.POST_RECV ? new PostRecv() : new PostSend(operation);
+		if (!event.isEnabled()) return RdmaEvents.DISABLED;
+		event.begin();
+		return event;
+	}
+
+	static RdmaEvents.Timed beginConnection(int operation) {
+		Connection event = new Connection();
+		if (!event.isEnabled()) return RdmaEvents.DISABLED;
+		event.operation = EventJournal.nameOf(operation);
+		event.begin();
+		return event;
+	}
+
+	static void disconnected(int qpNum) {
+		Disconnect event = new Disconnect();
+		if (!event.isEnabled()) return;
+		event.qpNum = qpNum;
+		event.commit();
+	}
+
+	@Category({ "RDMA", "Server" })
+	@StackTrace(false)
+	static abstract class Posted extends Event implements RdmaEvents.Timed {
+
+		@Label("Work Request Id")
+		long wrId;
+
+		@Label("Length")
+		@DataAmount
+		int length;
+
+		public void commit(long id, int length) {
+			this.wrId = id;
+			this.length = length;
+			commit();
+		}
+	}
+
+	@Name("com.acn.rdma.server.PostSend")
+	@Label("RDMA Post Send")
+	@Description("A send or a write posted on the send queue")
+	static final class PostSend extends Posted {
+
+		@Label("Operation")
+		String operation;
+
+		PostSend(int operation) {
+			this.operation = EventJournal.nameOf(operation);
+		}
+	}
+
+	@Name("com.acn.rdma.server.PostRecv")
+	@Label("RDMA Post Receive")
+	@Description("A receive posted again for its slot")
+	static final class PostRecv extends Posted {
+	}
+
+	@Name("com.acn.rdma.server.Connection")
+	@Label("RDMA Connection")
+	@Description("An accept of a client")
+	@Category({ "RDMA", "Server" })
+	static final class Connection extends Event implements RdmaEvents.Timed {
+
+		@Label("Operation")
+		String operation;
+
+		@Label("Queue Pair")
+		long qpNum;
+
+		public void commit(long id, int length) {
+			this.qpNum = id;
+			commit();
+		}
+	}
+
+	@Name("com.acn.rdma.server.Disconnect")
+	@Label("RDMA Disconnect")
+	@Description("A disconnect announced by the RDMA connection manager, which poisons the session")
+	@Category({ "RDMA", "Server" })
+	static final class Disconnect extends Event {
+
+		@Label("Queue Pair")
+		int qpNum;
+	}
+
+}
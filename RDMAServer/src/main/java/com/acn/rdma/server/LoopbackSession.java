@@ -0,0 +1,89 @@
+package com.acn.rdma.server;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class is a session without a client, used to warm up the server before it reports ready. The synthetic
+ * requests of the session take the same path as the requests of a client (the parsing, the choice of the variant
+ * and the version of the content, the workers), but their replies are only counted, nothing is posted.
+ * @see Server
+ * @version 1
+ */
+public class LoopbackSession implements ClientSession {
+
+	private final CountDownLatch replies;
+	private volatile boolean closed;
+
+	/**
+	 * Constructs the session.
+	 * @param expectedReplies the number of replies the session waits for
+	 */
+	public LoopbackSession(int expectedReplies) {
+		this.replies = new CountDownLatch(expectedReplies);
+	}
+
+	/**
+	 * Waits until the session got all the expected replies.
+	 * @param timeout the maximal time to wait in milliseconds
+	 * @return true if all the replies were received, false if the time elapsed before
+	 * @throws InterruptedException
+	 */
+	public boolean awaitReplies(long timeout) throws InterruptedException {
+		return replies.await(timeout, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Gets the number of replies the session still waits for.
+	 * @return the number of replies
+	 */
+	public long getMissingReplies() {
+		return replies.getCount();
+	}
+
+	@Override
+	public void prepareRdmaAccess(RdmaRegion reply, int id) throws RdmaConnectionException {
+		reply(reply);
+	}
+
+	@Override
+	public void pushReply(RdmaRegion reply, RdmaRegion target, int id) throws RdmaConnectionException {
+		reply(reply);
+	}
+
+	@Override
+	public void prepareBatchRdmaAccess(List<RdmaRegion> replies, int id) throws RdmaConnectionException {
+		for (RdmaRegion reply : replies) {
+			if (reply == null) throw new RdmaConnectionException("Unknown resource in the warmup batch.");
+		}
+		this.replies.countDown();
+	}
+
+	@Override
+	public void grantRdmaAccess(RdmaRegion region, int id) throws RdmaConnectionException {
+		reply(region);
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+	}
+
+	@Override
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Counts the reply, as long as the session is open and the reply is registered.
+	 * @param reply the registered reply
+	 * @throws RdmaConnectionException if the session is closed or there is no reply.
+	 */
+	private void reply(RdmaRegion reply) throws RdmaConnectionException {
+		if (closed) throw new RdmaConnectionException("The warmup session is closed.");
+		if (reply == null) throw new RdmaConnectionException("Unknown resource in the warmup.");
+		replies.countDown();
+	}
+
+}
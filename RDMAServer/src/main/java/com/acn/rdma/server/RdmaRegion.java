@@ -0,0 +1,47 @@
+package com.acn.rdma.server;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This class represents a buffer registered for RDMA access, which the clients can read with one-sided RDMA read
+ * operations at any offset: the buffer, its address, its length and its key.
+ * @version 1
+ */
+public class RdmaRegion {
+	
+	private ByteBuffer buffer;
+	private long address;
+	private int length;
+	private int key;
+	
+	/**
+	 * Constructs the region.
+	 * @param buffer the registered buffer
+	 * @param address the address of the buffer
+	 * @param length the length of the buffer
+	 * @param key the key of the buffer
+	 */
+	public RdmaRegion(ByteBuffer buffer, long address, int length, int key) {
+		this.buffer = buffer;
+		this.address = address;
+		this.length = length;
+		this.key = key;
+	}
+	
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+	
+	public long getAddress() {
+		return address;
+	}
+	
+	public int getLength() {
+		return length;
+	}
+	
+	public int getKey() {
+		return key;
+	}
+
+}
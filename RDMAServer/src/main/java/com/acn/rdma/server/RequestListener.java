@@ -0,0 +1,23 @@
+package com.acn.rdma.server;
+
+/**
+ * Provides an interface to handle the requests of the clients. The methods are called on the completion path,
+ * so the listener should hand the work over to other threads instead of processing it directly.
+ * @version 1
+ */
+public interface RequestListener {
+	
+	/**
+	 * Called when a message from the client is received.
+	 * @param session the session of the client which sent the message
+	 * @param request the message in bytes
+	 */
+	public void requestReceived(ClientSession session, byte[] request);
+	
+	/**
+	 * Called when the connection to the client is broken, the session should be closed.
+	 * @param session the session of the client
+	 */
+	public void sessionBroken(ClientSession session);
+
+}
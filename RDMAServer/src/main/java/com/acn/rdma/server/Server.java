@@ -1,157 +1,467 @@
 package com.acn.rdma.server;
 
-import java.io.InputStream;
 import java.io.IOException;
-import java.util.Base64;
-import org.apache.commons.io.IOUtils;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
 
 import org.apache.log4j.Logger;
 
 
 /**
  * This class implements the server specified in the assignment. 
- * It accepts a RDMA connection to the client. It listens for the requests from the proxy
+ * It accepts RDMA connections from the clients. It listens for the requests from the proxies
  * and responds with one of the following data: 
  *	<ul>
  *   <li>Index (html content of www.rdmawebpage.com)</li>
  *   <li>The network image (www.rdmawebpage.com/network.png)</li>
  *  </ul>
+ * <p>
+ * The requests are received on the completion path of the RDMA connections and handed over to a pool of
+ * workers, which load the content and post the reply. Hence, a slow request does not stall the other
+ * clients, and the thread running the server only accepts new clients.
+ * </p>
+ * <p>
+ * The content is registered for RDMA access once, when the server is bound: the reply of every variant (its
+ * length, then the reply) and the content as it is (see <tt>ContentVersion</tt>). A request is answered with the
+ * RDMA info of the registered reply, nothing is copied per request. For a range request, the client gets the RDMA
+ * info of the registered content and reads only the part it needs.
+ * </p>
+ * <p>
+ * The content is taken from a directory, if one is given, instead of the class path. The directory is watched,
+ * and when a file changes, a new version of the content is registered and published for the next requests. The
+ * requests answered before keep the version they were answered with, until their client sends the next message,
+ * so the version is retired without blocking any read of the clients.
+ * </p>
+ * <p>
+ * The RDMA resources are sized from a profile and adjusted online by the <tt>RdmaTuner</tt>, which exports the
+ * settings it recommends as a JMX bean. The RDMA operations of the clients are recorded in an <tt>EventJournal</tt>,
+ * which is dumped on demand or when the server crashes.
+ * </p>
+ * <p>
+ * The completions of the clients are processed by one thread per configured core, each pinned to its core with
+ * its own completion queue. The clients are spread over them round-robin or by load.
+ * </p>
+ * <p>
+ * A request may name a buffer of the client (Push: address length key). Then the registered reply is written
+ * into it (see <tt>ClientSession.pushReply</tt>), the client does not have to read it.
+ * </p>
+ * <p>
+ * A batch request (Get Batch) names several resources, one per line. They are answered with one table of
+ * RDMA info, so that the client reads all of them in one exchange.
+ * </p>
+ * <p>
+ * Before it reports ready, the server runs a number of synthetic requests through the same path, so that the
+ * first clients do not pay for the class loading and the interpreted code.
+ * </p>
  * 
  * @see ServerRdmaConnection
- * @see RdmaWebPageHandler
+ * @see ClientSession
  * @version 1
  */
-public class Server {
+public class Server implements RequestListener {
 	private static final Logger logger = Logger.getLogger(Server.class);
-	private static final String INDEX_PATH = "static_content/index.html";
-	private static final String IMAGE_PATH = "static_content/network.png";
+	private static final String STATIC_CONTENT = "static_content/";
+	private static final String INDEX_FILE = "index.html";
+	private static final String IMAGE_FILE = "network.png";
+	// the changes of a file are collected for this time before the content is reloaded
+	private static final long RELOAD_DELAY = 200; // milliseconds
+	// the longest the server waits for the replies of the warmup
+	private static final long WARMUP_TIMEOUT = 30000; // milliseconds
 	
 	private static final String GET_INDEX = "Get Index";
 	private static final String GET_IMAGE = "Get Png";
+	private static final String GET_BATCH = "Get Batch";
+	private static final String FINAL_SIGNAL = "Everything went fine";
+	private static final String ACCEPT_ENCODING_PREFIX = "Accept-Encoding:";
+	private static final String RANGE_PREFIX = "Range:";
+	private static final String PUSH_PREFIX = "Push:";
 
-	private static final int RECEIVE_ID = 500;
 	private static final int SEND_INDEX_ID = 1000; 
 	private static final int SEND_IMAGE_ID = 2000;
-	private static final int GET_FINAL_SIGNAL_ID = 3000;
+	private static final int SEND_BATCH_ID = 4000;
+
+	// the synthetic requests of the warmup, taking every path of the requests of the clients
+	private static final String[] WARMUP_REQUESTS = {
+		GET_INDEX,
+		GET_INDEX + "\n" + ACCEPT_ENCODING_PREFIX + " gzip, deflate",
+		GET_IMAGE,
+		GET_IMAGE + "\n" + RANGE_PREFIX + " bytes=0-1023",
+		GET_INDEX + "\n" + ACCEPT_ENCODING_PREFIX + " gzip\n" + PUSH_PREFIX + " 0 65536 0",
+		GET_BATCH + "\n" + ACCEPT_ENCODING_PREFIX + " gzip\n" + GET_INDEX + "\n" + GET_IMAGE
+	};
     
 	private String ipAddress;
 	private int port;
 	private ServerRdmaConnection connection;
+	private RdmaTuner tuner;
+	private EventJournal journal;
+	private ExecutorService workers;
+	private Path contentDirectory;
+	private ContentStore content;
+	private volatile ContentVersion version;
+	// the version of the last reply of every session, its client may still read it
+	private ConcurrentHashMap<ClientSession, ContentVersion> pinnedVersions;
+	private int warmupRequests;
 
 	
 	/**
-	 * Constructs the server.
+	 * Constructs the server and loads the content.
 	 * @param ipAddress
 	 * @param port
+	 * @param workers the number of threads processing the requests
+	 * @param contentDirectory the directory of the content, which is watched for changes, or null to serve the
+	 * content of the class path
+	 * @param profile the profile of the RDMA resources, which are adjusted online from it
+	 * @param cores the cores of the completion threads, one endpoint group per core, or an empty array for one group
+	 * which is not pinned
+	 * @param balanceByLoad true to give a new client to the endpoint group with the fewest clients, false for
+	 * round-robin
+	 * @param warmupRequests the number of synthetic requests run before the server reports ready, 0 to disable the warmup
+	 * @param journal the journal of the RDMA operations of the clients
+	 * @throws IOException if the content cannot be loaded.
 	 */
-	public Server(String ipAddress, int port) {
+	public Server(String ipAddress, int port, int workers, String contentDirectory, RdmaProfile profile, int[] cores,
+			boolean balanceByLoad, int warmupRequests, EventJournal journal) throws IOException {
 		this.ipAddress = ipAddress;
 		this.port = port;
-		this.connection = new ServerEndpointDiSNIAdapter();
+		this.tuner = new RdmaTuner(profile, Math.max(1, cores.length));
+		this.journal = journal;
+		this.connection = new ServerEndpointDiSNIAdapter(tuner, journal, cores, balanceByLoad);
+		this.workers = Executors.newFixedThreadPool(workers);
+		this.contentDirectory = contentDirectory == null ? null : Paths.get(contentDirectory);
+		this.content = loadContent();
+		this.pinnedVersions = new ConcurrentHashMap<ClientSession, ContentVersion>();
+		this.warmupRequests = warmupRequests;
 	}
 	
 	/**
-	 * Starts the server. The server firsts wait for a connection request from the client.
-	 * After the connection, it posts a receive working request and waits for new requests continuously.
-	 * If an error occurs, the server restarts himself (We want to keep the server working). 
-	 * @throws InterruptedException 
-	 * @throws IOException 
-	 * @throws Exception
+	 * Starts the server. The server is bound once, registers the content and warms up (see <tt>warmup</tt>), then
+	 * it reports ready and accepts the connection requests of the clients continuously. The requests of the accepted clients are processed in the background. If an error occurs
+	 * during an accept, the server simply waits for the next client (We want to keep the server working). 
+	 * @throws RdmaConnectionException if the server cannot be bound.
+	 */
+	public void start() throws RdmaConnectionException {
+		connection.rdmaBind(ipAddress, port);
+		tuner.start();
+		journal.start();
+		version = new ContentVersion(1, content, connection.getBufferPool());
+		warmup();
+		if (contentDirectory != null) watchContent();
+		logger.debug("Server ready.");
+		System.out.println("Server ready on " + ipAddress + ":" + port);
+		while (true) {
+			try {
+				connection.rdmaAccept(this);
+			} catch (RdmaConnectionException e) {
+				logger.debug(e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Runs the synthetic requests of the warmup through the path of the requests of the clients, with a session
+	 * without a client (see <tt>LoopbackSession</tt>), so that the classes are loaded and initialized and the path
+	 * is compiled by the JIT before the first client. The requests take every variant of the path, and the version
+	 * of the content they pinned is released at the end. If the replies do not arrive in time, the server starts
+	 * anyway.
 	 */
-	public void start() throws IOException, InterruptedException {
+	private void warmup() {
+		if (warmupRequests <= 0) return;
+		logger.debug("Warming up with " + warmupRequests + " requests...");
+		long start = System.nanoTime();
+		LoopbackSession session = new LoopbackSession(warmupRequests);
+		for (int i = 0; i < warmupRequests; i++) {
+			requestReceived(session, WARMUP_REQUESTS[i % WARMUP_REQUESTS.length].getBytes());
+		}
 		try {
-			createConnection();
-			while (true) {
-				acceptNextRequest();
+			if (!session.awaitReplies(WARMUP_TIMEOUT)) {
+				logger.debug("The warmup is missing " + session.getMissingReplies() + " replies.");
 			}
-		} catch (IOException e) {
-			logger.debug(e.getMessage());
-			start();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
+		requestReceived(session, FINAL_SIGNAL.getBytes());
+		logger.debug("Warmed up in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms.");
 	}
 
 	/**
-	 * It accepts the connection from the client in the given ip address and port.
-	 * @param ipAddress
-	 * @param port
-	 * @throws Exception
+	 * Loads the content from the content directory, or from the class path if there is none.
+	 * @return the content
+	 * @throws IOException if the content cannot be loaded.
 	 */
-	private void createConnection() throws RdmaConnectionException {
-		connection.rdmaAccept(ipAddress, port);
+	private ContentStore loadContent() throws IOException {
+		ContentStore store = new ContentStore();
+		if (contentDirectory == null) {
+			store.load(GET_INDEX, STATIC_CONTENT + INDEX_FILE);
+			store.load(GET_IMAGE, STATIC_CONTENT + IMAGE_FILE);
+		} else {
+			store.load(GET_INDEX, contentDirectory.resolve(INDEX_FILE));
+			store.load(GET_IMAGE, contentDirectory.resolve(IMAGE_FILE));
+		}
+		return store;
 	}
 	
 	/**
-	 * It accepts new requests from the client.
-	 * @throws RdmaConnectionException
+	 * Watches the content directory in the background and reloads the content when a file is created or changed.
+	 * The changes are collected for the reload delay, so that a file is not loaded while it is written.
+	 * @throws RdmaConnectionException if the directory cannot be watched.
 	 */
-	private void acceptNextRequest() throws RdmaConnectionException {
-		String message = new String(connection.rdmaReceive(RECEIVE_ID));
-		if(message.equals(GET_INDEX)) {
-				logger.debug("Started processing Get Index.");
-				// dump 'index.html' to a String
-				byte[] htmlFile = null;
+	private void watchContent() throws RdmaConnectionException {
+		final WatchService watchService;
+		try {
+			watchService = FileSystems.getDefault().newWatchService();
+			contentDirectory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+		} catch (IOException e) {
+			throw new RdmaConnectionException("Could not watch the content directory: " + e.getMessage());
+		}
+		Thread watcher = new Thread(new Runnable() {
+			public void run() {
 				try {
-					htmlFile = fileToBytes();
-				} catch (Exception e) {
-					logger.debug("Could not open the html file.");
-					System.exit(-1);
+					while (true) {
+						WatchKey key = watchService.take();
+						Thread.sleep(RELOAD_DELAY);
+						key.pollEvents();
+						key.reset();
+						reloadContent();
+					}
+				} catch (InterruptedException e) {
+					logger.debug("Stopped watching the content directory.");
 				}
-				logger.debug("Preparing rdma access...");
-				connection.prepareRdmaAccess(htmlFile, SEND_INDEX_ID);
-				logger.debug("Rdma access done.");
-				connection.rdmaReceive(GET_FINAL_SIGNAL_ID);
-				logger.debug("Got the final signal message.");
-				
-		} else if(message.equals(GET_IMAGE)) {
-				// dump 'network.png' to a String
-				logger.debug("Started processing Get Image.");
-				byte[] image = null;
+			}
+		}, "content-watcher");
+		watcher.setDaemon(true);
+		watcher.start();
+		logger.debug("Watching the content directory " + contentDirectory);
+	}
+	
+	/**
+	 * Loads and registers a new version of the content and publishes it. The old version is retired as soon as
+	 * no client reads it anymore. If the content cannot be loaded, the old version is kept.
+	 */
+	private void reloadContent() {
+		ContentVersion next;
+		try {
+			next = new ContentVersion(version.getNumber() + 1, loadContent(), connection.getBufferPool());
+		} catch (IOException e) {
+			logger.debug("Could not reload the content, keeping version " + version.getNumber() + ": " + e.getMessage());
+			return;
+		}
+		ContentVersion old = version;
+		version = next;
+		old.release();
+		logger.debug("Published version " + next.getNumber() + " of the content.");
+	}
+	
+	/**
+	 * Acquires the current version of the content. If the version is retired meanwhile, the next one is taken.
+	 * @return the acquired version
+	 */
+	private ContentVersion acquireVersion() {
+		while (true) {
+			ContentVersion current = version;
+			if (current.acquire()) return current;
+		}
+	}
+	
+	/**
+	 * Pins the version for the session, instead of the version of its last reply: the client sends a message
+	 * only after it has read the last reply, so the last version is released.
+	 * @param session the session of the client
+	 * @param pinned the version of the reply of the message, or null if the message has no reply
+	 */
+	private void pinVersion(ClientSession session, ContentVersion pinned) {
+		ContentVersion released = pinned == null ? pinnedVersions.remove(session) : pinnedVersions.put(session, pinned);
+		if (released != null) released.release();
+	}
+	
+	/**
+	 * Closes the session and releases the version of its last reply.
+	 * @param session the session of the client
+	 */
+	private void closeSession(ClientSession session) {
+		pinVersion(session, null);
+		session.close();
+	}
+	
+	/**
+	 * Hands the request over to the workers. It is called on the completion path, so it does only the
+	 * string matching of the request. The request may be followed by lines with the codings accepted by the
+	 * browser (Accept-Encoding: ...) or asking for the registered content of a range request (Range: ...).
+	 * A request is answered with the current version of the content, which stays pinned for the session.
+	 * @see {@link RequestListener}
+	 */
+	@Override
+	public void requestReceived(final ClientSession session, byte[] request) {
+		String[] lines = new String(request).split("\n");
+		String message = lines[0];
+		String acceptEncoding = null;
+		boolean range = false;
+		RdmaRegion push = null;
+		List<String> names = new ArrayList<String>();
+		for (int i = 1; i < lines.length; i++) {
+			if (lines[i].startsWith(ACCEPT_ENCODING_PREFIX)) {
+				acceptEncoding = lines[i].substring(ACCEPT_ENCODING_PREFIX.length()).trim();
+			} else if (lines[i].startsWith(RANGE_PREFIX)) {
+				range = true;
+			} else if (lines[i].startsWith(PUSH_PREFIX)) {
+				push = parsePush(lines[i].substring(PUSH_PREFIX.length()).trim());
+			} else {
+				names.add(lines[i]);
+			}
+		}
+		if (message.equals(GET_BATCH)) {
+			logger.debug("Started processing a batch of " + names.size() + " requests.");
+			ContentVersion pinned = acquireVersion();
+			pinVersion(session, pinned);
+			sendBatch(session, pinned, names, acceptEncoding, SEND_BATCH_ID);
+		} else if (message.equals(GET_INDEX)) {
+			logger.debug("Started processing Get Index.");
+			ContentVersion pinned = acquireVersion();
+			pinVersion(session, pinned);
+			sendContent(session, pinned, GET_INDEX, acceptEncoding, range, push, SEND_INDEX_ID);
+		} else if (message.equals(GET_IMAGE)) {
+			logger.debug("Started processing Get Image.");
+			ContentVersion pinned = acquireVersion();
+			pinVersion(session, pinned);
+			sendContent(session, pinned, GET_IMAGE, acceptEncoding, range, push, SEND_IMAGE_ID);
+		} else if (message.equals(FINAL_SIGNAL)) {
+			logger.debug("Got the final signal message.");
+			pinVersion(session, null);
+		} else {
+			logger.debug("Unknow request.");
+			pinVersion(session, null);
+		}
+	}
+	
+	/**
+	 * Closes the session in the background, the completion path should not wait for the endpoint to be closed.
+	 * @see {@link RequestListener}
+	 */
+	@Override
+	public void sessionBroken(final ClientSession session) {
+		workers.execute(new Runnable() {
+			public void run() {
+				closeSession(session);
+			}
+		});
+	}
+	
+	/**
+	 * Lets a worker prepare the rdma access of the client to the variant of the content accepted by the browser.
+	 * For a range request, the RDMA info of the registered content is sent directly.
+	 * @param session the session of the client
+	 * @param version the version of the content
+	 * @param name the name of the content
+	 * @param acceptEncoding the codings accepted by the browser, or null
+	 * @param range true for a range request
+	 * @param push the buffer of the client the reply should be written into, or null
+	 * @param id the unique id for the working request
+	 */
+	private void sendContent(final ClientSession session, final ContentVersion version, final String name,
+			final String acceptEncoding, boolean range, final RdmaRegion push, final int id) {
+		if (range) {
+			try {
+				session.grantRdmaAccess(version.getRegion(name), id);
+			} catch (RdmaConnectionException e) {
+				logger.debug(e.getMessage());
+				sessionBroken(session);
+			}
+			return;
+		}
+		workers.execute(new Runnable() {
+			public void run() {
+				if (push != null) {
+					pushReply(session, version.getReply(name, acceptEncoding), push, id);
+				} else {
+					prepareRdmaAccess(session, version.getReply(name, acceptEncoding), id);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Lets a worker prepare the rdma access of the client to the variants of all the requested contents.
+	 * @param session the session of the client
+	 * @param version the version of the content
+	 * @param names the names of the contents
+	 * @param acceptEncoding the codings accepted by the browser, or null
+	 * @param id the unique id for the working request
+	 */
+	private void sendBatch(final ClientSession session, final ContentVersion version, final List<String> names,
+			final String acceptEncoding, final int id) {
+		workers.execute(new Runnable() {
+			public void run() {
+				List<RdmaRegion> batch = new ArrayList<RdmaRegion>(names.size());
+				for (String name : names) batch.add(version.getReply(name, acceptEncoding));
 				try {
-					image = imageToBytes();
-				} catch (Exception e) {
-					logger.debug("Could not open the image file.");
-					e.printStackTrace();
-					System.exit(-1);
+					session.prepareBatchRdmaAccess(batch, id);
+				} catch (RdmaConnectionException e) {
+					logger.debug(e.getMessage());
+					closeSession(session);
 				}
-				logger.debug("Preparing rdma access...");
-				connection.prepareRdmaAccess(image, SEND_IMAGE_ID);
-				logger.debug("Rdma access done.");
-				connection.rdmaReceive(GET_FINAL_SIGNAL_ID);
-				logger.debug("Got the final signal message.");
+			}
+		});
+	}
 	
-		} else {	
-				logger.debug("Unknow request.");
-	            assert false : this;
+	/**
+	 * Prepares the rdma access of the client to the reply. If it fails, only the session of the client is closed.
+	 * @param session the session of the client
+	 * @param reply the registered reply
+	 * @param id the unique id for the working request
+	 */
+	private void prepareRdmaAccess(ClientSession session, RdmaRegion reply, int id) {
+		try {
+			logger.debug("Preparing rdma access...");
+			session.prepareRdmaAccess(reply, id);
+			logger.debug("Rdma access posted.");
+		} catch (RdmaConnectionException e) {
+			logger.debug(e.getMessage());
+			closeSession(session);
 		}
-		
 	}
 	
-
 	/**
-	 * Converts an network.png to a byte array.
-	 * 
-	 * @return byte array with the content of network.png
-	 * @throws IOException 
-	 * @throws Exception
+	 * Writes the reply into the buffer of the client. If it fails, only the session of the client is closed.
+	 * @param session the session of the client
+	 * @param reply the registered reply
+	 * @param target the buffer of the client
+	 * @param id the unique id for the working request
 	 */
-	private byte[] imageToBytes() throws IOException {
-		 InputStream is = Thread.currentThread().getContextClassLoader().getResourceAsStream(IMAGE_PATH);
-	     byte[] imageBytes = IOUtils.toByteArray(is);
-	     byte[] encodedImage = Base64.getEncoder().encode(imageBytes);
-	     return encodedImage;
+	private void pushReply(ClientSession session, RdmaRegion reply, RdmaRegion target, int id) {
+		try {
+			session.pushReply(reply, target, id);
+			logger.debug("Reply push posted.");
+		} catch (RdmaConnectionException e) {
+			logger.debug(e.getMessage());
+			closeSession(session);
+		}
 	}
- 	
+	
 	/**
-	 * Converts index.html to a byte array.
-	 * 
-	 * @return byte array with the content of index.html
-	 * @throws IOException
+	 * Parses the buffer of the client from the push line: its address, length and key.
+	 * @param push the push line without the prefix
+	 * @return the buffer, or null if the line is malformed (the reply is not pushed then).
 	 */
-	private byte[] fileToBytes() throws IOException {
-		
-		InputStream is = Thread.currentThread().getContextClassLoader().getResourceAsStream(INDEX_PATH);
-		return IOUtils.toByteArray(is);
+	private static RdmaRegion parsePush(String push) {
+		String[] fields = push.split(" +");
+		if (fields.length != 3) return null;
+		try {
+			return new RdmaRegion(null, Long.parseLong(fields[0]), Integer.parseInt(fields[1]), Integer.parseInt(fields[2]));
+		} catch (NumberFormatException e) {
+			logger.debug("Malformed push line " + push);
+			return null;
+		}
 	}
-	
- 	
+
 }
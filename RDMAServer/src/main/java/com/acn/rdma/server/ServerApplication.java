@@ -19,20 +19,45 @@ public class ServerApplication {
             + "Please give at least the IP of the server as an argument by using -a option!";
 		
 	private static final int DEFAULT_SERVER_PORT = 1919;
+	private static final int DEFAULT_WORKERS = Runtime.getRuntime().availableProcessors();
+	// enough invocations of the request path for the JIT to compile it
+	private static final int DEFAULT_WARMUP_REQUESTS = 20000;
 	
 
 	private static String SERVER_IP;
 	private static int SERVER_PORT;
+	private static int WORKERS;
+	private static String CONTENT_DIRECTORY;
+	private static RdmaProfile PROFILE;
+	private static int[] CORES;
+	private static boolean BALANCE_BY_LOAD;
+	private static int WARMUP_REQUESTS;
+	private static String JOURNAL_FILE;
 	
 	private static final String SERVER_IP_KEY = "a";
 	private static final String SERVER_PORT_KEY = "p";
+	private static final String WORKERS_KEY = "w";
+	private static final String CONTENT_DIRECTORY_KEY = "c";
+	private static final String PROFILE_KEY = "t";
+	private static final String CORES_KEY = "g";
+	private static final String BALANCE_BY_LOAD_KEY = "l";
+	private static final String WARMUP_REQUESTS_KEY = "u";
+	private static final String JOURNAL_FILE_KEY = "j";
+	// the affinity of DiSNI is a mask of 64 cores
+	private static final int MAX_CORE = Long.SIZE - 1;
 	
 	
 	 /**
      * The main method is called to start the server application. 
      * The server application implements the server specified in the assignment. 
      * Firstly, it checks the console arguments for the server IP and the port where the server
-     * should listen. Then simply it starts the server. 
+     * should listen, and the number of workers processing the requests (by default the number of
+     * processors). Then simply it starts the server. The content is taken from the class path, or from a
+     * content directory, which is watched for changes. The RDMA resources are sized from a profile (small,
+     * default or large, or a properties file), which is adjusted online. The completions are processed by one
+     * thread per given core (one unpinned thread by default), the clients are spread over them round-robin or by load.
+     * Before it reports ready, the server warms up with a number of synthetic requests (0 disables the warmup).
+     * The journal of the RDMA operations is dumped into the given file when the server exits or crashes.
      * Only the IP of the server is mandatory to give, if the other options are not found, it
      * uses the default values.
      * 
@@ -49,11 +74,12 @@ public class ServerApplication {
 			System.out.println(ERROR_ARGUMENTS);
 			System.exit(1);
 		}
-		Server server = new Server(SERVER_IP, SERVER_PORT);
 		logger.debug("Starting the server...");
 		try {
+			Server server = new Server(SERVER_IP, SERVER_PORT, WORKERS, CONTENT_DIRECTORY, PROFILE, CORES, BALANCE_BY_LOAD,
+					WARMUP_REQUESTS, new EventJournal(EventJournal.DEFAULT_CAPACITY, JOURNAL_FILE));
 			server.start();
-		} catch (IOException | InterruptedException e) {
+		} catch (IOException e) {
 			logger.debug("An unexpected error occurred: " + e.getMessage());
 			System.exit(1);
 		}
@@ -66,7 +92,23 @@ public class ServerApplication {
 		Option serverPort = Option.builder(SERVER_PORT_KEY).desc("server port").hasArg().type(Number.class).build();
 
 		options.addOption(address);
+		Option workers = Option.builder(WORKERS_KEY).desc("number of workers").hasArg().type(Number.class).build();
+
+		Option contentDirectory = Option.builder(CONTENT_DIRECTORY_KEY).desc("content directory").hasArg().build();
+		Option profile = Option.builder(PROFILE_KEY).desc("rdma profile: small, default, large or a properties file").hasArg().build();
+
 		options.addOption(serverPort);
+		options.addOption(workers);
+		options.addOption(contentDirectory);
+		options.addOption(profile);
+		Option cores = Option.builder(CORES_KEY).desc("comma-separated cores, one completion thread per core").hasArg().build();
+		Option balanceByLoad = Option.builder(BALANCE_BY_LOAD_KEY).desc("give a new client to the least loaded completion thread instead of round-robin").build();
+		options.addOption(cores);
+		options.addOption(balanceByLoad);
+		Option warmupRequests = Option.builder(WARMUP_REQUESTS_KEY).desc("number of synthetic warmup requests before the server is ready (0 disables the warmup)").hasArg().type(Number.class).build();
+		options.addOption(warmupRequests);
+		Option journalFile = Option.builder(JOURNAL_FILE_KEY).desc("file the journal of the rdma operations is dumped into on exit or crash").hasArg().build();
+		options.addOption(journalFile);
 		
 		CommandLineParser parser = new DefaultParser();
 		CommandLine line = parser.parse(options, args);
@@ -78,5 +120,56 @@ public class ServerApplication {
 			SERVER_PORT = DEFAULT_SERVER_PORT;
 		}
 		
+		if (line.hasOption(WORKERS_KEY)) {
+			WORKERS = ((Number) line.getParsedOptionValue(WORKERS_KEY)).intValue();
+			if (WORKERS <= 0) throw new ParseException("The number of workers must be positive.");
+		} else {
+			WORKERS = DEFAULT_WORKERS;
+		}
+		
+		CONTENT_DIRECTORY = line.getOptionValue(CONTENT_DIRECTORY_KEY);
+		
+		try {
+			PROFILE = RdmaProfile.load(line.getOptionValue(PROFILE_KEY, RdmaProfile.DEFAULT));
+		} catch (IOException | IllegalArgumentException e) {
+			throw new ParseException("The rdma profile is not correct: " + e.getMessage());
+		}
+		
+		CORES = parseCores(line.getOptionValue(CORES_KEY));
+		BALANCE_BY_LOAD = line.hasOption(BALANCE_BY_LOAD_KEY);
+		
+		if (line.hasOption(WARMUP_REQUESTS_KEY)) {
+			WARMUP_REQUESTS = ((Number) line.getParsedOptionValue(WARMUP_REQUESTS_KEY)).intValue();
+			if (WARMUP_REQUESTS < 0) throw new ParseException("The number of warmup requests must not be negative.");
+		} else {
+			WARMUP_REQUESTS = DEFAULT_WARMUP_REQUESTS;
+		}
+		
+		JOURNAL_FILE = line.getOptionValue(JOURNAL_FILE_KEY);
+		
+	}
+	
+	/**
+	 * Parses the comma-separated list of cores.
+	 * @param value the list of cores, or null
+	 * @return the cores, empty if none are given
+	 * @throws ParseException if a core is not correct or given twice.
+	 */
+	private static int[] parseCores(String value) throws ParseException {
+		if (value == null) return new int[0];
+		String[] parts = value.split(",");
+		int[] cores = new int[parts.length];
+		long mask = 0;
+		for (int i = 0; i < parts.length; i++) {
+			try {
+				cores[i] = Integer.parseInt(parts[i].trim());
+			} catch (NumberFormatException e) {
+				throw new ParseException("Core not correct: " + parts[i]);
+			}
+			if (cores[i] < 0 || cores[i] > MAX_CORE) throw new ParseException("Core out of range: " + cores[i]);
+			if ((mask & 1L << cores[i]) != 0) throw new ParseException("Core given twice: " + cores[i]);
+			mask |= 1L << cores[i];
+		}
+		return cores;
 	}
 }
@@ -2,20 +2,22 @@ package com.acn.rdma.server;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 
 import org.apache.log4j.Logger;
 
 import com.ibm.disni.rdma.RdmaActiveEndpoint;
-import com.ibm.disni.rdma.RdmaActiveEndpointGroup;
-import com.ibm.disni.rdma.verbs.IbvMr;
 import com.ibm.disni.rdma.verbs.IbvRecvWR;
 import com.ibm.disni.rdma.verbs.IbvSendWR;
 import com.ibm.disni.rdma.verbs.IbvSge;
 import com.ibm.disni.rdma.verbs.IbvWC;
 import com.ibm.disni.rdma.verbs.RdmaCmEvent;
 import com.ibm.disni.rdma.verbs.RdmaCmId;
+import com.ibm.disni.rdma.verbs.SVCPostRecv;
+import com.ibm.disni.rdma.verbs.SVCPostSend;
 
 
 /**
@@ -41,106 +43,142 @@ import com.ibm.disni.rdma.verbs.RdmaCmId;
  * the lists of working requests (both send and receive) consist only of one
  * working request, which consists of only one scatter/gather element.
  * </p>
+ * 
+ * <p>
+ * Several receive working requests are kept posted, one per receive slot, each with its own receive buffer.
+ * The id of a receive working request tells its slot (the receive id plus the slot), so a message is read from
+ * the buffer of its slot and only this slot is posted again. The number of slots is advertised to the client,
+ * which never sends more messages than there are posted slots (see <tt>ClientSessionDiSNIAdapter</tt>).
+ * </p>
+ * 
+ * <p>
+ * The number of receive slots is taken from the profile of the <tt>RdmaTuner</tt>, the capacity of the queue of
+ * the completion events from the tuner when the endpoint is created. The endpoint reports to the tuner when it is
+ * connected and closed, its outstanding receives and the completion events which found the queue full.
+ * </p>
+ * 
+ * <p>
+ * The endpoint uses the completion queue of the endpoint group it was created in, one of several groups of the
+ * server (see <tt>ServerFactory</tt>), but its connection events are delivered by the group of the listening
+ * endpoint. It is counted in the load of its group while it is connected.
+ * </p>
+ * 
+ * <p>
+ * The verb calls posting these working requests are prepared once, when they are used the first time, and
+ * executed again for every reply and every receive. Only the working request id and the length are changed
+ * in the prepared send call. The calls are freed when the endpoint is closed.
+ * </p>
+ * 
+ * <p>
+ * The send and receive buffers are taken from the <tt>BufferPool</tt> shared by all the endpoints when the
+ * endpoint is connected, and given back when it is closed. They only hold the requests and the RDMA info of the
+ * replies, the data of the replies is read by the client directly from the registered content.
+ * </p>
  */
 
 // This class is adapted from DiSNI examples in the Github. 
 
 public class ServerEndpoint extends RdmaActiveEndpoint {
 	private static final Logger logger = Logger.getLogger(ServerEndpoint.class);
+	// the send and receive buffers hold only requests and RDMA info
+	private static final int BUFFER_SIZE = 1024;
+	public static final int RECEIVE_ID = 500;
 	
-	private ByteBuffer buffers[];
-	private IbvMr mrlist[];
-	private int buffercount;
-	private int buffersize;
+	private TunedEndpointGroup<ServerEndpoint> endpointGroup;
+	private TunedEndpointGroup<ServerEndpoint> listeningGroup;
+	private BufferPool bufferPool;
+	private RdmaTuner tuner;
+	private EventJournal journal;
+	private int receiveSlots;
+	private RdmaRegion sendRegion;
+	private RdmaRegion[] recvRegions;
 	
-	private ByteBuffer dataBuf;
-	private IbvMr dataMr;
 	private ByteBuffer sendBuf;
-	private IbvMr sendMr;
-	private ByteBuffer recvBuf;
-	private IbvMr recvMr;	
+	private ByteBuffer[] recvBufs;
 	
 	private LinkedList<IbvSendWR> wrList_send;
 	private IbvSge sgeSend;
 	private LinkedList<IbvSge> sgeListSend;
 	private IbvSendWR sendWR;
 	
-	private LinkedList<IbvRecvWR> wrList_recv;
-	private IbvSge sgeRecv;
-	private LinkedList<IbvSge> sgeListRecv;
-	private IbvRecvWR recvWR;
+	private List<LinkedList<IbvRecvWR>> wrLists_recv;
+	
+	private SVCPostSend sendCall;
+	private SVCPostRecv[] recvCalls;
 	
 	protected ArrayBlockingQueue<IbvWC> wcEvents;
 	protected static final IbvWC POISON_INSTANCE = new IbvWC();
 	
+	private CompletionListener completionListener;
+	
 	/**
 	 * Constructs the <tt>ServerEndpoint</tt>. Creates the buffers, working request lists and the working 
 	 * completion event.
-	 * @param endpointGroup
+	 * @param endpointGroup the group whose completion queue the endpoint uses
+	 * @param listeningGroup the group of the listening endpoint, which delivers the connection events
 	 * @param idPriv
 	 * @param isServerSide
+	 * @param bufferPool the pool of the send and receive buffers
+	 * @param tuner the tuner, which sizes the receive slots and the queue of the completion events
+	 * @param journal the journal of the RDMA operations
 	 * @throws IOException
 	 */
-	public ServerEndpoint(RdmaActiveEndpointGroup<? extends ServerEndpoint> endpointGroup, RdmaCmId idPriv, boolean isServerSide) throws IOException {	
+	public ServerEndpoint(TunedEndpointGroup<ServerEndpoint> endpointGroup, TunedEndpointGroup<ServerEndpoint> listeningGroup,
+			RdmaCmId idPriv, boolean isServerSide, BufferPool bufferPool, RdmaTuner tuner, EventJournal journal) throws IOException {	
 		super(endpointGroup, idPriv, isServerSide);
 		logger.debug("Ran the constuctor of the general class (RdmaActiveEndpoint");
-		this.buffercount = 3;
-		this.buffersize = 10000; //image is 2622 byte
-		buffers = new ByteBuffer[buffercount];
-		this.mrlist = new IbvMr[buffercount];
-		
-		for (int i = 0; i < buffercount; i++){
-			buffers[i] = ByteBuffer.allocateDirect(buffersize);
-		}
-		logger.debug("Initialized the buffers.");
+		this.endpointGroup = endpointGroup;
+		this.listeningGroup = listeningGroup;
+		this.bufferPool = bufferPool;
+		this.journal = journal;
+		this.tuner = tuner;
+		this.receiveSlots = tuner.getProfile().getReceiveSlots();
 		this.wrList_send = new LinkedList<IbvSendWR>();	
 		this.sgeSend = new IbvSge();
 		this.sgeListSend = new LinkedList<IbvSge>();
 		this.sendWR = new IbvSendWR();
 		logger.debug("Initialized the sending working queue.");
 		
-		this.wrList_recv = new LinkedList<IbvRecvWR>();	
-		this.sgeRecv = new IbvSge();
-		this.sgeListRecv = new LinkedList<IbvSge>();
-		this.recvWR = new IbvRecvWR();		
+		this.recvRegions = new RdmaRegion[receiveSlots];
+		this.recvBufs = new ByteBuffer[receiveSlots];
+		this.wrLists_recv = new ArrayList<LinkedList<IbvRecvWR>>(receiveSlots);
+		this.recvCalls = new SVCPostRecv[receiveSlots];
 		logger.debug("Initialized the receiving working queue.");
 		
-		this.wcEvents = new ArrayBlockingQueue<IbvWC>(10);
+		this.wcEvents = new ArrayBlockingQueue<IbvWC>(tuner.getEventQueueCapacity());
 	}
 	
 	
 	/**
-	 * This method deals with specifics of the <tt>ServerEndpoint</tt>. It initializes the buffers and 
-	 * binds them to the memory regions of the RDMA device. It also initializes the scatter/gather 
-	 * element for the send and receive operations. In the end, it posts an receive operation.
+	 * This method deals with specifics of the <tt>ServerEndpoint</tt>. It takes the buffers, which are already
+	 * registered, from the buffer pool. It also initializes the scatter/gather 
+	 * element for the send and receive operations. In the end, it posts the receive operations of all the slots.
 	 */
 	//important: we override the init method to prepare some buffers (memory registration, post recv, etc). 
 	//This guarantees that at least one recv operation will be posted at the moment this endpoint is connected. 
 	public void init() throws IOException{
 		super.init();
 		
-		for (int i = 0; i < buffercount; i++){
-			mrlist[i] = registerMemory(buffers[i]).execute().free().getMr();
+		this.sendRegion = bufferPool.take(BUFFER_SIZE);
+		this.sendBuf = sendRegion.getBuffer();
+		// the endpoint counts as connected as long as it holds the send buffer
+		tuner.endpointOpened();
+		endpointGroup.endpointOpened();
+		for (int slot = 0; slot < receiveSlots; slot++) {
+			recvRegions[slot] = bufferPool.take(BUFFER_SIZE);
+			recvBufs[slot] = recvRegions[slot].getBuffer();
 		}
-		
-		this.dataBuf = buffers[0];
-		this.dataMr = mrlist[0];
-		this.sendBuf = buffers[1];
-		this.sendMr = mrlist[1];
-		this.recvBuf = buffers[2];
-		this.recvMr = mrlist[2];
-		
-		dataBuf.clear();
-		sendBuf.clear();
-		recvBuf.clear();
 
 		sendInit();
 		logger.debug("Send working queue is ready.");
 		recvInit();
 		logger.debug("Receive working queue is ready.");
 		
-		this.postRecv(wrList_recv).execute().free();	
-		logger.debug("Posted a receive operation.");
+		for (int slot = 0; slot < receiveSlots; slot++) {
+			getRecvCall(slot).execute();
+		}
+		tuner.recordOutstanding(receiveSlots);
+		logger.debug("Posted " + receiveSlots + " receive operations.");
 	}
 	
 	/**
@@ -152,41 +190,60 @@ public class ServerEndpoint extends RdmaActiveEndpoint {
 	 * of the working request (such as working request ID, the Opcode, flags, etc).
 	 */
 	private void sendInit() {
-		sgeSend.setAddr(sendMr.getAddr());
-		sgeSend.setLength(sendMr.getLength());
-		sgeSend.setLkey(sendMr.getLkey());
+		sgeSend.setAddr(sendRegion.getAddress());
+		sgeSend.setLength(sendRegion.getLength());
+		sgeSend.setLkey(sendRegion.getKey());
 		sgeListSend.add(sgeSend);
 		sendWR.setSg_list(sgeListSend);
 		wrList_send.add(sendWR);
 	}
 	
 	/**
-	 * This method initializes the receive scatter gather element. It stores the local address of the buffer,
-	 * the length and the key, which can be used from the remote node for different operations.
+	 * This method initializes the receive scatter gather elements. It stores the local address of the buffer
+	 * of every slot, the length and the key, which can be used from the remote node for different operations.
 	 * In the end it sets the receive list of scatter gather elements (which in fact consists of only
-	 * one scatter gather element, since we don't need more) to the receive working request.
-	 * Hence, if we want to receive an operation from the server, we simply have to define other parameters
-	 * of the working request (such as working request ID).
-	 * @throws IOException
+	 * one scatter gather element, since we don't need more) to the receive working request of the slot,
+	 * whose id is the receive id plus the slot.
 	 */
 	private void recvInit() {
-		sgeRecv.setAddr(recvMr.getAddr());
-		sgeRecv.setLength(recvMr.getLength());
-		int lkey = recvMr.getLkey();
-		sgeRecv.setLkey(lkey);
-		sgeListRecv.add(sgeRecv);
-		recvWR.setSg_list(sgeListRecv);
-		wrList_recv.add(recvWR);
+		for (int slot = 0; slot < receiveSlots; slot++) {
+			IbvSge sgeRecv = new IbvSge();
+			sgeRecv.setAddr(recvRegions[slot].getAddress());
+			sgeRecv.setLength(recvRegions[slot].getLength());
+			sgeRecv.setLkey(recvRegions[slot].getKey());
+			LinkedList<IbvSge> sgeListRecv = new LinkedList<IbvSge>();
+			sgeListRecv.add(sgeRecv);
+			IbvRecvWR recvWR = new IbvRecvWR();
+			recvWR.setWr_id(RECEIVE_ID + slot);
+			recvWR.setSg_list(sgeListRecv);
+			LinkedList<IbvRecvWR> wrList_recv = new LinkedList<IbvRecvWR>();
+			wrList_recv.add(recvWR);
+			wrLists_recv.add(wrList_recv);
+		}
 	}
 	
 	
 	@Override
 	public synchronized void close() throws IOException, InterruptedException {
-		super.deregisterMemory(dataMr);
-		super.deregisterMemory(sendMr);
-		super.deregisterMemory(recvMr);
-		logger.debug("Memory deregistered");
+		if (sendCall != null) sendCall.free();
+		for (SVCPostRecv recvCall : recvCalls) {
+			if (recvCall != null) recvCall.free();
+		}
+		//the buffers are taken only if the endpoint was connected, they are given back once the queue pair is gone
 		super.close();
+		if (sendRegion != null) {
+			bufferPool.give(sendRegion);
+			tuner.endpointClosed();
+			endpointGroup.endpointClosed();
+		}
+		// the group of the listening endpoint delivered the connection events of the endpoint
+		if (listeningGroup != endpointGroup) listeningGroup.forgetEndpoint(this);
+		sendRegion = null;
+		for (int slot = 0; slot < receiveSlots; slot++) {
+			if (recvRegions[slot] != null) bufferPool.give(recvRegions[slot]);
+			recvRegions[slot] = null;
+		}
+		logger.debug("Buffers given back to the pool");
 	}
 	
 	@Override
@@ -194,8 +251,10 @@ public class ServerEndpoint extends RdmaActiveEndpoint {
 		super.dispatchCmEvent(cmEvent);
 		if (cmEvent.getEvent() == RdmaCmEvent.EventType.RDMA_CM_EVENT_DISCONNECTED.ordinal()) {
 			logger.debug("Detected " + RdmaCmEvent.EventType.RDMA_CM_EVENT_DISCONNECTED);
-			//don't let the main thread waiting forever in the arrayblockingqueue.
-			wcEvents.add(POISON_INSTANCE);
+			journal.record(EventJournal.DISCONNECT, qp == null ? 0 : qp.getQp_num(), 0);
+			RdmaEvents.disconnected(qp == null ? 0 : qp.getQp_num());
+			//inform the session, so that it can be closed.
+			dispatchCqEvent(POISON_INSTANCE);
 		}
 		else if (cmEvent.getEvent() == RdmaCmEvent.EventType.RDMA_CM_EVENT_CONNECT_RESPONSE.ordinal()) {
 			logger.debug("Detected " + RdmaCmEvent.EventType.RDMA_CM_EVENT_CONNECT_RESPONSE);
@@ -203,8 +262,92 @@ public class ServerEndpoint extends RdmaActiveEndpoint {
 	}
 	
 	
-	public void dispatchCqEvent(IbvWC wc) throws IOException {
-		wcEvents.add(wc);
+	/**
+	 * Delivers the working completion event to the completion listener. Until the listener is set (right after
+	 * the accept), the events are kept in the queue of the working completion events.
+	 */
+	public synchronized void dispatchCqEvent(IbvWC wc) throws IOException {
+		endpointGroup.pinCompletionThread();
+		if (completionListener == null) {
+			// the library reuses the event objects
+			if (!wcEvents.offer(wc.clone())) {
+				tuner.recordQueueFull();
+				throw new IOException("The queue of the completion events is full.");
+			}
+		} else {
+			deliver(wc);
+		}
+	}
+	
+	/**
+	 * Sets the listener of the completion events and delivers to it the events received before.
+	 * @param completionListener the listener
+	 */
+	public synchronized void setCompletionListener(CompletionListener completionListener) {
+		this.completionListener = completionListener;
+		IbvWC wc;
+		while ((wc = wcEvents.poll()) != null) {
+			deliver(wc);
+		}
+	}
+	
+	private void deliver(IbvWC wc) {
+		if (wc == POISON_INSTANCE) {
+			completionListener.connectionBroken();
+		} else {
+			completionListener.completionReceived(wc);
+		}
+	}
+	
+	/**
+	 * Get the prepared call, which posts the send working request (a signaled send of the send buffer).
+	 * The call is prepared the first time it is needed.
+	 * @return {@link SVCPostSend}
+	 * @throws IOException
+	 */
+	public synchronized SVCPostSend getSendCall() throws IOException {
+		if (sendCall == null) {
+			sendWR.setOpcode(IbvSendWR.IBV_WR_SEND);
+			sendWR.setSend_flags(IbvSendWR.IBV_SEND_SIGNALED);
+			sendCall = postSend(wrList_send);
+		}
+		return sendCall;
+	}
+	
+	/**
+	 * Get the prepared call, which posts the receive working request of the slot. The call is prepared the first
+	 * time it is needed.
+	 * @param slot the receive slot
+	 * @return {@link SVCPostRecv}
+	 * @throws IOException
+	 */
+	public synchronized SVCPostRecv getRecvCall(int slot) throws IOException {
+		if (recvCalls[slot] == null) recvCalls[slot] = postRecv(wrLists_recv.get(slot));
+		return recvCalls[slot];
+	}
+	
+	/**
+	 * Get the number of receive slots.
+	 * @return the number of slots
+	 */
+	public int getReceiveSlots() {
+		return receiveSlots;
+	}
+	
+	/**
+	 * Get the tuner of the endpoint.
+	 * @return {@link RdmaTuner}
+	 */
+	public RdmaTuner getTuner() {
+		return tuner;
+	}
+	
+	/**
+	 * Get the journal of the RDMA operations of the endpoint.
+	 * @return {@link EventJournal}
+	 */
+	public EventJournal getJournal() {
+		return journal;
 	}
 	
 	/**
@@ -225,23 +368,6 @@ public class ServerEndpoint extends RdmaActiveEndpoint {
 		return wrList_send;
 	}
 	
-	/**
-	 * Get the receive working request list.
-	 * @see IbvRecvWR
-	 * @return {@link LinkedList}
-	 */
-	public LinkedList<IbvRecvWR> getWrList_recv() {
-		return wrList_recv;
-	}
-	
-	/**
-	 * Get the data buffer.
-	 * @return {@link ByteBuffer}
-	 */
-	public ByteBuffer getDataBuf() {
-		return dataBuf;
-	}
-	
 	/**
 	 * Get the send buffer.
 	 * @return {@link ByteBuffer}
@@ -251,11 +377,12 @@ public class ServerEndpoint extends RdmaActiveEndpoint {
 	}
 	
 	/**
-	 * Get the receive buffer. 
+	 * Get the receive buffer of the slot. 
+	 * @param slot the receive slot
 	 * @return {@link ByteBuffer}
 	 */
-	public ByteBuffer getRecvBuf() {
-		return recvBuf;
+	public ByteBuffer getRecvBuf(int slot) {
+		return recvBufs[slot];
 	}
 	/**
 	 * Get the send working request.
@@ -264,13 +391,6 @@ public class ServerEndpoint extends RdmaActiveEndpoint {
 	public IbvSendWR getSendWR() {
 		return sendWR;
 	}
-	/**
-	 * Get the receiving working request.
-	 * @return {@link IbvSendWR}
-	 */
-	public IbvRecvWR getRecvWR() {
-		return recvWR;
-	}	
 	
 	/**
 	 * Changes the size of the Scatter/Gather element that bound to the local buffer. Makes possible to send
@@ -281,13 +401,5 @@ public class ServerEndpoint extends RdmaActiveEndpoint {
 		sgeSend.setLength(length);
 	}
 	
-	/**
-	 * Get the memory region of the data buffer. Makes possible to inform the client where to do rdma read.
-	 * @return {@link IbvMr}
-	 */
-	public IbvMr getDataMr() {
-		return dataMr;
-	}
-	
 
 }
\ No newline at end of file
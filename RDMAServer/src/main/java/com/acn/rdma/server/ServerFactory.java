@@ -1,10 +1,11 @@
 package com.acn.rdma.server;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 
-import com.ibm.disni.rdma.RdmaActiveEndpointGroup;
 import com.ibm.disni.rdma.RdmaEndpointFactory;
 import com.ibm.disni.rdma.verbs.RdmaCmId;
 
@@ -13,6 +14,12 @@ import com.ibm.disni.rdma.verbs.RdmaCmId;
  * The concrete factory of the server endpoint. This factory creates the concrete server endpoint,
  * that was implemented in the class <tt>ServerEndpoint</tt>. This concrete server endpoint is able
  * to deal with multiple clients.
+ * <p>
+ * The factory is called by the group of the listening endpoint for every accepted client, but the endpoint of
+ * the client is created in one of the endpoint groups of the server, so that the completions of the clients are
+ * spread over the completion threads of all the groups. The group is chosen round-robin, or the group with the
+ * fewest connected endpoints if the clients are balanced by load.
+ * </p>
  * @see ClientEndpoint
  */
 
@@ -20,26 +27,60 @@ import com.ibm.disni.rdma.verbs.RdmaCmId;
 public class ServerFactory implements RdmaEndpointFactory<ServerEndpoint> {
 	private static final Logger logger = Logger.getLogger(ServerFactory.class);
 	
-	private RdmaActiveEndpointGroup<ServerEndpoint> endpointGroup;
+	private TunedEndpointGroup<ServerEndpoint> listeningGroup;
+	private List<TunedEndpointGroup<ServerEndpoint>> endpointGroups;
+	private boolean balanceByLoad;
+	private AtomicInteger nextGroup;
+	private BufferPool bufferPool;
+	private RdmaTuner tuner;
+	private EventJournal journal;
 	
 	/**
 	 * Constructs the the server factory by specifying the generic parameter to be <tt>ServerEndpoint</tt>.
-	 * @param endpointGroup the group of endpoint
+	 * @param listeningGroup the group of the listening endpoint, which delivers the connection events
+	 * @param endpointGroups the groups of the endpoints of the clients
+	 * @param balanceByLoad true to create the endpoint in the least loaded group, false for round-robin
+	 * @param bufferPool the pool of buffers shared by the endpoints
+	 * @param tuner the tuner, which sizes the endpoints
+	 * @param journal the journal of the RDMA operations of the endpoints
 	 * @see ClientEndpoint
 	 */
-	public ServerFactory(RdmaActiveEndpointGroup<ServerEndpoint> endpointGroup) {
-		this.endpointGroup = endpointGroup;
+	public ServerFactory(TunedEndpointGroup<ServerEndpoint> listeningGroup, List<TunedEndpointGroup<ServerEndpoint>> endpointGroups,
+			boolean balanceByLoad, BufferPool bufferPool, RdmaTuner tuner, EventJournal journal) {
+		this.listeningGroup = listeningGroup;
+		this.endpointGroups = endpointGroups;
+		this.balanceByLoad = balanceByLoad;
+		this.nextGroup = new AtomicInteger();
+		this.bufferPool = bufferPool;
+		this.tuner = tuner;
+		this.journal = journal;
 	}
 	
 	
 	/**
-	 * Instantiates the ServerEndpoint class.
+	 * Instantiates the ServerEndpoint class in the chosen endpoint group.
 	 * @see ServerEndpoint
 	 */
 	public ServerEndpoint createEndpoint(RdmaCmId idPriv, boolean serverSide) throws IOException {
 		logger.debug("Trying to create the custom endpoint (ServerEndpoint)");
-		ServerEndpoint endpoint = new ServerEndpoint(endpointGroup, idPriv, serverSide);
+		TunedEndpointGroup<ServerEndpoint> endpointGroup = chooseGroup();
+		ServerEndpoint endpoint = new ServerEndpoint(endpointGroup, listeningGroup, idPriv, serverSide, bufferPool, tuner, journal);
 		logger.debug("Successfully created the custom endpoint (Server Endpoint)");
 		return endpoint;
-	}	
-}
\ No newline at end of file
+	}
+	
+	/**
+	 * Chooses the group of the next endpoint, round-robin or by load.
+	 * @return the group
+	 */
+	private TunedEndpointGroup<ServerEndpoint> chooseGroup() {
+		if (!balanceByLoad) {
+			return endpointGroups.get(Math.floorMod(nextGroup.getAndIncrement(), endpointGroups.size()));
+		}
+		TunedEndpointGroup<ServerEndpoint> least = endpointGroups.get(0);
+		for (TunedEndpointGroup<ServerEndpoint> group : endpointGroups) {
+			if (group.getEndpoints() < least.getEndpoints()) least = group;
+		}
+		return least;
+	}
+}
@@ -1,57 +1,54 @@
 package com.acn.rdma.server;
 
-import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
- * Provides an interface for the RDMA connection to the client. The classes the implement this
+ * Provides an interface for the RDMA connections of the server to the clients. The classes the implement this
  * interface should provide the following functions.
  *  <ul>
+ *   <li>rdmaBind</li>
+ *   Binds the server to the given ip address and port.
  *   <li>rdmaAccept</li>
- *   Accepts the connection from the client in the given ip address and port.
- *   <li>rdmaSend</li>
- *   Sends a message to the client in bytes by using a send working request with an unique ID.
- *   <li>rdmaReceive</li>
- *   Receives a message from the client in bytes by using a receive working request with an unique ID.
- *   <li>prepareRdmaAccess</li>
- *   Prepares the data in the local buffer to be read by the client and sends the RDMA info to the client
- *   to inform where the data is.
+ *   Accepts the next connection from a client. The requests of the client are delivered to the given
+ *   listener, so the server can accept the next client immediately.
+ *   <li>registerMemory</li>
+ *   Registers a buffer which all the clients can read with RDMA read operations.
+ *   <li>getBufferPool</li>
+ *   Gets the pool of the registered buffers, so that no memory is registered while serving the requests.
  *  </ul>
+ * @see ClientSession
  * @version 1
  */
 public interface ServerRdmaConnection {
 	
 	/**
-	 * Receives a message from the server in bytes by using a receive working request with an unique ID.
-	 * @param id the id for the unique receive working request.
-	 * @throws IOException
-	 * @throws InterruptedException
+	 * Binds the server to the given ip address and port. The server should be bound only once.
+	 * @throws RdmaConnectionException if an error occurs during the bind.
 	 */
-	public byte[] rdmaReceive(int id) throws RdmaConnectionException;
-	
+	public void rdmaBind(String ipAddres, int port) throws RdmaConnectionException;
 	
 	/**
-	 * Sends a message to the server in bytes by using a send working request with an unique ID.
-	 * @param message the message in bytes
-	 * @param id unique ID for the send working request
-	 * @throws RdmaConnectionException if an error happens during the rdma send.
+	 * The server accepts the next connection.
+	 * @param requestListener the listener which handles the requests of the new client
+	 * @return the session of the new client
+	 * @throws RdmaConnectionException if an error occurs during the accept.
 	 */
-	public void rdmaSend(byte[] message, int id) throws RdmaConnectionException;
+	public ClientSession rdmaAccept(RequestListener requestListener) throws RdmaConnectionException;
 	
 	/**
-	 *  Prepares the data in the local buffer to be read by the client and sends the RDMA info to the client
-	 *  to inform where the data is.
-	 * @param id the unique id for the working request
-	 * @return message the message in bytes
-	 * @throws IOException
-	 * @throws InterruptedException
+	 * Registers the buffer for RDMA access of all the clients. The server must be bound.
+	 * @param buffer the direct buffer
+	 * @return the registered region
+	 * @throws RdmaConnectionException if the buffer cannot be registered.
 	 */
-	public void prepareRdmaAccess(byte[] message, int id) throws RdmaConnectionException;
+	public RdmaRegion registerMemory(ByteBuffer buffer) throws RdmaConnectionException;
 	
 	/**
-	 * THe server accepts new connections.
-	 * @throws RdmaConnectionException if an error occurs during the accept.
+	 * Gets the pool of the buffers registered for RDMA access of all the clients. The server must be bound
+	 * before a buffer is taken.
+	 * @return the pool
 	 */
-	public void rdmaAccept(String ipAddres, int port) throws RdmaConnectionException;
+	public BufferPool getBufferPool();
 	
 
 }
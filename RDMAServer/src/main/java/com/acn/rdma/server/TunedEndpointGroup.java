@@ -0,0 +1,109 @@
+package com.acn.rdma.server;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import com.ibm.disni.rdma.RdmaActiveEndpoint;
+import com.ibm.disni.rdma.RdmaActiveEndpointGroup;
+import com.ibm.disni.rdma.verbs.IbvQP;
+import com.ibm.disni.util.NativeAffinity;
+
+/**
+ * This class is an endpoint group sized by the <tt>RdmaTuner</tt>. The completion queue is created with the size
+ * of the profile, but every queue pair is created with the queue depth of the tuner at the time, instead of a
+ * depth fixed for the whole group.
+ * <p>
+ * Every group has its own completion queue and completion thread. The server spreads its clients over several
+ * groups, one per configured core:
+ *  <ul>
+ *   <li>Affinity</li>
+ *   The completion thread of the group is pinned to the cores of the group (with the affinity of DiSNI) when it
+ *   delivers its first completion event, since the group of DiSNI 1.0 starts it without affinity.
+ *   <li>Load</li>
+ *   The group counts its connected endpoints, so that a new client can be given to the least loaded group.
+ *   <li>Connection events</li>
+ *   The connection events of all the clients arrive at the group of the listening endpoint, which keeps the
+ *   accepted endpoints of the other groups until they are closed (see <tt>forgetEndpoint</tt>).
+ *  </ul>
+ * </p>
+ * @see RdmaTuner
+ * @version 1
+ */
+public class TunedEndpointGroup<C extends RdmaActiveEndpoint> extends RdmaActiveEndpointGroup<C> {
+
+	private static final Logger logger = Logger.getLogger(TunedEndpointGroup.class);
+
+	public static final long NO_AFFINITY = 0;
+
+	private final RdmaTuner tuner;
+	private final long affinity;
+	private final AtomicInteger endpoints;
+	private volatile Thread pinnedThread;
+
+	/**
+	 * Constructs the group with the sizes of the profile of the tuner.
+	 * @param tuner the tuner
+	 * @param affinity the mask of the cores of the completion thread, or <tt>NO_AFFINITY</tt>
+	 * @throws IOException
+	 */
+	public TunedEndpointGroup(RdmaTuner tuner, long affinity) throws IOException {
+		super(tuner.getProfile().getTimeout(), false, tuner.getQueueDepth(), tuner.getProfile().getMaxSge(),
+				tuner.getProfile().getCqSize());
+		this.tuner = tuner;
+		this.affinity = affinity;
+		this.endpoints = new AtomicInteger();
+	}
+
+	/**
+	 * Creates the queue pair of the endpoint with the current queue depth of the tuner.
+	 */
+	@Override
+	public synchronized IbvQP createQpProvider(C endpoint) throws IOException {
+		maxWR = tuner.getQueueDepth();
+		return super.createQpProvider(endpoint);
+	}
+
+	/**
+	 * Pins the calling thread, which is the completion thread of the group, to the cores of the group. It is
+	 * called for every completion event, the thread is pinned only the first time.
+	 */
+	public void pinCompletionThread() {
+		if (affinity == NO_AFFINITY || pinnedThread == Thread.currentThread()) return;
+		NativeAffinity.setAffinity(affinity);
+		pinnedThread = Thread.currentThread();
+		logger.debug("Pinned the completion thread " + pinnedThread.getName() + " to the cores " + Long.toBinaryString(affinity));
+	}
+
+	/**
+	 * Removes the closed endpoint of another group from the endpoints whose connection events this group delivers.
+	 * @param endpoint the closed endpoint
+	 */
+	public synchronized void forgetEndpoint(C endpoint) {
+		clientEndpointMap.remove(endpoint.getIdPriv());
+	}
+
+	/**
+	 * Records an endpoint of the group which was connected.
+	 */
+	public void endpointOpened() {
+		endpoints.incrementAndGet();
+	}
+
+	/**
+	 * Records an endpoint of the group which was closed.
+	 */
+	public void endpointClosed() {
+		endpoints.decrementAndGet();
+	}
+
+	/**
+	 * Gets the number of connected endpoints of the group.
+	 * @return the number of endpoints
+	 */
+	public int getEndpoints() {
+		return endpoints.get();
+	}
+
+}
@@ -0,0 +1,106 @@
+package com.acn.rdma.server;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the size classes of the pool of the registered buffers.
+ */
+public class BufferPoolTest extends TestCase
+{
+    private static final long ADDRESS = 4096;
+    private static final int KEY = 7;
+
+    public BufferPoolTest( String testName )
+    {
+        super( testName );
+    }
+
+    public void testSizesAreRoundedToPowersOfTwo()
+    {
+        assertEquals( 0, BufferPool.sizeClass( 1 ) );
+        assertEquals( 0, BufferPool.sizeClass( BufferPool.MIN_SIZE ) );
+        assertEquals( 1, BufferPool.sizeClass( BufferPool.MIN_SIZE + 1 ) );
+        assertEquals( 4, BufferPool.sizeClass( 1024 ) );
+        assertEquals( 5, BufferPool.sizeClass( 1025 ) );
+    }
+
+    public void testBuffersAreSlicesOfOneSlab() throws RdmaConnectionException
+    {
+        BufferPool pool = new BufferPool( new Registrar(), 1024 );
+        RdmaRegion first = pool.take( 200 );
+        RdmaRegion second = pool.take( 256 );
+        assertEquals( 1, pool.getSlabs() );
+        assertEquals( 2, pool.getFreeBuffers( 256 ) );
+        assertEquals( ADDRESS, first.getAddress() );
+        assertEquals( ADDRESS + 256, second.getAddress() );
+        assertEquals( KEY, second.getKey() );
+        assertEquals( 200, first.getLength() );
+        assertEquals( 200, first.getBuffer().limit() );
+        assertEquals( 256, first.getBuffer().capacity() );
+    }
+
+    public void testSizeClassesHaveTheirOwnSlabs() throws RdmaConnectionException
+    {
+        BufferPool pool = new BufferPool( new Registrar(), 1024 );
+        pool.take( 100 );
+        pool.take( 1000 );
+        RdmaRegion large = pool.take( 5000 );
+        assertEquals( 3, pool.getSlabs() );
+        assertEquals( 8192, large.getBuffer().capacity() );
+        assertEquals( 7, pool.getFreeBuffers( 100 ) );
+        assertEquals( 0, pool.getFreeBuffers( 1000 ) );
+    }
+
+    public void testSlicesDoNotOverlap() throws RdmaConnectionException
+    {
+        BufferPool pool = new BufferPool( new Registrar(), 128 );
+        ByteBuffer first = pool.take( 4 ).getBuffer();
+        ByteBuffer second = pool.take( 4 ).getBuffer();
+        first.putInt( 1 );
+        second.putInt( 2 );
+        assertEquals( 1, first.getInt( 0 ) );
+        assertEquals( 2, second.getInt( 0 ) );
+    }
+
+    public void testBuffersAreReusedBeforeANewSlab() throws RdmaConnectionException
+    {
+        BufferPool pool = new BufferPool( new Registrar(), 64 );
+        RdmaRegion buffer = pool.take( 10 );
+        buffer.getBuffer().putInt( 42 );
+        pool.give( buffer );
+        RdmaRegion reused = pool.take( 20 );
+        assertSame( buffer.getBuffer(), reused.getBuffer() );
+        assertEquals( 0, reused.getBuffer().position() );
+        assertEquals( 20, reused.getBuffer().limit() );
+        assertEquals( 1, pool.getSlabs() );
+        pool.take( 10 );
+        assertEquals( 2, pool.getSlabs() );
+    }
+
+    /**
+     * Registers every slab at the same address, as the tests do not use the device.
+     */
+    private static class Registrar implements ServerRdmaConnection
+    {
+        public void rdmaBind( String ipAddres, int port )
+        {
+        }
+
+        public ClientSession rdmaAccept( RequestListener requestListener )
+        {
+            return null;
+        }
+
+        public RdmaRegion registerMemory( ByteBuffer buffer )
+        {
+            return new RdmaRegion( buffer, ADDRESS, buffer.capacity(), KEY );
+        }
+
+        public BufferPool getBufferPool()
+        {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.acn.rdma.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the content store and the negotiation of the content coding.
+ */
+public class ContentStoreTest extends TestCase
+{
+    private static final byte[] HTML = repeat( "<p>Welcome to the RDMA web page!</p>\n", 50 );
+
+    public ContentStoreTest( String testName )
+    {
+        super( testName );
+    }
+
+    public void testNoAcceptEncodingGivesIdentity() throws IOException
+    {
+        ContentStore store = new ContentStore();
+        store.put( "index", HTML );
+        assertTrue( Arrays.equals( reply( "identity", HTML ), store.get( "index", null ) ) );
+    }
+
+    public void testGzipVariantIsPrecompressed() throws IOException
+    {
+        ContentStore store = new ContentStore();
+        store.put( "index", HTML );
+        byte[] reply = store.get( "index", "gzip, deflate, br" );
+        String header = "gzip\n";
+        assertEquals( header, new String( reply, 0, header.length() ) );
+        byte[] gzip = Arrays.copyOfRange( reply, header.length(), reply.length );
+        assertTrue( gzip.length < HTML.length );
+        assertTrue( Arrays.equals( HTML, IOUtils.toByteArray( new GZIPInputStream( new ByteArrayInputStream( gzip ) ) ) ) );
+    }
+
+    public void testIncompressibleContentHasOnlyIdentity() throws IOException
+    {
+        byte[] random = new byte[2000];
+        new Random( 42 ).nextBytes( random );
+        ContentStore store = new ContentStore();
+        store.put( "image", random );
+        assertTrue( Arrays.equals( reply( "identity", random ), store.get( "image", "gzip, deflate" ) ) );
+    }
+
+    public void testUnknownResource()
+    {
+        assertNull( new ContentStore().get( "unknown", "gzip" ) );
+    }
+
+    public void testNegotiateQualityValues()
+    {
+        Map<String, byte[]> variants = variants( "gzip", "deflate", "identity" );
+        assertEquals( "deflate", ContentStore.negotiate( "gzip;q=0.5, deflate", variants ) );
+        assertEquals( "gzip", ContentStore.negotiate( "deflate, gzip", variants ) );
+        assertEquals( "identity", ContentStore.negotiate( "gzip;q=0, deflate;q=0", variants ) );
+        assertEquals( "identity", ContentStore.negotiate( "br", variants ) );
+        assertEquals( "gzip", ContentStore.negotiate( "*", variants ) );
+        assertEquals( "identity", ContentStore.negotiate( "gzip", variants( "identity" ) ) );
+    }
+
+    private static Map<String, byte[]> variants( String... codings )
+    {
+        Map<String, byte[]> variants = new LinkedHashMap<String, byte[]>();
+        for ( String coding : codings )
+        {
+            variants.put( coding, new byte[0] );
+        }
+        return variants;
+    }
+
+    private static byte[] reply( String coding, byte[] content )
+    {
+        byte[] header = ( coding + "\n" ).getBytes();
+        byte[] reply = Arrays.copyOf( header, header.length + content.length );
+        System.arraycopy( content, 0, reply, header.length, content.length );
+        return reply;
+    }
+
+    private static byte[] repeat( String line, int times )
+    {
+        StringBuilder builder = new StringBuilder();
+        for ( int i = 0; i < times; i++ )
+        {
+            builder.append( line );
+        }
+        return builder.toString().getBytes();
+    }
+}
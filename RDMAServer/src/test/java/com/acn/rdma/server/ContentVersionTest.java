@@ -0,0 +1,86 @@
+package com.acn.rdma.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the reference counting of the versions of the content.
+ */
+public class ContentVersionTest extends TestCase
+{
+    private static final byte[] CONTENT = "<html>version</html>".getBytes( StandardCharsets.ISO_8859_1 );
+
+    public ContentVersionTest( String testName )
+    {
+        super( testName );
+    }
+
+    public void testRepliesArePrecededByTheirLength() throws IOException
+    {
+        BufferPool pool = new BufferPool( new Registrar(), 4096 );
+        ContentVersion version = new ContentVersion( 1, content(), pool );
+        RdmaRegion reply = version.getReply( "page", null );
+        byte[] expected = content().getVariant( "page", ContentStore.IDENTITY );
+        assertEquals( 4 + expected.length, reply.getLength() );
+        assertEquals( expected.length, reply.getBuffer().getInt( 0 ) );
+        assertEquals( CONTENT.length, version.getRegion( "page" ).getLength() );
+        assertNull( version.getReply( "unknown", null ) );
+    }
+
+    public void testVersionIsRetiredWithTheLastReference() throws IOException
+    {
+        BufferPool pool = new BufferPool( new Registrar(), 4096 );
+        ContentVersion version = new ContentVersion( 1, content(), pool );
+        assertTrue( version.acquire() );
+        version.release();
+        assertTrue( version.acquire() );
+        version.release();
+        version.release();
+        assertFalse( version.acquire() );
+    }
+
+    public void testBuffersAreReusedByTheNextVersion() throws IOException
+    {
+        BufferPool pool = new BufferPool( new Registrar(), 4096 );
+        ContentVersion first = new ContentVersion( 1, content(), pool );
+        int slabs = pool.getSlabs();
+        first.release();
+        new ContentVersion( 2, content(), pool );
+        assertEquals( slabs, pool.getSlabs() );
+    }
+
+    private static ContentStore content() throws IOException
+    {
+        ContentStore content = new ContentStore();
+        content.put( "page", CONTENT );
+        return content;
+    }
+
+    /**
+     * Registers every slab at the same address, as the tests do not use the device.
+     */
+    private static class Registrar implements ServerRdmaConnection
+    {
+        public void rdmaBind( String ipAddres, int port )
+        {
+        }
+
+        public ClientSession rdmaAccept( RequestListener requestListener )
+        {
+            return null;
+        }
+
+        public RdmaRegion registerMemory( ByteBuffer buffer )
+        {
+            return new RdmaRegion( buffer, 0, buffer.capacity(), 0 );
+        }
+
+        public BufferPool getBufferPool()
+        {
+            return null;
+        }
+    }
+}
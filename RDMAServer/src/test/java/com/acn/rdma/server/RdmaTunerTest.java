@@ -0,0 +1,92 @@
+package com.acn.rdma.server;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the online adjustment of the sizes of the RDMA resources.
+ */
+public class RdmaTunerTest extends TestCase
+{
+    private static final long PERIOD = TimeUnit.SECONDS.toNanos( 1 );
+
+    public RdmaTunerTest( String testName )
+    {
+        super( testName );
+    }
+
+    public void testProfileIsKeptWithoutObservations()
+    {
+        RdmaTuner tuner = new RdmaTuner( RdmaProfile.getDefault(), 1 );
+        tuner.adjust( PERIOD );
+        assertEquals( 128, tuner.getQueueDepth() );
+        assertEquals( 10, tuner.getEventQueueCapacity() );
+        assertEquals( 128, tuner.getRecommendedCqSize() );
+        assertEquals( -1, tuner.getCompletionLatency() );
+    }
+
+    public void testQueueDepthFollowsTheOutstandingWorkRequests()
+    {
+        RdmaTuner tuner = new RdmaTuner( RdmaProfile.getDefault(), 1 );
+        tuner.recordOutstanding( 4 );
+        tuner.adjust( PERIOD );
+        assertEquals( 16, tuner.getQueueDepth() );
+        tuner.recordOutstanding( 20 );
+        tuner.adjust( PERIOD );
+        assertEquals( 64, tuner.getQueueDepth() );
+        tuner.recordOutstanding( 100 );
+        tuner.adjust( PERIOD );
+        assertEquals( 128, tuner.getQueueDepth() );
+    }
+
+    public void testQueueDepthCoversTheWorkRequestsInFlight()
+    {
+        RdmaTuner tuner = new RdmaTuner( RdmaProfile.getDefault(), 1 );
+        tuner.endpointOpened();
+        tuner.recordOutstanding( 1 );
+        for ( int i = 0; i < 1000; i++ )
+        {
+            tuner.recordCompletion( TimeUnit.MILLISECONDS.toNanos( 20 ) );
+        }
+        tuner.adjust( PERIOD );
+        assertEquals( 20000, tuner.getCompletionLatency() );
+        assertEquals( 64, tuner.getQueueDepth() );
+    }
+
+    public void testEventQueueGrowsAfterQueueFullEvents()
+    {
+        RdmaTuner tuner = new RdmaTuner( RdmaProfile.getDefault(), 1 );
+        tuner.recordQueueFull();
+        tuner.adjust( PERIOD );
+        assertEquals( 20, tuner.getEventQueueCapacity() );
+        tuner.adjust( PERIOD );
+        assertEquals( 20, tuner.getEventQueueCapacity() );
+        assertEquals( 1, tuner.getQueueFullEvents() );
+    }
+
+    public void testCqSizeIsRecommendedForThePeakOfEndpoints()
+    {
+        RdmaTuner tuner = new RdmaTuner( RdmaProfile.getDefault(), 1 );
+        tuner.endpointOpened();
+        tuner.endpointOpened();
+        tuner.endpointOpened();
+        tuner.endpointClosed();
+        tuner.recordOutstanding( 20 );
+        tuner.adjust( PERIOD );
+        assertEquals( 2, tuner.getEndpoints() );
+        assertEquals( 512, tuner.getRecommendedCqSize() );
+        assertEquals( 128, tuner.getCqSize() );
+    }
+
+    public void testCqSizeIsRecommendedPerGroup()
+    {
+        RdmaTuner tuner = new RdmaTuner( RdmaProfile.getDefault(), 2 );
+        tuner.endpointOpened();
+        tuner.endpointOpened();
+        tuner.endpointOpened();
+        tuner.recordOutstanding( 20 );
+        tuner.adjust( PERIOD );
+        assertEquals( 256, tuner.getRecommendedCqSize() );
+    }
+}